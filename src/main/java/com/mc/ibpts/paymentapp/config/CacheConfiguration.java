@@ -0,0 +1,122 @@
+package com.mc.ibpts.paymentapp.config;
+
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferStatusResponse;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.repository.utils.AccountInfoSerializer;
+import com.mc.ibpts.paymentapp.repository.utils.TransactionInfoSerializer;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.expiry.Duration;
+import org.ehcache.expiry.Expirations;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiered cache configuration, hot entries are kept on heap while the rest are kept off-heap and on disk as
+ * serialized bytes, so raising the cache sizes does not add to the GC pressure.
+ * When the disk tier is persistent, the cache is flushed to disk on shutdown and found warm on the next start.
+ */
+@Slf4j
+@Configuration
+public class CacheConfiguration {
+
+    @Value("${payment.cache.directory}")
+    private String directory;
+
+    @Value("${payment.cache.disk.persistent:false}")
+    private boolean persistent;
+
+    @Value("${payment.cache.accounts.heap.entries:10000}")
+    private long accountsHeapEntries;
+
+    @Value("${payment.cache.accounts.offheap.size.mb:32}")
+    private long accountsOffHeapSizeMb;
+
+    @Value("${payment.cache.accounts.disk.size.mb:256}")
+    private long accountsDiskSizeMb;
+
+    @Value("${payment.cache.transactions.heap.size.mb:16}")
+    private long transactionsHeapSizeMb;
+
+    @Value("${payment.cache.transactions.offheap.size.mb:64}")
+    private long transactionsOffHeapSizeMb;
+
+    @Value("${payment.cache.transactions.disk.size.mb:512}")
+    private long transactionsDiskSizeMb;
+
+    @Value("${payment.cache.idempotency.heap.entries:10000}")
+    private long idempotencyHeapEntries;
+
+    @Value("${payment.cache.idempotency.offheap.size.mb:16}")
+    private long idempotencyOffHeapSizeMb;
+
+    @Value("${payment.cache.idempotent-responses.heap.entries:10000}")
+    private long idempotentResponsesHeapEntries;
+
+    @Value("${payment.cache.idempotent-responses.offheap.size.mb:32}")
+    private long idempotentResponsesOffHeapSizeMb;
+
+    @Value("${payment.idempotency.retention.minutes:1440}")
+    private long idempotencyRetentionMinutes;
+
+    @Value("${payment.cache.missing-accounts.heap.entries:10000}")
+    private long missingAccountsHeapEntries;
+
+    @Value("${payment.cache.missing-accounts.ttl.seconds:30}")
+    private long missingAccountsTtlSeconds;
+
+    @Value("${payment.cache.transfer-statuses.heap.entries:100000}")
+    private long transferStatusesHeapEntries;
+
+    @Bean(destroyMethod = "close")
+    public CacheManager cacheManager() {
+        log.info("Initialising cache manager with directory={}, persistent={}", directory, persistent);
+        CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .with(CacheManagerBuilder.persistence(new File(directory)))
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.newResourcePoolsBuilder()
+                                .heap(accountsHeapEntries, EntryUnit.ENTRIES)
+                                .offheap(accountsOffHeapSizeMb, MemoryUnit.MB)
+                                .disk(accountsDiskSizeMb, MemoryUnit.MB, persistent))
+                        .withValueSerializer(new AccountInfoSerializer()))
+                .withCache("transactions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, TransactionInfo.class, ResourcePoolsBuilder.newResourcePoolsBuilder()
+                                .heap(transactionsHeapSizeMb, MemoryUnit.MB)
+                                .offheap(transactionsOffHeapSizeMb, MemoryUnit.MB)
+                                .disk(transactionsDiskSizeMb, MemoryUnit.MB, persistent))
+                        .withValueSerializer(new TransactionInfoSerializer()))
+                .withCache("idempotency", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, String.class, ResourcePoolsBuilder.newResourcePoolsBuilder()
+                                .heap(idempotencyHeapEntries, EntryUnit.ENTRIES)
+                                .offheap(idempotencyOffHeapSizeMb, MemoryUnit.MB))
+                        .withExpiry(Expirations.timeToLiveExpiration(
+                                Duration.of(idempotencyRetentionMinutes, TimeUnit.MINUTES))))
+                .withCache("idempotentResponses", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, String.class, ResourcePoolsBuilder.newResourcePoolsBuilder()
+                                .heap(idempotentResponsesHeapEntries, EntryUnit.ENTRIES)
+                                .offheap(idempotentResponsesOffHeapSizeMb, MemoryUnit.MB))
+                        .withExpiry(Expirations.timeToLiveExpiration(
+                                Duration.of(idempotencyRetentionMinutes, TimeUnit.MINUTES))))
+                .withCache("missingAccounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, String.class, ResourcePoolsBuilder.heap(missingAccountsHeapEntries))
+                        .withExpiry(Expirations.timeToLiveExpiration(
+                                Duration.of(missingAccountsTtlSeconds, TimeUnit.SECONDS))))
+                .withCache("transferStatuses", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, PaymentTransferStatusResponse.class, ResourcePoolsBuilder.heap(transferStatusesHeapEntries))
+                        .withExpiry(Expirations.timeToLiveExpiration(
+                                Duration.of(idempotencyRetentionMinutes, TimeUnit.MINUTES))))
+                .build();
+        cacheManager.init();
+        return cacheManager;
+    }
+}
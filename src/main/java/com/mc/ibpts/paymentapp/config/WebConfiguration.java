@@ -0,0 +1,21 @@
+package com.mc.ibpts.paymentapp.config;
+
+import com.mc.ibpts.paymentapp.utils.PrecomputedJsonHttpMessageConverter;
+import com.mc.ibpts.paymentapp.utils.StreamingResourceHttpMessageConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        /* Ahead of Jackson, so that precomputed responses are written as is. */
+        converters.add(0, new PrecomputedJsonHttpMessageConverter());
+        /* Ahead of the resource converter, which would read the streamed resources as input streams. */
+        converters.add(1, new StreamingResourceHttpMessageConverter());
+    }
+}
@@ -6,10 +6,12 @@ import com.mc.ibpts.paymentapp.common.gen.model.*;
 import io.swagger.annotations.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.time.OffsetDateTime;
 import java.util.List;
 
 @Slf4j
@@ -45,6 +47,32 @@ public class AccountsV1Controller implements V1Api {
     }
 
 
+    /**
+     * POST /v1/accounts/balances:batchGet : This API will return the balance details of a list of accounts in one response.
+     *
+     * @param accountBalanceBatchRequest Request payload with the list of account ids. (required)
+     * @return Successful response: Balance details of the accounts found, in the order of the request. (status code 200)
+     *         or Failed response: Bad request (status code 400)
+     */
+    @ApiOperation(value = "This API will return the balance details of a list of accounts in one response.", nickname = "v1AccountsBalancesbatchGetPost", notes = "", response = AccountBalanceBatchResponse.class, authorizations = {
+
+            @Authorization(value = "BasicAuth")
+    }, tags={ "Account Services", })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful response: Balance details of the accounts found, in the order of the request.", response = AccountBalanceBatchResponse.class),
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
+    @PostMapping(
+            value = "/v1/accounts/balances:batchGet",
+            produces = { "application/json" },
+            consumes = { "application/json" }
+    )
+    public ResponseEntity<AccountBalanceBatchResponse> v1AccountsBalancesbatchGetPost(@ApiParam(value = "Request payload with the list of account ids." ,required=true )  @Valid @RequestBody AccountBalanceBatchRequest accountBalanceBatchRequest) {
+        log.info("Request received to fetch account balance details for a batch of {} accounts",
+                accountBalanceBatchRequest.getAccountIds().size());
+        return accountsV1Service.v1AccountsBalancesbatchGetPost(accountBalanceBatchRequest);
+    }
+
+
     /**
      * GET /v1/accounts/{account_id}/statements/mini : This API will return a mini statement of most recent 20 transactions of a particular account.
      *
@@ -72,23 +100,88 @@ public class AccountsV1Controller implements V1Api {
 
 
     /**
-     * GET /v1/accounts : This API will return the complete account details, including new and deleted accounts.
+     * GET /v1/accounts/{account_id}/statements : This API will return the transactions of a particular account, most recent first, one page at a time.
+     *
+     * @param accountId Unique id associated with each accounts. (required)
+     * @param fromDate Earliest transaction date of the statement, inclusive. (optional)
+     * @param toDate Latest transaction date of the statement, inclusive. (optional)
+     * @param pageSize Maximum number of transactions in the page, from 1 to 1000. (optional, default to 100)
+     * @param cursor Opaque cursor of the page, as returned in next_cursor of the previous page. (optional)
+     * @return Successful response: A page of the account statement. (status code 200)
+     *         or Failed response: Bad request (status code 400)
+     */
+    @ApiOperation(value = "This API will return the transactions of a particular account, most recent first, one page at a time.", nickname = "v1AccountsAccountIdStatementsGet", notes = "", response = AccountStatementPageResponse.class, authorizations = {
+
+            @Authorization(value = "BasicAuth")
+    }, tags={ "Account Services", })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful response: A page of the account statement.", response = AccountStatementPageResponse.class),
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
+    @GetMapping(
+            value = "/v1/accounts/{account_id}/statements",
+            produces = { "application/json" }
+    )
+    public ResponseEntity<AccountStatementPageResponse> v1AccountsAccountIdStatementsGet(@ApiParam(value = "Unique id associated with each accounts.",required=true) @PathVariable("account_id") String accountId,@ApiParam(value = "Earliest transaction date of the statement, inclusive.") @Valid @RequestParam(value = "from_date", required = false) @org.springframework.format.annotation.DateTimeFormat(iso = org.springframework.format.annotation.DateTimeFormat.ISO.DATE_TIME) OffsetDateTime fromDate,@ApiParam(value = "Latest transaction date of the statement, inclusive.") @Valid @RequestParam(value = "to_date", required = false) @org.springframework.format.annotation.DateTimeFormat(iso = org.springframework.format.annotation.DateTimeFormat.ISO.DATE_TIME) OffsetDateTime toDate,@ApiParam(value = "Maximum number of transactions in the page, from 1 to 1000.", defaultValue = "100") @Valid @RequestParam(value = "page_size", required = false, defaultValue="100") Integer pageSize,@ApiParam(value = "Opaque cursor of the page, as returned in next_cursor of the previous page.") @Valid @RequestParam(value = "cursor", required = false) String cursor) {
+        log.info("Request received to fetch account statement page for account_id={} from_date={} to_date={} page_size={}",
+                accountId, fromDate, toDate, pageSize);
+        return accountsV1Service.v1AccountsAccountIdStatementsGet(accountId, fromDate, toDate, pageSize, cursor);
+    }
+
+
+    /**
+     * GET /v1/accounts : This API will return the account details, including new and deleted accounts, in account_id order one page at a time.
      *
-     * @return Successful response: List of all the accounts. (status code 200)
+     * @param pageSize Maximum number of accounts in the page, from 1 to 1000. (optional, default to 100)
+     * @param cursor Opaque cursor of the page, as returned in next_cursor of the previous page. (optional)
+     * @param accountStatus Only the accounts in this status. (optional)
+     * @param currency Only the accounts in this currency. (optional)
+     * @param ifNoneMatch ETag of a previous response, the page is not returned again if no account changed since. (optional)
+     * @return Successful response: A page of the accounts. (status code 200)
+     *         or Not modified: No account changed since the response of the If-None-Match ETag. (status code 304)
+     *         or Failed response: Bad request (status code 400)
      */
-    @ApiOperation(value = "This API will return the complete account details, including new and deleted accounts.", nickname = "v1AccountsGet", notes = "", response = AccountDetailsResponseData.class, responseContainer = "List", authorizations = {
+    @ApiOperation(value = "This API will return the account details, including new and deleted accounts, in account_id order one page at a time.", nickname = "v1AccountsGet", notes = "", response = AccountDetailsPageResponse.class, authorizations = {
 
             @Authorization(value = "BasicAuth")
     }, tags={ "Account Services", })
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "Successful response: List of all the accounts.", response = AccountDetailsResponseData.class, responseContainer = "List") })
+            @ApiResponse(code = 200, message = "Successful response: A page of the accounts.", response = AccountDetailsPageResponse.class),
+            @ApiResponse(code = 304, message = "Not modified: No account changed since the response of the If-None-Match ETag."),
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
     @GetMapping(
             value = "/v1/accounts",
             produces = { "application/json" }
     )
-    public ResponseEntity<List<AccountDetailsResponseData>> v1AccountsGet() {
-        log.info("Request received to fetch all account details");
-        return accountsV1Service.v1AccountsGet();
+    public ResponseEntity<AccountDetailsPageResponse> v1AccountsGet(@ApiParam(value = "Maximum number of accounts in the page, from 1 to 1000.", defaultValue = "100") @Valid @RequestParam(value = "page_size", required = false, defaultValue="100") Integer pageSize,@ApiParam(value = "Opaque cursor of the page, as returned in next_cursor of the previous page.") @Valid @RequestParam(value = "cursor", required = false) String cursor,@ApiParam(value = "Only the accounts in this status.", allowableValues = "ACTIVE, DELETED") @Valid @RequestParam(value = "account_status", required = false) String accountStatus,@ApiParam(value = "Only the accounts in this currency.", allowableValues = "GBP, NOK, EUR") @Valid @RequestParam(value = "currency", required = false) String currency,@ApiParam(value = "ETag of a previous response, the page is not returned again if no account changed since." ) @RequestHeader(value="If-None-Match", required=false) String ifNoneMatch) {
+        log.info("Request received to fetch account details page_size={} account_status={} currency={}",
+                pageSize, accountStatus, currency);
+        return accountsV1Service.v1AccountsGet(pageSize, cursor, accountStatus, currency, ifNoneMatch);
+    }
+
+
+    /**
+     * GET /v1/transactions/export : This API will export the transactions of a particular account, or of all the accounts, streamed one line per transaction.
+     *
+     * @param accountId Unique id of the account to export, all the transactions are exported if absent. (optional)
+     * @param format Format of the export, newline delimited JSON or CSV with a header line. (optional, default to ndjson)
+     * @param acceptEncoding The export is gzip compressed if gzip is accepted. (optional)
+     * @return Successful response: The transactions, most recent first when exporting an account. (status code 200)
+     *         or Failed response: Bad request (status code 400)
+     */
+    @ApiOperation(value = "This API will export the transactions of a particular account, or of all the accounts, streamed one line per transaction.", nickname = "v1TransactionsExportGet", notes = "", response = Resource.class, authorizations = {
+
+            @Authorization(value = "BasicAuth")
+    }, tags={ "Account Services", })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful response: The transactions, most recent first when exporting an account.", response = Resource.class),
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
+    @GetMapping(
+            value = "/v1/transactions/export",
+            produces = { "application/x-ndjson", "text/csv", "application/json" }
+    )
+    public ResponseEntity<Resource> v1TransactionsExportGet(@ApiParam(value = "Unique id of the account to export, all the transactions are exported if absent.") @Valid @RequestParam(value = "account_id", required = false) String accountId,@ApiParam(value = "Format of the export, newline delimited JSON or CSV with a header line.", allowableValues = "ndjson, csv", defaultValue = "ndjson") @Valid @RequestParam(value = "format", required = false, defaultValue="ndjson") String format,@ApiParam(value = "The export is gzip compressed if gzip is accepted." ) @RequestHeader(value="Accept-Encoding", required=false) String acceptEncoding) {
+        log.info("Request received to export transactions for account_id={} as format={}", accountId, format);
+        return accountsV1Service.v1TransactionsExportGet(accountId, format, acceptEncoding);
     }
 
 
@@ -99,6 +192,8 @@ public class AccountsV1Controller implements V1Api {
      * @param paymentTransferRequest Request payload for adding a new element to the existing Array. (required)
      * @return Successful response: Payment transfer completed. (status code 200)
      *         or Failed response: Bad request (status code 400)
+     *         or Failed response: Request with the same Idempotency-Key is in progress (status code 409)
+     *         or Failed response: Transfer queue is full, in asynchronous mode (status code 503)
      */
     @ApiOperation(value = "This API will transfer money from one account to other.", nickname = "v1PaymentsTransferPost", notes = "", response = PaymentTransferResponse.class, authorizations = {
 
@@ -106,7 +201,9 @@ public class AccountsV1Controller implements V1Api {
     }, tags={ "Payment Services", })
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful response: Payment transfer completed.", response = PaymentTransferResponse.class),
-            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class),
+            @ApiResponse(code = 409, message = "Failed response: Request with the same Idempotency-Key is in progress", response = ErrorResponse.class),
+            @ApiResponse(code = 503, message = "Failed response: Transfer queue is full, in asynchronous mode", response = ErrorResponse.class) })
     @PostMapping(
             value = "/v1/payments/transfer",
             produces = { "application/json" },
@@ -120,4 +217,55 @@ public class AccountsV1Controller implements V1Api {
         return accountsV1Service.v1PaymentsTransferPost(idempotencyKey, paymentTransferRequest);
     }
 
+
+    /**
+     * GET /v1/payments/{transfer_id} : This API will return the status of a transfer submitted in asynchronous mode.
+     *
+     * @param transferId Transfer id returned when the transfer was accepted. (required)
+     * @return Successful response: Status of the transfer. (status code 200)
+     *         or Failed response: Transfer not found (status code 404)
+     */
+    @ApiOperation(value = "This API will return the status of a transfer submitted in asynchronous mode.", nickname = "v1PaymentsTransferIdGet", notes = "", response = PaymentTransferStatusResponse.class, authorizations = {
+
+            @Authorization(value = "BasicAuth")
+    }, tags={ "Payment Services", })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful response: Status of the transfer.", response = PaymentTransferStatusResponse.class),
+            @ApiResponse(code = 404, message = "Failed response: Transfer not found", response = ErrorResponse.class) })
+    /* Transfer ids are UUIDs, so that GET /v1/payments/transfer is still answered as a method not allowed. */
+    @GetMapping(
+            value = "/v1/payments/{transfer_id:[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}}",
+            produces = { "application/json" }
+    )
+    public ResponseEntity<PaymentTransferStatusResponse> v1PaymentsTransferIdGet(@ApiParam(value = "Transfer id returned when the transfer was accepted.",required=true) @PathVariable("transfer_id") String transferId) {
+        log.info("Request received to fetch transfer status for transferId={}", transferId);
+        return accountsV1Service.v1PaymentsTransferIdGet(transferId);
+    }
+
+
+    /**
+     * POST /v1/payments/transfer/batch : This API will transfer money for a batch of payment requests, each request with its own idempotency key.
+     *
+     * @param paymentTransferBatchRequest Request payload with the list of payment transfers to be executed. (required)
+     * @return Successful response: Batch processed, result of each payment transfer is reported individually. (status code 200)
+     *         or Failed response: Bad request (status code 400)
+     */
+    @ApiOperation(value = "This API will transfer money for a batch of payment requests, each request with its own idempotency key.", nickname = "v1PaymentsTransferBatchPost", notes = "", response = PaymentTransferBatchResponse.class, authorizations = {
+
+            @Authorization(value = "BasicAuth")
+    }, tags={ "Payment Services", })
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful response: Batch processed, result of each payment transfer is reported individually.", response = PaymentTransferBatchResponse.class),
+            @ApiResponse(code = 400, message = "Failed response: Bad request", response = ErrorResponse.class) })
+    @PostMapping(
+            value = "/v1/payments/transfer/batch",
+            produces = { "application/json" },
+            consumes = { "application/json" }
+    )
+    public ResponseEntity<PaymentTransferBatchResponse> v1PaymentsTransferBatchPost(@ApiParam(value = "Request payload with the list of payment transfers to be executed." ,required=true )  @Valid @RequestBody PaymentTransferBatchRequest paymentTransferBatchRequest) {
+        log.info("Request received to transfer money for a batch of {} payment requests",
+                paymentTransferBatchRequest.getTransfers().size());
+        return accountsV1Service.v1PaymentsTransferBatchPost(paymentTransferBatchRequest);
+    }
+
 }
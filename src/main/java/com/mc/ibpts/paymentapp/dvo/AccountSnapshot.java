@@ -0,0 +1,23 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Balances and statuses of all the accounts, as of the transaction id highWaterMark. Every transaction up to it
+ * is part of the balances and none after it, so the accounts are brought up to date by the transactions after it.
+ * The idempotency key filter is snapshotted along when available, else it is null.
+ */
+@Getter
+@AllArgsConstructor
+public class AccountSnapshot {
+    private long highWaterMark;
+    private List<AccountInfo> accountInfoList;
+    private IdempotencyKeyFilterBits idempotencyKeyFilterBits;
+
+    public AccountSnapshot(long highWaterMark, List<AccountInfo> accountInfoList) {
+        this(highWaterMark, accountInfoList, null);
+    }
+}
@@ -0,0 +1,19 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Copy of the bits of the idempotency key filter, holding every key put in the filter before the copy was taken.
+ * Keys put meanwhile or after may be missing, so the keys created from keysCreatedFrom on are added back to the filter
+ * when it is restored from the copy.
+ */
+@Getter
+@AllArgsConstructor
+public class IdempotencyKeyFilterBits {
+    private LocalDateTime keysCreatedFrom;
+    private int hashFunctions;
+    private long[] bits;
+}
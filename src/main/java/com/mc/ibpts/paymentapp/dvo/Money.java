@@ -0,0 +1,169 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import org.springframework.http.HttpStatus;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * Immutable amount of money held as a count of minor units (e.g. pence) of its currency, all supported currencies
+ * have two decimal places. Amounts are parsed from and formatted to the {@code ^[0-9]+\.[0-9]{2}$} wire format
+ * by hand, without going through {@link BigDecimal} or a shared {@link java.text.NumberFormat}.
+ */
+public final class Money implements Comparable<Money> {
+
+    private static final int SCALE = 2;
+
+    private final long minorUnits;
+    private final String currency;
+
+    private Money(long minorUnits, String currency) {
+        this.minorUnits = minorUnits;
+        this.currency = Objects.requireNonNull(currency, "currency");
+    }
+
+    public static Money ofMinorUnits(long minorUnits, String currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money zero(String currency) {
+        return new Money(0, currency);
+    }
+
+    /* Conversion from the NUMBER(10, 2) database columns. */
+    public static Money fromBigDecimal(BigDecimal amount, String currency) {
+        return amount == null
+                ? null
+                : new Money(amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact(), currency);
+    }
+
+    /**
+     * Parses an amount of the {@code ^[0-9]+\.[0-9]{2}$} wire format, e.g. "1000.05".
+     */
+    public static Money parse(CharSequence amount, String currency) {
+        int length = amount == null ? 0 : amount.length();
+        if (length < SCALE + 2 || amount.charAt(length - SCALE - 1) != '.') {
+            throw invalidAmount(amount);
+        }
+        long minorUnits = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == length - SCALE - 1) {
+                continue;
+            }
+            int digit = amount.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalidAmount(amount);
+            }
+            if (minorUnits > (Long.MAX_VALUE - digit) / 10) {
+                throw invalidAmount(amount);
+            }
+            minorUnits = minorUnits * 10 + digit;
+        }
+        return new Money(minorUnits, currency);
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public Money add(Money other) {
+        checkCurrency(other);
+        return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money subtract(Money other) {
+        checkCurrency(other);
+        return new Money(Math.subtractExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(minorUnits), currency);
+    }
+
+    public boolean isLessThan(Money other) {
+        return compareTo(other) < 0;
+    }
+
+    /* Conversion for the NUMBER(10, 2) database columns. */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    /**
+     * Formats the amount with grouping of the thousands, e.g. "1,000.05", as returned in the API responses.
+     */
+    public String format() {
+        return format(true);
+    }
+
+    private String format(boolean grouping) {
+        /* Digits are taken from the negative value, so that Long.MIN_VALUE does not overflow. */
+        long remaining = minorUnits < 0 ? minorUnits : -minorUnits;
+        char[] buffer = new char[27];
+        int position = buffer.length;
+        for (int i = 0; i < SCALE; i++) {
+            buffer[--position] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        }
+        buffer[--position] = '.';
+        int integerDigits = 0;
+        do {
+            if (grouping && integerDigits > 0 && integerDigits % 3 == 0) {
+                buffer[--position] = ',';
+            }
+            buffer[--position] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+            integerDigits++;
+        } while (remaining != 0);
+        if (minorUnits < 0) {
+            buffer[--position] = '-';
+        }
+        return new String(buffer, position, buffer.length - position);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Money)) {
+            return false;
+        }
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits && currency.equals(money.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    /* Wire format without grouping, e.g. "1000.05". */
+    @Override
+    public String toString() {
+        return format(false);
+    }
+
+    private void checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException(
+                    "Currency mismatch, currency=" + currency + ", otherCurrency=" + other.currency);
+        }
+    }
+
+    private static CustomBusinessException invalidAmount(CharSequence amount) {
+        return new CustomBusinessException(HttpStatus.BAD_REQUEST, "Invalid amount: " + amount);
+    }
+}
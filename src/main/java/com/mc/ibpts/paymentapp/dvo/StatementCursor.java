@@ -0,0 +1,45 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position of a statement page, the (transaction_date, id) of the last transaction of the previous page.
+ * The next page starts strictly after it in (transaction_date desc, id desc) order, so it is found by an index
+ * range scan whatever the depth of the page, instead of skipping the previous pages with an OFFSET.
+ * Clients get it as an opaque URL safe string.
+ */
+@Getter
+@AllArgsConstructor
+public class StatementCursor {
+    private LocalDateTime transactionDate;
+    private Long id;
+
+    public static StatementCursor after(TransactionInfo transactionInfo) {
+        return new StatementCursor(transactionInfo.getTransactionDate(), transactionInfo.getId());
+    }
+
+    public static StatementCursor decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf('|');
+            return new StatementCursor(
+                    LocalDateTime.parse(decoded.substring(0, separator)),
+                    Long.valueOf(decoded.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new CustomBusinessException(HttpStatus.BAD_REQUEST, "Invalid statement cursor.", e);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((transactionDate + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
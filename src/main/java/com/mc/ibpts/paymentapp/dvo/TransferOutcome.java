@@ -0,0 +1,31 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+@Getter
+@AllArgsConstructor
+public class TransferOutcome {
+    private HttpStatus httpStatus;
+    private String message;
+    private TransactionInfo transactionInfo;
+    private boolean unknown;
+
+    public static TransferOutcome completed(TransactionInfo transactionInfo) {
+        return new TransferOutcome(HttpStatus.ACCEPTED, null, transactionInfo, false);
+    }
+
+    public static TransferOutcome rejected(HttpStatus httpStatus, String message) {
+        return new TransferOutcome(httpStatus, message, null, false);
+    }
+
+    /* Neither completed nor rejected for sure, e.g. journaled but not made durable nor struck out of the journal. */
+    public static TransferOutcome unknown(HttpStatus httpStatus, String message) {
+        return new TransferOutcome(httpStatus, message, null, true);
+    }
+
+    public boolean isCompleted() {
+        return transactionInfo != null;
+    }
+}
@@ -0,0 +1,14 @@
+package com.mc.ibpts.paymentapp.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * The transfer may have been applied or not, which is only known after a restart. The idempotency key of the
+ * request is kept, so that a retry is not applied a second time.
+ */
+public class TransferOutcomeUnknownException extends CustomBusinessException {
+
+    public TransferOutcomeUnknownException(String message, Throwable exception) {
+        super(HttpStatus.INTERNAL_SERVER_ERROR, message, exception);
+    }
+}
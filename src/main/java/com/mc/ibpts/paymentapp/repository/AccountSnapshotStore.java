@@ -0,0 +1,272 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.AccountSnapshot;
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary file of the latest account snapshot, replaced as a whole on each write.
+ * A snapshot is streamed to a temporary file, forced, then moved over the previous one, so a crash while writing
+ * leaves the previous snapshot in place. It is read back through a read-only mapping of the file, and ignored when
+ * its CRC32 does not match.
+ * <p>
+ * Layout: magic (4), version (4), high-water mark (8), creation epoch millis (8), then the idempotency key filter:
+ * keys created from, as epoch millis of the local date time at UTC (8), number of hash functions (4), number of 64 bit
+ * words (4) and the words, all 0 when there is no filter. Then for each account: account_id (8), balance in minor
+ * units (8), currency (3), account status length (1) and account status in UTF-8, then the number of accounts (4),
+ * known only once they are all written, followed by the CRC32 of all the preceding bytes (4).
+ */
+@Slf4j
+@Component
+public class AccountSnapshotStore {
+
+    static final String FILE_NAME = "accounts.snapshot";
+    private static final int MAGIC = 0x534E4150;   // "SNAP"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 24;
+    private static final int ACCOUNT_SIZE = 20;
+    private static final int FILTER_HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_ACCOUNT_STATUS_BYTES = 255;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final Path file;
+
+    public AccountSnapshotStore(
+            @Value("${payment.snapshot.enabled:false}") boolean enabled,
+            @Value("${payment.snapshot.directory:${java.io.tmpdir}/payment-app/snapshot}") String directory) {
+        this.enabled = enabled;
+        this.file = Paths.get(directory, FILE_NAME);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void write(AccountSnapshot accountSnapshot) {
+        write(accountSnapshot.getHighWaterMark(), accountSnapshot.getIdempotencyKeyFilterBits(),
+                accountConsumer -> accountSnapshot.getAccountInfoList().forEach(accountConsumer));
+    }
+
+    /**
+     * Writes the accounts handed by the source to the consumer it is given as the latest snapshot, as of highWaterMark,
+     * along with the idempotency key filter bits when not null.
+     * The accounts are encoded and written as they come through a fixed size buffer, the snapshot is never held in
+     * memory as a whole. The previous snapshot is kept when the source fails.
+     */
+    public void write(long highWaterMark, IdempotencyKeyFilterBits filterBits,
+                      Consumer<Consumer<AccountInfo>> accountSource) {
+        Path temporaryFile = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SnapshotWriter snapshotWriter = new SnapshotWriter(channel, highWaterMark, filterBits);
+                accountSource.accept(snapshotWriter::append);
+                snapshotWriter.finish();
+                channel.force(true);
+                log.info("Written account snapshot of {} accounts with highWaterMark={}, bytes={}",
+                        snapshotWriter.count, highWaterMark, channel.size());
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(temporaryFile);
+            throw new UncheckedIOException("Unable to write the account snapshot " + file, e);
+        } catch (RuntimeException e) {
+            deleteQuietly(temporaryFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the latest snapshot, empty when disabled, when none was written yet, or when it cannot be trusted.
+     */
+    public Optional<AccountSnapshot> load() {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + FILTER_HEADER_SIZE + TRAILER_SIZE
+                    || channel.size() > Integer.MAX_VALUE) {
+                log.warn("Ignoring the account snapshot {} of invalid size={}", file, channel.size());
+                return Optional.empty();
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int crcOffset = buffer.limit() - Integer.BYTES;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION
+                    || buffer.getInt(crcOffset) != crc(buffer, crcOffset)) {
+                log.warn("Ignoring the account snapshot {}, not a valid snapshot of version {}", file, VERSION);
+                return Optional.empty();
+            }
+            return Optional.of(decode(buffer, crcOffset - Integer.BYTES));
+        } catch (NoSuchFileException e) {
+            log.info("No account snapshot found at {}", file);
+            return Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring the account snapshot {}, error={}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static AccountSnapshot decode(ByteBuffer buffer, int end) {
+        buffer.position(2 * Integer.BYTES);
+        long highWaterMark = buffer.getLong();
+        buffer.getLong();   // Creation time, informational only.
+        IdempotencyKeyFilterBits filterBits = decodeFilterBits(buffer, end);
+        int count = buffer.getInt(end);
+        List<AccountInfo> accountInfoList = new ArrayList<>(Math.max(0, count));
+        byte[] currency = new byte[3];
+        while (buffer.position() < end) {
+            AccountInfo accountInfo = new AccountInfo();
+            accountInfo.setAccountId(buffer.getLong());
+            long minorUnits = buffer.getLong();
+            buffer.get(currency);
+            accountInfo.setCurrency(new String(currency, StandardCharsets.US_ASCII));
+            accountInfo.setBalance(Money.ofMinorUnits(minorUnits, accountInfo.getCurrency()));
+            byte[] accountStatus = new byte[buffer.get() & 0xFF];
+            buffer.get(accountStatus);
+            accountInfo.setAccountStatus(new String(accountStatus, StandardCharsets.UTF_8));
+            accountInfoList.add(accountInfo);
+        }
+        if (buffer.position() != end || accountInfoList.size() != count) {
+            throw new IllegalStateException("Account snapshot of " + count + " accounts holds "
+                    + accountInfoList.size() + " accounts ending at " + buffer.position() + " instead of " + end);
+        }
+        return new AccountSnapshot(highWaterMark, accountInfoList, filterBits);
+    }
+
+    private static IdempotencyKeyFilterBits decodeFilterBits(ByteBuffer buffer, int end) {
+        long keysCreatedFrom = buffer.getLong();
+        int hashFunctions = buffer.getInt();
+        int wordCount = buffer.getInt();
+        if (wordCount < 0 || wordCount > (end - buffer.position()) / Long.BYTES) {
+            throw new IllegalStateException("Idempotency key filter of " + wordCount + " words past the end " + end);
+        }
+        long[] words = new long[wordCount];
+        buffer.asLongBuffer().get(words);
+        buffer.position(buffer.position() + wordCount * Long.BYTES);
+        if (wordCount == 0) {
+            return null;
+        }
+        return new IdempotencyKeyFilterBits(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(keysCreatedFrom), ZoneOffset.UTC),
+                hashFunctions, words);
+    }
+
+    private static void deleteQuietly(Path temporaryFile) {
+        try {
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException e) {
+            log.warn("Unable to delete the partial account snapshot {}, error={}", temporaryFile, e.getMessage());
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int end) {
+        ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(end);
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        return (int) crc32.getValue();
+    }
+
+    /* Encodes the accounts into the buffer, flushed to the channel whenever an account might not fit anymore.
+     * The CRC32 is updated with each flushed chunk, so it covers the whole file without reading it back. */
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc32 = new CRC32();
+        private int count;
+
+        SnapshotWriter(FileChannel channel, long highWaterMark, IdempotencyKeyFilterBits filterBits) {
+            this.channel = channel;
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(highWaterMark)
+                    .putLong(System.currentTimeMillis());
+            if (filterBits == null) {
+                buffer.putLong(0).putInt(0).putInt(0);
+                return;
+            }
+            buffer.putLong(filterBits.getKeysCreatedFrom().toInstant(ZoneOffset.UTC).toEpochMilli())
+                    .putInt(filterBits.getHashFunctions())
+                    .putInt(filterBits.getBits().length);
+            for (long word : filterBits.getBits()) {
+                if (buffer.remaining() < Long.BYTES) {
+                    flush();
+                }
+                buffer.putLong(word);
+            }
+        }
+
+        void append(AccountInfo accountInfo) {
+            byte[] accountStatus = accountInfo.getAccountStatus().getBytes(StandardCharsets.UTF_8);
+            if (accountStatus.length > MAX_ACCOUNT_STATUS_BYTES) {
+                throw new IllegalArgumentException("Account status too long to be snapshotted: "
+                        + accountInfo.getAccountStatus());
+            }
+            if (buffer.remaining() < ACCOUNT_SIZE + MAX_ACCOUNT_STATUS_BYTES) {
+                flush();
+            }
+            buffer.putLong(accountInfo.getAccountId()).putLong(accountInfo.getBalance().getMinorUnits());
+            for (int c = 0; c < 3; c++) {
+                buffer.put((byte) accountInfo.getCurrency().charAt(c));
+            }
+            buffer.put((byte) accountStatus.length).put(accountStatus);
+            count++;
+        }
+
+        void finish() {
+            if (buffer.remaining() < TRAILER_SIZE) {
+                flush();
+            }
+            buffer.putInt(count);
+            flush();
+            buffer.putInt((int) crc32.getValue());
+            buffer.flip();
+            write();
+        }
+
+        private void flush() {
+            buffer.flip();
+            crc32.update(buffer.duplicate());
+            write();
+        }
+
+        private void write() {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package com.mc.ibpts.paymentapp.repository;
 
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.AccountSnapshot;
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.StatementCursor;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
 import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
 import com.mc.ibpts.paymentapp.repository.utils.CacheRepositoryServiceUtils;
+import com.mc.ibpts.paymentapp.repository.utils.IdempotencyKeyFilter;
+import com.mc.ibpts.paymentapp.repository.utils.MiniStatementIndex;
+import com.mc.ibpts.paymentapp.repository.utils.SingleFlightLoader;
+import com.mc.ibpts.paymentapp.utils.AccountResponseCache;
 import lombok.extern.slf4j.Slf4j;
 import org.ehcache.CacheManager;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,12 +23,11 @@ import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.ACCOUNT_INFO_ROW_MAPPER;
@@ -30,41 +38,103 @@ import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.TRANSACTIO
 public class CachedRepositoryServiceImpl extends CacheRepositoryServiceUtils implements RepositoryService  {
 
     private final RepositoryService repositoryService;
+    private final MiniStatementIndex miniStatementIndex;
+    private final IdempotencyKeyFilter idempotencyKeyFilter;
+    private final AccountResponseCache accountResponseCache;
+    /* Set only when every transaction is in cache, cleared on the first eviction from the bounded cache. */
+    private final AtomicBoolean transactionsCacheComplete = new AtomicBoolean(false);
+    private final SingleFlightLoader<Long, Optional<AccountInfo>> accountLoader = new SingleFlightLoader<>();
     @Autowired
     public CachedRepositoryServiceImpl(
             CacheManager cacheManager,
-            @Qualifier("embeddedSQLRepositoryServiceImpl") RepositoryService repositoryService) {
+            @Qualifier("embeddedSQLRepositoryServiceImpl") RepositoryService repositoryService,
+            MiniStatementIndex miniStatementIndex,
+            IdempotencyKeyFilter idempotencyKeyFilter,
+            AccountResponseCache accountResponseCache,
+            AccountSnapshotStore accountSnapshotStore) {
         super(cacheManager);
         this.repositoryService = repositoryService;
+        this.miniStatementIndex = miniStatementIndex;
+        this.idempotencyKeyFilter = idempotencyKeyFilter;
+        this.accountResponseCache = accountResponseCache;
+        onEviction("transactions", Long.class, TransactionInfo.class, () -> {
+            if (transactionsCacheComplete.getAndSet(false)) {
+                log.warn("Transaction details evicted from cache, all Transaction details will be fetched from database.");
+            }
+        });
 
-        /* Init the cache by loading all the existing data from database.*/
-        fetchAllAccountInfo();
-        fetchAllTransactionInfo();
+        /* Init the cache from the latest account snapshot and the transactions after it when there is one, else by
+         * loading all the existing data from database, and warm the mini statement index from it.*/
+        Optional<AccountSnapshot> accountSnapshot = accountSnapshotStore.load()
+                .filter(snapshot -> isSnapshotOfDatabase(snapshot.getHighWaterMark()));
+        if (accountSnapshot.isPresent()) {
+            warmFromSnapshot(accountSnapshot.get());
+            restoreIdempotencyKeyFilter(accountSnapshot.get().getIdempotencyKeyFilterBits());
+        } else {
+            List<AccountInfo> accountInfoList = fetchAllAccountInfo();
+            List<TransactionInfo> transactionInfoList = repositoryService.fetchAllTransactionInfo();
+            warmTransactionsCache(transactionInfoList);
+            miniStatementIndex.warm(
+                    accountInfoList.stream().map(AccountInfo::getAccountId).collect(Collectors.toList()),
+                    transactionInfoList);
+            idempotencyKeyFilter.rebuild(repositoryService::fetchAllIdempotencyKeys);
+        }
     }
 
 
     @Override
     public Optional<AccountInfo> fetchAccountInfo(Long accountId) {
-        AtomicReference<Optional<AccountInfo>> accountInfoOptional = new AtomicReference<>(Optional.empty());
         /* Fetch data from cache first, if found return the data else fetch data from database and persist in cache.*/
-        fetch("accounts", Long.class, AccountInfo.class, accountId).ifPresentOrElse(
-                accountInfo -> {
-                    log.info("Fetched Account details from cache.");
-                    accountInfoOptional.set(Optional.of(accountInfo));
-                },
-                () -> {
-                    log.info("Account details not found in cache, fetching data from database.");
-                    repositoryService.fetchAccountInfo(accountId).ifPresentOrElse(accountInfo -> {
-                        log.info("Fetched Account details from database. Saving the data back to cache.");
-                        accountInfoOptional.set(Optional.of(accountInfo));
-                        /* Update data back to cache*/
-                        update("accounts", Long.class, AccountInfo.class, accountId, accountInfo);
-                    }, () -> {
-                        log.info("Data not found in database.");
-                    });
-                }
-        );
-        return accountInfoOptional.get();
+        Optional<AccountInfo> cachedAccountInfo = fetch("accounts", Long.class, AccountInfo.class, accountId);
+        if (cachedAccountInfo.isPresent()) {
+            log.info("Fetched Account details from cache.");
+            return cachedAccountInfo;
+        }
+        if (isKeyAvailable("missingAccounts", Long.class, String.class, accountId)) {
+            log.info("Account details recently not found in database, skipping the database lookup.");
+            return Optional.empty();
+        }
+        /* Concurrent misses of the same account share a single database query. The account read is only cached if not
+         * already refreshed by a transfer committed meanwhile, the write paths alone replacing cached accounts. */
+        return accountLoader.load(accountId, id -> {
+            log.info("Account details not found in cache, fetching data from database.");
+            AtomicReference<Optional<AccountInfo>> accountInfoOptional = new AtomicReference<>(Optional.empty());
+            repositoryService.fetchAccountInfo(id).ifPresentOrElse(accountInfo -> {
+                log.info("Fetched Account details from database. Saving the data back to cache.");
+                accountInfoOptional.set(Optional.of(
+                        putIfAbsent("accounts", Long.class, AccountInfo.class, id, accountInfo)));
+            }, () -> {
+                log.info("Data not found in database.");
+                update("missingAccounts", Long.class, String.class, id, LocalDateTime.now().toString());
+            });
+            return accountInfoOptional.get();
+        });
+    }
+
+    @Override
+    public List<AccountInfo> fetchAccountInfoByIds(Collection<Long> accountIds) {
+        /* Hits are read from cache in one pass, and the misses not recently found missing with a single query. */
+        Map<Long, AccountInfo> cachedAccountInfos = fetchAll(
+                "accounts", Long.class, AccountInfo.class, new HashSet<>(accountIds));
+        List<AccountInfo> accountInfoList = new ArrayList<>(cachedAccountInfos.values());
+        Set<Long> missedAccountIds = accountIds.stream()
+                .filter(accountId -> !cachedAccountInfos.containsKey(accountId))
+                .filter(accountId -> !isKeyAvailable("missingAccounts", Long.class, String.class, accountId))
+                .collect(Collectors.toSet());
+        if (!missedAccountIds.isEmpty()) {
+            List<AccountInfo> accountInfosFromDB = repositoryService.fetchAccountInfoByIds(missedAccountIds);
+            log.info("Fetched {} Account details from database out of {} not found in cache. Saving the data back to cache.",
+                    accountInfosFromDB.size(), missedAccountIds.size());
+            /* Cached unless refreshed meanwhile by a committed transfer, as for a single account. */
+            accountInfosFromDB.forEach(accountInfo -> {
+                missedAccountIds.remove(accountInfo.getAccountId());
+                accountInfoList.add(putIfAbsent(
+                        "accounts", Long.class, AccountInfo.class, accountInfo.getAccountId(), accountInfo));
+            });
+            missedAccountIds.forEach(accountId -> update(
+                    "missingAccounts", Long.class, String.class, accountId, LocalDateTime.now().toString()));
+        }
+        return accountInfoList;
     }
 
     @Override
@@ -88,65 +158,341 @@ public class CachedRepositoryServiceImpl extends CacheRepositoryServiceUtils imp
         return accountInfoList;
     }
 
+    @Override
+    public List<AccountInfo> fetchAccountInfoPage(Long afterAccountId, String accountStatus, String currency, int limit) {
+        /* The cache is not ordered by account_id, pages are read from database. */
+        return repositoryService.fetchAccountInfoPage(afterAccountId, accountStatus, currency, limit);
+    }
+
     @Override
     public List<TransactionInfo> fetchAllTransactionInfo() {
         List<TransactionInfo> transactionInfoList;
 
-        /* Fetch data from cache first, if found return the data else fetch data from database and persist in cache.*/
-        transactionInfoList = fetchAll("transactions", String.class, TransactionInfo.class);
-        if (!CollectionUtils.isEmpty(transactionInfoList)) {
-            log.info("Fetched all Transaction details from cache.");
-        } else {
-            log.info("Account details not found in cache, fetching data from database.");
-            transactionInfoList = repositoryService.fetchAllTransactionInfo();
-            if (!CollectionUtils.isEmpty(transactionInfoList)) {
-                log.info("Fetched Account details from database. Saving the data back to cache.");
-                /* Update data back to cache*/
-                insertAll("transactions", String.class, TransactionInfo.class, transactionInfoList
-                        .stream().collect(Collectors.toMap(k-> UUID.randomUUID().toString(), v->v)));
+        /* Fetch data from cache only while it holds every transaction, else fetch data from database.*/
+        if (transactionsCacheComplete.get()) {
+            transactionInfoList = fetchAll("transactions", Long.class, TransactionInfo.class);
+            /* Checking again, as an eviction while iterating leaves a partial list. */
+            if (transactionsCacheComplete.get()) {
+                log.info("Fetched all Transaction details from cache.");
+                return transactionInfoList;
             }
         }
+        log.info("Transaction details not complete in cache, fetching data from database.");
+        transactionInfoList = repositoryService.fetchAllTransactionInfo();
         return transactionInfoList;
     }
 
+    private boolean isSnapshotOfDatabase(long highWaterMark) {
+        long lastTransactionId = repositoryService.fetchLastTransactionId();
+        if (highWaterMark > lastTransactionId) {
+            log.warn("Ignoring the account snapshot with highWaterMark={} ahead of the database lastTransactionId={}.",
+                    highWaterMark, lastTransactionId);
+            return false;
+        }
+        return true;
+    }
+
+    /* Balances of the snapshot brought up to date with the transactions after its high-water mark. Only those
+     * transactions are cached, the others and the mini statements of the accounts are loaded when first read. */
+    private void warmFromSnapshot(AccountSnapshot accountSnapshot) {
+        Map<Long, AccountInfo> accountInfos = accountSnapshot.getAccountInfoList()
+                .stream().collect(Collectors.toMap(AccountInfo::getAccountId, o -> o));
+        List<TransactionInfo> transactionInfoList =
+                repositoryService.fetchTransactionInfoAfter(accountSnapshot.getHighWaterMark());
+        transactionInfoList.forEach(transactionInfo -> {
+            AccountInfo senderAccountInfo = accountInfos.get(transactionInfo.getSenderAccountId());
+            if (senderAccountInfo != null) {
+                senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(transactionInfo.getAmount()));
+            }
+            AccountInfo receiverAccountInfo = accountInfos.get(transactionInfo.getReceiverAccountId());
+            if (receiverAccountInfo != null) {
+                receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(transactionInfo.getAmount()));
+            }
+        });
+        insertAll("accounts", Long.class, AccountInfo.class, accountInfos);
+        updateAll("transactions", Long.class, TransactionInfo.class, transactionInfoList
+                .stream().collect(Collectors.toMap(TransactionInfo::getId, v -> v)));
+        log.info("Loaded {} Account details from snapshot with highWaterMark={}, replayed {} Transaction details after it.",
+                accountInfos.size(), accountSnapshot.getHighWaterMark(), transactionInfoList.size());
+    }
+
+    /* The filter of the snapshot only misses the keys created since, so only those are read. */
+    private void restoreIdempotencyKeyFilter(IdempotencyKeyFilterBits filterBits) {
+        if (filterBits == null) {
+            idempotencyKeyFilter.rebuild(repositoryService::fetchAllIdempotencyKeys);
+            return;
+        }
+        idempotencyKeyFilter.restore(filterBits,
+                repositoryService.fetchIdempotencyKeysCreatedFrom(filterBits.getKeysCreatedFrom()));
+    }
+
+    private void warmTransactionsCache(List<TransactionInfo> transactionInfoList) {
+        /* Marked complete before loading, so that any eviction while loading clears it again.
+         * Entries are only added or replaced, so entries found in a persistent disk tier stay readable meanwhile. */
+        transactionsCacheComplete.set(true);
+        if (!updateAll("transactions", Long.class, TransactionInfo.class, transactionInfoList
+                .stream().collect(Collectors.toMap(TransactionInfo::getId, v -> v)))) {
+            transactionsCacheComplete.set(false);
+        }
+        log.info("Loaded {} Transaction details to cache, complete={}.",
+                transactionInfoList.size(), transactionsCacheComplete.get());
+    }
+
+    /* Called once the transaction is committed. A mini statement loading concurrently only reads committed
+     * transactions, so it gets the transaction either from database or from the index. */
+    private void cacheTransactionInfo(TransactionInfo transactionInfo) {
+        if (transactionInfo.getId() == null) {
+            transactionsCacheComplete.set(false);
+        } else {
+            update("transactions", Long.class, TransactionInfo.class, transactionInfo.getId(), transactionInfo);
+        }
+        miniStatementIndex.add(transactionInfo);
+    }
+
+    /* Invalidated only after the caches are updated, so that the responses are rebuilt from the new state. */
+    private void invalidateResponses(TransactionInfo transactionInfo) {
+        accountResponseCache.invalidate(transactionInfo.getSenderAccountId());
+        accountResponseCache.invalidate(transactionInfo.getReceiverAccountId());
+    }
+
+    @Override
+    public List<TransactionInfo> fetchTransactionInfoAfter(long afterTransactionId) {
+        return repositoryService.fetchTransactionInfoAfter(afterTransactionId);
+    }
+
+    @Override
+    public long fetchLastTransactionId() {
+        return repositoryService.fetchLastTransactionId();
+    }
+
+    @Override
+    public long countAccounts() {
+        return repositoryService.countAccounts();
+    }
+
     @Override
     public List<TransactionInfo> fetchMiniStatementByAccountId(Long accountId) {
-        /* Fetch data from cache first, if found return the data else fetch data from database and persist in cache.*/
-        return fetchAllTransactionInfo().stream()
-                .filter(transactionInfo ->
-                        transactionInfo.getSenderAccountId().equals(accountId) ||
-                                transactionInfo.getReceiverAccountId().equals(accountId))
-                .skip(0).limit(20)      // Limiting the top 20 records.
-                .collect(Collectors.toList());
+        /* Fetch latest 20 transactions from the index, accounts not indexed yet are loaded once from database.*/
+        return miniStatementIndex.fetch(accountId, repositoryService::fetchMiniStatementByAccountId);
+    }
+
+    @Override
+    public List<TransactionInfo> fetchStatementByAccountId(
+            Long accountId, LocalDateTime fromDate, LocalDateTime toDate, StatementCursor cursor, int limit) {
+        /* Pages of the full history are not cached, each page is a bounded index range scan in database. */
+        return repositoryService.fetchStatementByAccountId(accountId, fromDate, toDate, cursor, limit);
+    }
+
+    @Override
+    public long exportAccounts(int fetchSize, Consumer<AccountInfo> accountConsumer) {
+        /* Read from database rather than cache, which is bounded and may not hold every account. */
+        return repositoryService.exportAccounts(fetchSize, accountConsumer);
+    }
+
+    @Override
+    public long exportTransactions(Long accountId, int fetchSize, Consumer<TransactionInfo> transactionConsumer) {
+        /* Exports bypass the cache, so that they neither evict hot entries nor depend on the cache being complete. */
+        return repositoryService.exportTransactions(accountId, fetchSize, transactionConsumer);
     }
 
     @Override
     public void insertIdempotencyKey(String idempotencyKey) {
-        /* Check if key is already in cache, if so reject the request here itself. */
-        if (isKeyAvailable("idempotency", String.class, String.class, idempotencyKey)) {
+        /* Keys not in the filter are new, else check if key is already in cache, if so reject the request here itself. */
+        boolean mightBeInUse = idempotencyKeyFilter.mightContain(idempotencyKey);
+        if (mightBeInUse && isKeyAvailable("idempotency", String.class, String.class, idempotencyKey)) {
             log.error("Idempotency key already exists.");
             throw new CustomBusinessException(
-                    HttpStatus.BAD_REQUEST,
-                    "Duplicate Idempotency-Key, please try again with a new key.");
+                    HttpStatus.CONFLICT,
+                    "Request with the same Idempotency-Key is in progress, please retry later.");
         } else {
             log.info("Inserting idempotency key to both cache and database.");
             update("idempotency", String.class, String.class, idempotencyKey, LocalDateTime.now().toString());
             repositoryService.insertIdempotencyKey(idempotencyKey);
+            idempotencyKeyFilter.put(idempotencyKey);
+            if (mightBeInUse) {
+                idempotencyKeyFilter.recordFalsePositive();
+            }
         }
     }
 
     @Override
     public void saveTransactionDetails(TransactionInfo transactionInfo) {
-        /* Save transaction details in database. */
+        /* Save transaction details in database, then cache them once committed. */
         repositoryService.saveTransactionDetails(transactionInfo);
-        update("transactions", String.class, TransactionInfo.class, LocalDateTime.now().toString(), transactionInfo);
+        afterCommit(() -> {
+            cacheTransactionInfo(transactionInfo);
+            invalidateResponses(transactionInfo);
+        });
     }
 
     @Override
-    public void updateBalanceInfo(Long accountId, BigDecimal amountToAdd) {
-        /* Update balance info in database, then fetch latest account balance from database. */
+    public void updateBalanceInfo(Long accountId, Money amountToAdd) {
+        /* Update balance info in database, then fetch latest account balance from database, cached once committed. */
         repositoryService.updateBalanceInfo(accountId, amountToAdd);
         AccountInfo accountInfo = repositoryService.fetchAccountInfo(accountId).orElseThrow();
-        update("accounts", Long.class, AccountInfo.class, accountId, accountInfo);
+        afterCommit(() -> {
+            update("accounts", Long.class, AccountInfo.class, accountId, accountInfo);
+            accountResponseCache.invalidate(accountId);
+        });
+    }
+
+    @Override
+    public Set<String> fetchExistingIdempotencyKeys(Collection<String> idempotencyKeys) {
+        /* Keys not in the filter are new and keys found in cache are already known to be used,
+         * only the remaining keys are checked in database. */
+        Set<String> existingIdempotencyKeys = new HashSet<>();
+        List<String> idempotencyKeysToCheck = new ArrayList<>();
+        idempotencyKeys.forEach(idempotencyKey -> {
+            if (!idempotencyKeyFilter.mightContain(idempotencyKey)) {
+                return;
+            }
+            if (isKeyAvailable("idempotency", String.class, String.class, idempotencyKey)) {
+                existingIdempotencyKeys.add(idempotencyKey);
+            } else {
+                idempotencyKeysToCheck.add(idempotencyKey);
+            }
+        });
+        if (!idempotencyKeysToCheck.isEmpty()) {
+            Set<String> keysFoundInDB = repositoryService.fetchExistingIdempotencyKeys(idempotencyKeysToCheck);
+            idempotencyKeysToCheck.stream()
+                    .filter(idempotencyKey -> !keysFoundInDB.contains(idempotencyKey))
+                    .forEach(idempotencyKey -> idempotencyKeyFilter.recordFalsePositive());
+            existingIdempotencyKeys.addAll(keysFoundInDB);
+        }
+        return existingIdempotencyKeys;
+    }
+
+    @Override
+    public List<AccountInfo> saveTransferBatch(List<String> idempotencyKeys, List<TransactionInfo> transactionInfoList) {
+        /* Save the batch in database, then refresh the cache with the latest account balances returned once committed.
+         * The keys are marked in use right away, as for a single insert, and released by the caller when it fails. */
+        List<AccountInfo> accountInfoList = repositoryService.saveTransferBatch(idempotencyKeys, transactionInfoList);
+        String insertedAt = LocalDateTime.now().toString();
+        idempotencyKeys.forEach(idempotencyKey -> {
+            update("idempotency", String.class, String.class, idempotencyKey, insertedAt);
+            idempotencyKeyFilter.put(idempotencyKey);
+        });
+        afterCommit(() -> {
+            transactionInfoList.forEach(this::cacheTransactionInfo);
+            accountInfoList.forEach(accountInfo ->
+                    update("accounts", Long.class, AccountInfo.class, accountInfo.getAccountId(), accountInfo));
+            transactionInfoList.forEach(this::invalidateResponses);
+        });
+        return accountInfoList;
+    }
+
+    @Override
+    public Map<Long, Money> transferFunds(TransactionInfo transactionInfo) {
+        /* Apply the transfer in database, then refresh the cached accounts with the new balances returned once
+         * committed. */
+        Map<Long, Money> balances = repositoryService.transferFunds(transactionInfo);
+        afterCommit(() -> {
+            cacheTransactionInfo(transactionInfo);
+            balances.forEach((accountId, balance) ->
+                    fetch("accounts", Long.class, AccountInfo.class, accountId).ifPresent(cachedAccountInfo -> {
+                        AccountInfo accountInfo = new AccountInfo();
+                        accountInfo.setAccountId(accountId);
+                        accountInfo.setCurrency(cachedAccountInfo.getCurrency());
+                        accountInfo.setBalance(balance);
+                        accountInfo.setAccountStatus(cachedAccountInfo.getAccountStatus());
+                        update("accounts", Long.class, AccountInfo.class, accountId, accountInfo);
+                    }));
+            invalidateResponses(transactionInfo);
+        });
+        return balances;
+    }
+
+    @Override
+    public List<TransferOutcome> transferFundsBatch(List<TransactionInfo> transactionInfoList) {
+        /* Apply the batch in database, then refresh the cache with the latest accounts of the transfers applied, read
+         * within the transaction and cached once committed. */
+        List<TransferOutcome> transferOutcomes = repositoryService.transferFundsBatch(transactionInfoList);
+        List<TransactionInfo> applied = transferOutcomes.stream().filter(TransferOutcome::isCompleted)
+                .map(TransferOutcome::getTransactionInfo).collect(Collectors.toList());
+        Set<Long> accountIds = new HashSet<>();
+        applied.forEach(transactionInfo -> {
+            accountIds.add(transactionInfo.getSenderAccountId());
+            accountIds.add(transactionInfo.getReceiverAccountId());
+        });
+        List<AccountInfo> accountInfoList = accountIds.isEmpty()
+                ? Collections.emptyList() : repositoryService.fetchAccountInfoByIds(accountIds);
+        afterCommit(() -> {
+            applied.forEach(this::cacheTransactionInfo);
+            accountInfoList.forEach(accountInfo ->
+                    update("accounts", Long.class, AccountInfo.class, accountInfo.getAccountId(), accountInfo));
+            accountIds.forEach(accountResponseCache::invalidate);
+        });
+        return transferOutcomes;
+    }
+
+    @Override
+    public List<AccountInfo> applyJournaledTransfers(List<TransactionInfo> transactionInfoList, long appliedSequence) {
+        /* Apply the batch in database, then refresh the cache with the latest account balances returned once
+         * committed. */
+        List<AccountInfo> accountInfoList = repositoryService.applyJournaledTransfers(transactionInfoList, appliedSequence);
+        afterCommit(() -> {
+            transactionInfoList.forEach(this::cacheTransactionInfo);
+            accountInfoList.forEach(accountInfo ->
+                    update("accounts", Long.class, AccountInfo.class, accountInfo.getAccountId(), accountInfo));
+            transactionInfoList.forEach(this::invalidateResponses);
+        });
+        return accountInfoList;
+    }
+
+    @Override
+    public long fetchJournalCheckpoint() {
+        return repositoryService.fetchJournalCheckpoint();
+    }
+
+    @Override
+    public List<String> fetchAllIdempotencyKeys() {
+        return repositoryService.fetchAllIdempotencyKeys();
+    }
+
+    @Override
+    public List<String> fetchIdempotencyKeysCreatedFrom(LocalDateTime createdFrom) {
+        return repositoryService.fetchIdempotencyKeysCreatedFrom(createdFrom);
+    }
+
+    @Override
+    public int purgeIdempotencyKeys(LocalDateTime createdBefore) {
+        /* Purge expired keys from database, the cache expires them by itself. Rebuild the filter without them once
+         * they fill it past its rebuild threshold. */
+        int purgedKeys = repositoryService.purgeIdempotencyKeys(createdBefore);
+        if (purgedKeys > 0) {
+            idempotencyKeyFilter.rebuildIfSaturated(repositoryService::fetchAllIdempotencyKeys);
+        }
+        return purgedKeys;
+    }
+
+    @Override
+    public Map<String, String> fetchIdempotentResponses(Collection<String> idempotencyKeys) {
+        /* Fetch responses from cache first, only the keys not found in cache are checked in database. */
+        Map<String, String> responses = new HashMap<>();
+        List<String> idempotencyKeysToCheck = new ArrayList<>();
+        idempotencyKeys.forEach(idempotencyKey ->
+                fetch("idempotentResponses", String.class, String.class, idempotencyKey).ifPresentOrElse(
+                        response -> responses.put(idempotencyKey, response),
+                        () -> idempotencyKeysToCheck.add(idempotencyKey)));
+        if (!idempotencyKeysToCheck.isEmpty()) {
+            Map<String, String> responsesFoundInDB = repositoryService.fetchIdempotentResponses(idempotencyKeysToCheck);
+            updateAll("idempotentResponses", String.class, String.class, responsesFoundInDB);
+            responses.putAll(responsesFoundInDB);
+        }
+        return responses;
+    }
+
+    @Override
+    public void saveIdempotentResponses(Map<String, String> responses) {
+        /* Save responses in database, then in cache so that retries are answered from memory. */
+        repositoryService.saveIdempotentResponses(responses);
+        updateAll("idempotentResponses", String.class, String.class, responses);
+    }
+
+    @Override
+    public void deleteIdempotencyKey(String idempotencyKey) {
+        /* The key stays in the filter, a later reuse of the key is then counted as a false positive. */
+        repositoryService.deleteIdempotencyKey(idempotencyKey);
+        remove("idempotency", String.class, String.class, idempotencyKey);
     }
 }
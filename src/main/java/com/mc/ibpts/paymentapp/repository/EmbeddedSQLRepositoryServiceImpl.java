@@ -1,33 +1,103 @@
 package com.mc.ibpts.paymentapp.repository;
 
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.StatementCursor;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
 import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
 import com.mc.ibpts.paymentapp.repository.utils.SQLRepositoryServiceUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
-import java.util.List;
-import java.util.Optional;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.ACCOUNT_BALANCE_ROW_MAPPER;
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.ACCOUNT_COUNT_ROW_MAPPER;
 import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.ACCOUNT_INFO_ROW_MAPPER;
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.IDEMPOTENCY_KEY_ROW_MAPPER;
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.IDEMPOTENT_RESPONSE_ROW_MAPPER;
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.JOURNAL_SEQUENCE_ROW_MAPPER;
+import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.TRANSACTION_ID_ROW_MAPPER;
 import static com.mc.ibpts.paymentapp.repository.utils.RowMapperUtils.TRANSACTION_INFO_ROW_MAPPER;
 
+@Slf4j
 @Repository
 public class EmbeddedSQLRepositoryServiceImpl extends SQLRepositoryServiceUtils implements RepositoryService  {
 
     public static final String FETCH_ACCOUNT_DETAILS_BY_ID = "select * from accounts where account_id=:account_id";
+    public static final String FETCH_ACCOUNT_DETAILS_BY_IDS = "select * from accounts where account_id in (:account_ids)";
     public static final String FETCH_ALL_ACCOUNT_DETAILS = "select * from accounts";
+    public static final String EXPORT_ALL_ACCOUNT_DETAILS = "select * from accounts order by account_id";
+    /* Read in account_id order from the cursor position with only the filters given, a status filter reading its
+    (account_status, account_id) index range and the others the primary key range. The constant status column in the
+    ORDER BY lets H2 recognise the index order, so that a page stops after limit rows instead of sorting the range. */
+    public static final String FETCH_ACCOUNT_DETAILS_PAGE = "select * from accounts where account_id > :after_account_id";
+    public static final String ACCOUNT_STATUS_FILTER = " and account_status = :account_status";
+    public static final String CURRENCY_FILTER = " and currency = :currency";
+    public static final String ACCOUNT_DETAILS_PAGE_ORDER = " order by account_id limit :limit";
+    public static final String ACCOUNT_DETAILS_PAGE_BY_STATUS_ORDER = " order by account_status, account_id limit :limit";
     public static final String FETCH_ALL_TRANSACTION_DETAILS = "select * from transactions";
-    public static final String FETCH_ACCOUNT_TRANSACTION_DETAILS = "select * from transactions where (sender_account_id=:account_id OR receiver_account_id=:account_id) order by transaction_date desc limit 20";
+    public static final String FETCH_TRANSACTION_DETAILS_AFTER_ID = "select * from transactions where id > :after_id order by id";
+    public static final String FETCH_LAST_TRANSACTION_ID = "select coalesce(max(id), 0) as id from transactions";
+    public static final String COUNT_ACCOUNTS = "select count(*) as account_count from accounts";
+    /* Top 20 of the sent and of the received transactions, each read in order from its (account, date) index instead
+    of scanning and sorting the account's whole history. The index is hinted as H2 otherwise prefers the single column
+    foreign key index, and the constant account column in the branch ORDER BY lets H2 recognise the index order.
+    Transactions to self are taken from the sender branch only. */
+    public static final String FETCH_ACCOUNT_TRANSACTION_DETAILS = "select * from ("
+            + "(select * from transactions use index (idx_transactions_sender_date) where sender_account_id=:account_id order by sender_account_id, transaction_date desc limit 20) "
+            + "union all "
+            + "(select * from transactions use index (idx_transactions_receiver_date) where receiver_account_id=:account_id and sender_account_id<>:account_id order by receiver_account_id, transaction_date desc limit 20)"
+            + ") order by transaction_date desc limit 20";
+    /* Same merge of two index range scans for a page, the upper bound being the cursor position, or the end of the date
+    range for the first page. Rows dated at the cursor position are filtered by id, the bounds being the index
+    condition, so deep pages cost the same as the first page. */
+    public static final String FETCH_ACCOUNT_STATEMENT_PAGE = "select * from ("
+            + "(select * from transactions use index (idx_transactions_sender_date) where sender_account_id=:account_id "
+            + "and transaction_date >= :from_date and transaction_date <= :upper_date and (transaction_date < :upper_date or id < :upper_id) "
+            + "order by sender_account_id, transaction_date desc, id desc limit :limit) "
+            + "union all "
+            + "(select * from transactions use index (idx_transactions_receiver_date) where receiver_account_id=:account_id and sender_account_id<>:account_id "
+            + "and transaction_date >= :from_date and transaction_date <= :upper_date and (transaction_date < :upper_date or id < :upper_id) "
+            + "order by receiver_account_id, transaction_date desc, id desc limit :limit)"
+            + ") order by transaction_date desc, id desc limit :limit";
+    public static final String EXPORT_ALL_TRANSACTION_DETAILS = "select * from transactions order by id";
     public static final String UPDATE_ACCOUNT_BALANCE = "update accounts set balance = balance + :amount_to_add where account_id=:account_id";
+    /* Debit (negative amount_to_add) or credit of an account, guarded on its status and currency, the balance covering
+    the amount only being required of a debit. A single statement, so that the debit and the credit of a transfer, or
+    the net movements of a batch, are sent as one JDBC batch. */
+    public static final String TRANSFER_ACCOUNT_BALANCE = "update accounts set balance = balance + :amount_to_add where account_id=:account_id and account_status = 'ACTIVE' and currency = :currency and (balance + :amount_to_add >= 0 or :amount_to_add > 0)";
+    public static final String FETCH_ACCOUNT_BALANCES_BY_IDS = "select account_id, currency, balance from accounts where account_id in (:account_ids)";
     public static final String INSERT_TRANSACTION_DETAILS = "insert into transactions (sender_account_id, receiver_account_id, amount, currency, transaction_date, reference_id) values (:sender_account_id, :receiver_account_id, :amount, :currency, :transaction_date, :reference_id)";
+    public static final String INSERT_TRANSACTION_DETAILS_WITH_ID = "insert into transactions (id, sender_account_id, receiver_account_id, amount, currency, transaction_date, reference_id) values (:id, :sender_account_id, :receiver_account_id, :amount, :currency, :transaction_date, :reference_id)";
+    public static final String FETCH_NEXT_TRANSACTION_IDS = "select next value for transactions_id_seq as id from system_range(1, :count)";
     public static final String INSERT_IDEMPOTENCY_KEY = "insert into idempotency (idempotency_key) values (:idempotency_key)";
+    public static final String FETCH_ALL_IDEMPOTENCY_KEYS = "select idempotency_key from idempotency";
+    public static final String FETCH_IDEMPOTENCY_KEYS_CREATED_FROM = "select idempotency_key from idempotency where created_at >= :created_from";
+    public static final String DELETE_EXPIRED_IDEMPOTENCY_KEYS = "delete from idempotency where created_at < :created_before";
+    public static final String FETCH_EXISTING_IDEMPOTENCY_KEYS = "select idempotency_key from idempotency where idempotency_key in (:idempotency_keys)";
+    public static final String FETCH_IDEMPOTENT_RESPONSES = "select idempotency_key, response from idempotency where idempotency_key in (:idempotency_keys) and response is not null";
+    public static final String UPDATE_IDEMPOTENT_RESPONSE = "update idempotency set response = :response where idempotency_key = :idempotency_key";
+    public static final String DELETE_IDEMPOTENCY_KEY = "delete from idempotency where idempotency_key = :idempotency_key";
+    public static final String FETCH_JOURNAL_CHECKPOINT = "select applied_sequence from journal_checkpoint where id = 1";
+    public static final String UPDATE_JOURNAL_CHECKPOINT = "update journal_checkpoint set applied_sequence = :applied_sequence where id = 1";
+
+    /* Bounds of an open ended statement date range, within the range of the TIMESTAMP column. */
+    private static final LocalDateTime STATEMENT_MIN_DATE = LocalDateTime.of(1, 1, 1, 0, 0);
+    private static final LocalDateTime STATEMENT_MAX_DATE = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
 
     @Autowired
     public EmbeddedSQLRepositoryServiceImpl(NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
@@ -42,16 +112,73 @@ public class EmbeddedSQLRepositoryServiceImpl extends SQLRepositoryServiceUtils
         return fetchObject(FETCH_ACCOUNT_DETAILS_BY_ID, sqlParameterSource, ACCOUNT_INFO_ROW_MAPPER);
     }
 
+    @Override
+    public List<AccountInfo> fetchAccountInfoByIds(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("account_ids", accountIds);
+        return fetch(FETCH_ACCOUNT_DETAILS_BY_IDS, sqlParameterSource, ACCOUNT_INFO_ROW_MAPPER);
+    }
+
     @Override
     public List<AccountInfo> fetchAllAccountInfo() {
         return fetch(FETCH_ALL_ACCOUNT_DETAILS, null, ACCOUNT_INFO_ROW_MAPPER);
     }
 
+    @Override
+    public long exportAccounts(int fetchSize, Consumer<AccountInfo> accountConsumer) {
+        AtomicLong count = new AtomicLong();
+        /* A single cursor over the primary key, read without sorting. */
+        stream(EXPORT_ALL_ACCOUNT_DETAILS, new MapSqlParameterSource(), fetchSize, resultSet -> {
+            accountConsumer.accept(ACCOUNT_INFO_ROW_MAPPER.mapRow(resultSet, resultSet.getRow()));
+            count.incrementAndGet();
+        });
+        return count.get();
+    }
+
+    @Override
+    public List<AccountInfo> fetchAccountInfoPage(Long afterAccountId, String accountStatus, String currency, int limit) {
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("after_account_id", afterAccountId == null ? Long.MIN_VALUE : afterAccountId);
+        sqlParameterSource.addValue("limit", limit);
+        StringBuilder query = new StringBuilder(FETCH_ACCOUNT_DETAILS_PAGE);
+        if (accountStatus != null) {
+            query.append(ACCOUNT_STATUS_FILTER);
+            sqlParameterSource.addValue("account_status", accountStatus);
+        }
+        if (currency != null) {
+            query.append(CURRENCY_FILTER);
+            sqlParameterSource.addValue("currency", currency);
+        }
+        query.append(accountStatus != null ? ACCOUNT_DETAILS_PAGE_BY_STATUS_ORDER : ACCOUNT_DETAILS_PAGE_ORDER);
+        return fetch(query.toString(), sqlParameterSource, ACCOUNT_INFO_ROW_MAPPER);
+    }
+
     @Override
     public List<TransactionInfo> fetchAllTransactionInfo() {
         return fetch(FETCH_ALL_TRANSACTION_DETAILS, null, TRANSACTION_INFO_ROW_MAPPER);
     }
 
+    @Override
+    public List<TransactionInfo> fetchTransactionInfoAfter(long afterTransactionId) {
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("after_id", afterTransactionId);
+        return fetch(FETCH_TRANSACTION_DETAILS_AFTER_ID, sqlParameterSource, TRANSACTION_INFO_ROW_MAPPER);
+    }
+
+    @Override
+    public long fetchLastTransactionId() {
+        return fetchObject(FETCH_LAST_TRANSACTION_ID, new MapSqlParameterSource(), TRANSACTION_ID_ROW_MAPPER)
+                .orElse(0L);
+    }
+
+    @Override
+    public long countAccounts() {
+        return fetchObject(COUNT_ACCOUNTS, new MapSqlParameterSource(), ACCOUNT_COUNT_ROW_MAPPER).orElse(0L);
+    }
+
     @Override
     public List<TransactionInfo> fetchMiniStatementByAccountId(Long accountId) {
         MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
@@ -59,6 +186,60 @@ public class EmbeddedSQLRepositoryServiceImpl extends SQLRepositoryServiceUtils
         return fetch(FETCH_ACCOUNT_TRANSACTION_DETAILS, sqlParameterSource, TRANSACTION_INFO_ROW_MAPPER);
     }
 
+    @Override
+    public List<TransactionInfo> fetchStatementByAccountId(
+            Long accountId, LocalDateTime fromDate, LocalDateTime toDate, StatementCursor cursor, int limit) {
+        LocalDateTime upperDate = toDate == null ? STATEMENT_MAX_DATE : toDate;
+        Long upperId = Long.MAX_VALUE;
+        if (cursor != null && cursor.getTransactionDate().compareTo(upperDate) <= 0) {
+            upperDate = cursor.getTransactionDate();
+            upperId = cursor.getId();
+        }
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("account_id", accountId);
+        sqlParameterSource.addValue("from_date", fromDate == null ? STATEMENT_MIN_DATE : fromDate);
+        sqlParameterSource.addValue("upper_date", upperDate);
+        sqlParameterSource.addValue("upper_id", upperId);
+        sqlParameterSource.addValue("limit", limit);
+        return fetch(FETCH_ACCOUNT_STATEMENT_PAGE, sqlParameterSource, TRANSACTION_INFO_ROW_MAPPER);
+    }
+
+    @Override
+    public long exportTransactions(Long accountId, int fetchSize, Consumer<TransactionInfo> transactionConsumer) {
+        AtomicLong count = new AtomicLong();
+        if (accountId == null) {
+            /* A single cursor over the primary key, read without sorting. */
+            stream(EXPORT_ALL_TRANSACTION_DETAILS, new MapSqlParameterSource(), fetchSize, resultSet -> {
+                transactionConsumer.accept(TRANSACTION_INFO_ROW_MAPPER.mapRow(resultSet, resultSet.getRow()));
+                count.incrementAndGet();
+            });
+            return count.get();
+        }
+
+        /* The account history is read in date order from its indexes one page of fetchSize at a time,
+        as a single query would sort the whole history before returning the first row. */
+        AtomicReference<TransactionInfo> last = new AtomicReference<>();
+        long pageCount;
+        do {
+            long countBefore = count.get();
+            MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+            sqlParameterSource.addValue("account_id", accountId);
+            sqlParameterSource.addValue("from_date", STATEMENT_MIN_DATE);
+            sqlParameterSource.addValue("upper_date",
+                    last.get() == null ? STATEMENT_MAX_DATE : last.get().getTransactionDate());
+            sqlParameterSource.addValue("upper_id", last.get() == null ? Long.MAX_VALUE : last.get().getId());
+            sqlParameterSource.addValue("limit", fetchSize);
+            stream(FETCH_ACCOUNT_STATEMENT_PAGE, sqlParameterSource, fetchSize, resultSet -> {
+                TransactionInfo transactionInfo = TRANSACTION_INFO_ROW_MAPPER.mapRow(resultSet, resultSet.getRow());
+                transactionConsumer.accept(transactionInfo);
+                last.set(transactionInfo);
+                count.incrementAndGet();
+            });
+            pageCount = count.get() - countBefore;
+        } while (pageCount == fetchSize);
+        return count.get();
+    }
+
     @Override
     public void insertIdempotencyKey(String idempotencyKey) {
         MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
@@ -68,8 +249,8 @@ public class EmbeddedSQLRepositoryServiceImpl extends SQLRepositoryServiceUtils
         } catch (CustomBusinessException e) {
             if (e.getException() != null && e.getException() instanceof DuplicateKeyException) {
                 throw new CustomBusinessException(
-                        HttpStatus.BAD_REQUEST,
-                        "Duplicate Idempotency-Key, please try again with a new key.");
+                        HttpStatus.CONFLICT,
+                        "Request with the same Idempotency-Key is in progress, please retry later.");
             } else {
                 throw e;
             }
@@ -79,23 +260,271 @@ public class EmbeddedSQLRepositoryServiceImpl extends SQLRepositoryServiceUtils
 
     @Override
     public void saveTransactionDetails(TransactionInfo transactionInfo) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        upsert(INSERT_TRANSACTION_DETAILS, transactionDetailsParameters(transactionInfo), keyHolder, "id");
+        transactionInfo.setId(generatedId(keyHolder.getKeys()));
+    }
+
+    @Override
+    public void updateBalanceInfo(Long accountId, Money amountToAdd) {
+        upsert(UPDATE_ACCOUNT_BALANCE, balanceParameters(accountId, amountToAdd));
+
+    }
+
+    @Override
+    public Set<String> fetchExistingIdempotencyKeys(Collection<String> idempotencyKeys) {
+        if (idempotencyKeys.isEmpty()) {
+            return new HashSet<>();
+        }
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("idempotency_keys", idempotencyKeys);
+        return new HashSet<>(fetch(FETCH_EXISTING_IDEMPOTENCY_KEYS, sqlParameterSource, IDEMPOTENCY_KEY_ROW_MAPPER));
+    }
+
+    @Override
+    public List<AccountInfo> saveTransferBatch(List<String> idempotencyKeys, List<TransactionInfo> transactionInfoList) {
+        try {
+            batchUpsert(INSERT_IDEMPOTENCY_KEY, idempotencyKeys.stream()
+                    .map(idempotencyKey -> new MapSqlParameterSource("idempotency_key", idempotencyKey))
+                    .toArray(SqlParameterSource[]::new));
+        } catch (CustomBusinessException e) {
+            if (e.getException() != null && e.getException() instanceof DuplicateKeyException) {
+                throw new CustomBusinessException(
+                        HttpStatus.CONFLICT,
+                        "Request with the same Idempotency-Key is in progress, please retry later.");
+            } else {
+                throw e;
+            }
+        }
+
+        return applyTransfers(transactionInfoList);
+    }
+
+    @Override
+    public List<AccountInfo> applyJournaledTransfers(List<TransactionInfo> transactionInfoList, long appliedSequence) {
+        List<AccountInfo> accountInfoList = applyTransfers(transactionInfoList);
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("applied_sequence", appliedSequence);
+        upsert(UPDATE_JOURNAL_CHECKPOINT, sqlParameterSource);
+        return accountInfoList;
+    }
+
+    @Override
+    public long fetchJournalCheckpoint() {
+        return fetchObject(FETCH_JOURNAL_CHECKPOINT, new MapSqlParameterSource(), JOURNAL_SEQUENCE_ROW_MAPPER)
+                .orElse(0L);
+    }
+
+    /* Unguarded balance updates, the transfers being validated by the caller. */
+    private List<AccountInfo> applyTransfers(List<TransactionInfo> transactionInfoList) {
+        /* Reserving the transaction ids upfront, as generated keys are not returned for batch updates. */
+        MapSqlParameterSource idsParameterSource = new MapSqlParameterSource();
+        idsParameterSource.addValue("count", transactionInfoList.size());
+        List<Long> transactionIds = fetch(FETCH_NEXT_TRANSACTION_IDS, idsParameterSource, TRANSACTION_ID_ROW_MAPPER);
+        for (int i = 0; i < transactionInfoList.size(); i++) {
+            transactionInfoList.get(i).setId(transactionIds.get(i));
+        }
+        batchUpsert(INSERT_TRANSACTION_DETAILS_WITH_ID, transactionInfoList.stream()
+                .map(transactionInfo -> transactionDetailsParameters(transactionInfo)
+                        .addValue("id", transactionInfo.getId()))
+                .toArray(SqlParameterSource[]::new));
+
+        /* Netting the balance movements, so that each account is updated only once for the batch. */
+        Map<Long, Money> amountsToAdd = new TreeMap<>();
+        transactionInfoList.forEach(transactionInfo -> {
+            amountsToAdd.merge(transactionInfo.getSenderAccountId(), transactionInfo.getAmount().negate(), Money::add);
+            amountsToAdd.merge(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount(), Money::add);
+        });
+        batchUpsert(UPDATE_ACCOUNT_BALANCE, amountsToAdd.entrySet().stream()
+                .map(entry -> balanceParameters(entry.getKey(), entry.getValue()))
+                .toArray(SqlParameterSource[]::new));
+
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("account_ids", amountsToAdd.keySet());
+        return fetch(FETCH_ACCOUNT_DETAILS_BY_IDS, sqlParameterSource, ACCOUNT_INFO_ROW_MAPPER);
+    }
+
+    private MapSqlParameterSource transactionDetailsParameters(TransactionInfo transactionInfo) {
         MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
         sqlParameterSource.addValue("sender_account_id", transactionInfo.getSenderAccountId());
         sqlParameterSource.addValue("receiver_account_id", transactionInfo.getReceiverAccountId());
-        sqlParameterSource.addValue("amount", transactionInfo.getAmount());
+        sqlParameterSource.addValue("amount", transactionInfo.getAmount().toBigDecimal());
         sqlParameterSource.addValue("currency", transactionInfo.getCurrency());
         sqlParameterSource.addValue("transaction_date", transactionInfo.getTransactionDate());
         sqlParameterSource.addValue("reference_id", transactionInfo.getReferenceId());
+        return sqlParameterSource;
+    }
 
-        upsert(INSERT_TRANSACTION_DETAILS, sqlParameterSource);
+    private Long generatedId(Map<String, Object> generatedKeys) {
+        return generatedKeys == null || generatedKeys.isEmpty()
+                ? null
+                : ((Number) generatedKeys.values().iterator().next()).longValue();
     }
 
-    @Override
-    public void updateBalanceInfo(Long accountId, BigDecimal amountToAdd) {
+    private MapSqlParameterSource balanceParameters(Long accountId, Money amountToAdd) {
         MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
         sqlParameterSource.addValue("account_id", accountId);
-        sqlParameterSource.addValue("amount_to_add", amountToAdd);
-        upsert(UPDATE_ACCOUNT_BALANCE, sqlParameterSource);
+        sqlParameterSource.addValue("amount_to_add", amountToAdd.toBigDecimal());
+        return sqlParameterSource;
+    }
 
+    @Override
+    public Map<Long, Money> transferFunds(TransactionInfo transactionInfo) {
+        /* Guarded debit and credit in one batch, a guard failing leaves its row untouched and the transaction is rolled
+        back. The transfer takes three calls to the database: this batch, the transaction insert returning the generated
+        id, and the read of the new balances, an UPDATE returning no rows without the delta table. */
+        int[] updateCounts = batchUpsert(TRANSFER_ACCOUNT_BALANCE, new SqlParameterSource[]{
+                balanceParameters(transactionInfo.getSenderAccountId(), transactionInfo.getAmount().negate())
+                        .addValue("currency", transactionInfo.getCurrency()),
+                balanceParameters(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount())
+                        .addValue("currency", transactionInfo.getCurrency())});
+        if (updateCounts[0] == 0) {
+            log.error("Guarded debit failed for sender account_id={}", transactionInfo.getSenderAccountId());
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Insufficient funds, not able to perform the transaction.");
+        }
+        if (updateCounts[1] == 0) {
+            log.error("Guarded credit failed for receiver account_id={}", transactionInfo.getReceiverAccountId());
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Receiver's account is not able to receive the transaction.");
+        }
+        saveTransactionDetails(transactionInfo);
+
+        /* Reading back the new balances within the same transaction. */
+        Map<Long, Money> balances = new HashMap<>();
+        MapSqlParameterSource balancesParameterSource = new MapSqlParameterSource();
+        balancesParameterSource.addValue("account_ids",
+                Arrays.asList(transactionInfo.getSenderAccountId(), transactionInfo.getReceiverAccountId()));
+        fetch(FETCH_ACCOUNT_BALANCES_BY_IDS, balancesParameterSource, ACCOUNT_BALANCE_ROW_MAPPER)
+                .forEach(balance -> balances.put(balance.getKey(), balance.getValue()));
+        return balances;
+    }
+
+    @Override
+    public List<TransferOutcome> transferFundsBatch(List<TransactionInfo> transactionInfoList) {
+        TransferOutcome[] transferOutcomes = new TransferOutcome[transactionInfoList.size()];
+
+        /* The guards of the debits and credits are checked in submission order on the accounts read holding their
+         * locks, so that a transfer may spend the credit of an earlier one, then the balance movements accepted are
+         * netted and written with the same guards. A guard failing there means an account was changed without its
+         * lock, and the whole batch is rolled back. */
+        Set<Long> accountIds = new TreeSet<>();
+        transactionInfoList.forEach(transactionInfo -> {
+            accountIds.add(transactionInfo.getSenderAccountId());
+            accountIds.add(transactionInfo.getReceiverAccountId());
+        });
+        MapSqlParameterSource accountsParameterSource = new MapSqlParameterSource();
+        accountsParameterSource.addValue("account_ids", accountIds);
+        Map<Long, AccountInfo> accounts = new HashMap<>();
+        fetch(FETCH_ACCOUNT_DETAILS_BY_IDS, accountsParameterSource, ACCOUNT_INFO_ROW_MAPPER)
+                .forEach(accountInfo -> accounts.put(accountInfo.getAccountId(), accountInfo));
+
+        List<TransactionInfo> applied = new ArrayList<>();
+        Map<Long, Money> amountsToAdd = new TreeMap<>();
+        for (int i = 0; i < transactionInfoList.size(); i++) {
+            TransactionInfo transactionInfo = transactionInfoList.get(i);
+            AccountInfo senderAccountInfo = accounts.get(transactionInfo.getSenderAccountId());
+            if (!canTransact(senderAccountInfo, transactionInfo)
+                    || senderAccountInfo.getBalance().isLessThan(transactionInfo.getAmount())) {
+                log.error("Guarded debit failed for sender account_id={}", transactionInfo.getSenderAccountId());
+                transferOutcomes[i] = TransferOutcome.rejected(
+                        HttpStatus.BAD_REQUEST, "Insufficient funds, not able to perform the transaction.");
+                continue;
+            }
+            AccountInfo receiverAccountInfo = accounts.get(transactionInfo.getReceiverAccountId());
+            if (!canTransact(receiverAccountInfo, transactionInfo)) {
+                log.error("Guarded credit failed for receiver account_id={}", transactionInfo.getReceiverAccountId());
+                transferOutcomes[i] = TransferOutcome.rejected(
+                        HttpStatus.BAD_REQUEST, "Receiver's account is not able to receive the transaction.");
+                continue;
+            }
+            senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(transactionInfo.getAmount()));
+            receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(transactionInfo.getAmount()));
+            amountsToAdd.merge(transactionInfo.getSenderAccountId(), transactionInfo.getAmount().negate(), Money::add);
+            amountsToAdd.merge(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount(), Money::add);
+            applied.add(transactionInfo);
+            transferOutcomes[i] = TransferOutcome.completed(transactionInfo);
+        }
+
+        if (!applied.isEmpty()) {
+            int[] updateCounts = batchUpsert(TRANSFER_ACCOUNT_BALANCE, amountsToAdd.entrySet().stream()
+                    .map(entry -> balanceParameters(entry.getKey(), entry.getValue())
+                            .addValue("currency", accounts.get(entry.getKey()).getCurrency()))
+                    .toArray(SqlParameterSource[]::new));
+            if (Arrays.stream(updateCounts).anyMatch(updateCount -> updateCount == 0)) {
+                log.error("Guarded balance update failed for a batch of {} transfers on account_ids={}",
+                        applied.size(), amountsToAdd.keySet());
+                throw new CustomBusinessException(
+                        HttpStatus.INTERNAL_SERVER_ERROR,
+                        "Transfer failed, please try again.");
+            }
+
+            /* Reserving the transaction ids upfront, as generated keys are not returned for batch updates. */
+            MapSqlParameterSource idsParameterSource = new MapSqlParameterSource();
+            idsParameterSource.addValue("count", applied.size());
+            List<Long> transactionIds = fetch(FETCH_NEXT_TRANSACTION_IDS, idsParameterSource, TRANSACTION_ID_ROW_MAPPER);
+            for (int i = 0; i < applied.size(); i++) {
+                applied.get(i).setId(transactionIds.get(i));
+            }
+            batchUpsert(INSERT_TRANSACTION_DETAILS_WITH_ID, applied.stream()
+                    .map(transactionInfo -> transactionDetailsParameters(transactionInfo)
+                            .addValue("id", transactionInfo.getId()))
+                    .toArray(SqlParameterSource[]::new));
+        }
+        return Arrays.asList(transferOutcomes);
+    }
+
+    private static boolean canTransact(AccountInfo accountInfo, TransactionInfo transactionInfo) {
+        return accountInfo != null && accountInfo.getAccountStatus().equals("ACTIVE")
+                && accountInfo.getCurrency().equals(transactionInfo.getCurrency());
+    }
+
+    @Override
+    public List<String> fetchAllIdempotencyKeys() {
+        return fetch(FETCH_ALL_IDEMPOTENCY_KEYS, null, IDEMPOTENCY_KEY_ROW_MAPPER);
+    }
+
+    @Override
+    public List<String> fetchIdempotencyKeysCreatedFrom(LocalDateTime createdFrom) {
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("created_from", createdFrom);
+        return fetch(FETCH_IDEMPOTENCY_KEYS_CREATED_FROM, sqlParameterSource, IDEMPOTENCY_KEY_ROW_MAPPER);
+    }
+
+    @Override
+    public int purgeIdempotencyKeys(LocalDateTime createdBefore) {
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("created_before", createdBefore);
+        return upsert(DELETE_EXPIRED_IDEMPOTENCY_KEYS, sqlParameterSource);
+    }
+
+    @Override
+    public Map<String, String> fetchIdempotentResponses(Collection<String> idempotencyKeys) {
+        Map<String, String> responses = new HashMap<>();
+        if (idempotencyKeys.isEmpty()) {
+            return responses;
+        }
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("idempotency_keys", idempotencyKeys);
+        fetch(FETCH_IDEMPOTENT_RESPONSES, sqlParameterSource, IDEMPOTENT_RESPONSE_ROW_MAPPER)
+                .forEach(response -> responses.put(response.getKey(), response.getValue()));
+        return responses;
+    }
+
+    @Override
+    public void saveIdempotentResponses(Map<String, String> responses) {
+        batchUpsert(UPDATE_IDEMPOTENT_RESPONSE, responses.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource("idempotency_key", entry.getKey())
+                        .addValue("response", entry.getValue()))
+                .toArray(SqlParameterSource[]::new));
+    }
+
+    @Override
+    public void deleteIdempotencyKey(String idempotencyKey) {
+        MapSqlParameterSource sqlParameterSource = new MapSqlParameterSource();
+        sqlParameterSource.addValue("idempotency_key", idempotencyKey);
+        upsert(DELETE_IDEMPOTENCY_KEY, sqlParameterSource);
     }
 }
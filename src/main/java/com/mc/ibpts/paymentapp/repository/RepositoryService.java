@@ -1,11 +1,18 @@
 package com.mc.ibpts.paymentapp.repository;
 
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.StatementCursor;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
 
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface RepositoryService {
 
@@ -15,25 +22,73 @@ public interface RepositoryService {
      * */
     public Optional<AccountInfo> fetchAccountInfo(Long accountId);
 
+    /** The method should return the Account details of the provided list of account_ids.
+     * Account_ids not found in persistence are not part of the response, and the order is not guaranteed.
+     * */
+    List<AccountInfo> fetchAccountInfoByIds(Collection<Long> accountIds);
+
     /** The method will return the entire account details in the persistence storage.
      * The response will be a list of account information.
      * */
     public List<AccountInfo> fetchAllAccountInfo();
 
+    /** The method will hand the entire account details in the persistence storage to the consumer one by one
+     * as they are read, without collecting them, in account_id order. Rows are read fetchSize at a time.
+     * The response will be the number of accounts exported.
+     * */
+    long exportAccounts(int fetchSize, Consumer<AccountInfo> accountConsumer);
+
+    /** The method will return a page of the account details, with account_id greater than afterAccountId,
+     * in the accountStatus and in the currency, either of them being optional.
+     * The response list should be sorted based on account_id, limited to maximum limit accounts.
+     * */
+    List<AccountInfo> fetchAccountInfoPage(Long afterAccountId, String accountStatus, String currency, int limit);
+
     /** The method will return the entire transaction details in the persistence storage.
      * The response will be a list of transaction information.
      * */
     public List<TransactionInfo> fetchAllTransactionInfo();
 
+    /** The method will return the transaction details with id greater than afterTransactionId.
+     * The response list should be sorted based on id.
+     * */
+    List<TransactionInfo> fetchTransactionInfoAfter(long afterTransactionId);
+
+    /** The method will return the highest transaction id persisted, or 0 if there is no transaction.
+     * */
+    long fetchLastTransactionId();
+
+    /** The method will return the number of accounts, including the deleted ones.
+     * */
+    long countAccounts();
+
     /** This method will return transaction details of a particular account_id
      * limited to maximum 20 transactions.
      * And the response list should be sorted based on transaction date in descending order.
      * */
     public List<TransactionInfo> fetchMiniStatementByAccountId(Long accountId);
 
+    /** This method will return a page of the transaction details of a particular account_id,
+     * dated between fromDate and toDate inclusive, either of them being optional,
+     * and positioned after the cursor of the previous page, if any.
+     * The response list should be sorted based on transaction date and then id in descending order,
+     * limited to maximum limit transactions.
+     * */
+    List<TransactionInfo> fetchStatementByAccountId(
+            Long accountId, LocalDateTime fromDate, LocalDateTime toDate, StatementCursor cursor, int limit);
+
+    /** This method will hand the transaction details of a particular account_id, or of all the accounts if accountId
+     * is null, to the consumer one by one as they are read, without collecting them.
+     * Transactions of an account are sorted based on transaction date and then id in descending order,
+     * all the transactions are in id order. Rows are read fetchSize at a time.
+     * The response will be the number of transactions exported.
+     * */
+    long exportTransactions(Long accountId, int fetchSize, Consumer<TransactionInfo> transactionConsumer);
+
     /** This method is used for ensuring the idempotency of the request.
     * If same key is again repeating, the method should throw an exception,
     * which will be handled in Controller advice.
+    * The key is in flight until its response is saved, or until it is released if the request fails.
     * */
     void insertIdempotencyKey(String idempotencyKey);
 
@@ -45,5 +100,73 @@ public interface RepositoryService {
      * if amountToAdd is +ve, the balance will be incremented and
      * if amountToAdd is -ve, the balance will bew decremented.
      * */
-    void updateBalanceInfo(Long accountId, BigDecimal amountToAdd);
+    void updateBalanceInfo(Long accountId, Money amountToAdd);
+
+    /** This method will return the idempotency keys which are already present in the persistence,
+     * out of the provided list of keys.
+     * */
+    Set<String> fetchExistingIdempotencyKeys(Collection<String> idempotencyKeys);
+
+    /** This method will persist a batch of transactions along with their idempotency keys,
+     * and update the balances of the sender and receiver accounts of each transaction.
+     * The response will be the latest account details of all the accounts involved in the batch.
+     * */
+    List<AccountInfo> saveTransferBatch(List<String> idempotencyKeys, List<TransactionInfo> transactionInfoList);
+
+    /** This method will apply a transfer as a guarded debit and credit, and persist the transaction details.
+     * The sender is debited only if the account is ACTIVE, in the transaction currency and has sufficient balance,
+     * and the receiver is credited only if the account is ACTIVE and in the transaction currency.
+     * If any of the guards fails, the method should throw an exception and the surrounding
+     * database transaction should be rolled back.
+     * The response will be the new balances of the sender and receiver accounts, keyed by account_id.
+     * */
+    Map<Long, Money> transferFunds(TransactionInfo transactionInfo);
+
+    /** This method will apply a batch of transfers as guarded debits and credits, with the same guards as transferFunds,
+     * and persist the transaction details of the transfers applied, using a single batch statement for each step.
+     * A transfer whose guard fails is rejected and leaves the balances untouched, without failing the others.
+     * The response will be the outcome of each transfer, in the same order as the transactions.
+     * */
+    List<TransferOutcome> transferFundsBatch(List<TransactionInfo> transactionInfoList);
+
+    /** This method will persist a batch of transfers read from the transfer journal, in journal order,
+     * and update the balances of the sender and receiver accounts of each transaction without guards,
+     * the transfers being validated before they were journaled.
+     * The journal sequence of the last transfer is stored as the journal checkpoint in the same database transaction.
+     * The response will be the latest account details of all the accounts involved in the batch.
+     * */
+    List<AccountInfo> applyJournaledTransfers(List<TransactionInfo> transactionInfoList, long appliedSequence);
+
+    /** This method will return the journal sequence of the last transfer applied from the transfer journal,
+     * or 0 if none was applied yet.
+     * */
+    long fetchJournalCheckpoint();
+
+    /** This method will fetch all the idempotency keys currently in use.
+     * */
+    List<String> fetchAllIdempotencyKeys();
+
+    /** This method will fetch the idempotency keys created at or after createdFrom.
+     * */
+    List<String> fetchIdempotencyKeysCreatedFrom(LocalDateTime createdFrom);
+
+    /** This method will delete the idempotency keys created before the given time, so that they can be reused.
+     * The response will be the number of keys deleted.
+     * */
+    int purgeIdempotencyKeys(LocalDateTime createdBefore);
+
+    /** This method will return the stored responses of the completed requests, keyed by idempotency key,
+     * out of the provided list of keys. Keys still in flight or not in use are not part of the response.
+     * */
+    Map<String, String> fetchIdempotentResponses(Collection<String> idempotencyKeys);
+
+    /** This method will store the serialized responses against their idempotency keys,
+     * so that a retry with the same key is answered with the original response.
+     * */
+    void saveIdempotentResponses(Map<String, String> responses);
+
+    /** This method will release the idempotency key of a request which failed,
+     * so that the request can be retried with the same key.
+     * */
+    void deleteIdempotencyKey(String idempotencyKey);
 }
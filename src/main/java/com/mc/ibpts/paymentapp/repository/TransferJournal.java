@@ -0,0 +1,404 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.exception.TransferOutcomeUnknownException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the transfers, on a memory-mapped file of fixed size records.
+ * Appending a transfer is a plain memory write, made durable by forcing the file. A force covers every record appended
+ * before it, so the transfers waiting on the force in progress are all committed by the next one, as a group.
+ * Records are numbered from 1 and carry a CRC32, the journal ends at the first record out of sequence or failing its
+ * CRC, which drops a record torn by a crash while being written.
+ * The records are written round the file as a ring. Once applied to the database, their slots are reclaimed for the
+ * records a lap ahead, the header holding the sequence reclaimed up to, from which recovery starts.
+ * <p>
+ * Header layout, 128 bytes: magic (4), version (4), reclaimed sequence (8), padding.
+ * <p>
+ * Record layout, 128 bytes: sequence (8), sender account_id (8), receiver account_id (8), amount in minor units (8),
+ * transaction date epoch second (8) and nanos (4), currency (3), reference id length (1, 0xFF for none),
+ * reference id in UTF-8 (up to 64), padding, then the CRC32 of the preceding bytes (4).
+ */
+@Slf4j
+@Component
+public class TransferJournal {
+
+    static final int HEADER_SIZE = 128;
+    static final int RECORD_SIZE = 128;
+    private static final int MAGIC = 0x4A524E4C;   // "JRNL"
+    private static final int VERSION = 1;
+    private static final int RECLAIMED_SEQUENCE_OFFSET = 8;
+    private static final int CURRENCY_OFFSET = 44;
+    private static final int REFERENCE_ID_LENGTH_OFFSET = 47;
+    private static final int REFERENCE_ID_OFFSET = 48;
+    private static final int MAX_REFERENCE_ID_BYTES = 64;
+    private static final int CRC_OFFSET = RECORD_SIZE - Integer.BYTES;
+
+    private final boolean enabled;
+    private final Path file;
+    private final int size;
+    private final long capacity;
+    /* Slots are reclaimed at least this many at a time, each reclaim forcing the header. */
+    private final long reclaimBatch;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private volatile long appendedSequence;
+    private volatile long durableSequence;
+    private volatile long reclaimedSequence;
+    private volatile boolean failed;
+    /* Records struck out of the journal after a failed force, and whether striking them out was forced. */
+    private volatile List<TransactionInfo> abortedTransfers = Collections.emptyList();
+    private boolean abortForced;
+
+    public TransferJournal(
+            @Value("${payment.journal.enabled:false}") boolean enabled,
+            @Value("${payment.journal.directory:${java.io.tmpdir}/payment-app/journal}") String directory,
+            @Value("${payment.journal.size.mb:256}") long sizeMb) {
+        this.enabled = enabled;
+        this.file = Paths.get(directory, "transfers.journal");
+        /* A mapped buffer is indexed by int, the size is capped to the largest whole number of records it can hold. */
+        long bytes = Math.min(Math.max(1, sizeMb) << 20, Integer.MAX_VALUE);
+        this.size = (int) (HEADER_SIZE + (bytes - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE);
+        this.capacity = (size - HEADER_SIZE) / RECORD_SIZE;
+        this.reclaimBatch = Math.max(1, capacity / 16);
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the transfer journal " + file, e);
+        }
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.force();
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IllegalStateException("Not a transfer journal of version " + VERSION + ": " + file);
+        }
+        reclaimedSequence = buffer.getLong(RECLAIMED_SEQUENCE_OFFSET);
+        recover();
+        log.info("Opened transfer journal {} with size={}, reclaimedSequence={}, lastSequence={}",
+                file, size, reclaimedSequence, durableSequence);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (channel != null) {
+            if (!failed) {
+                buffer.force();
+            }
+            channel.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    public long getReclaimedSequence() {
+        return reclaimedSequence;
+    }
+
+    /**
+     * Appends the transfers in order and returns the sequence of the last one. The transfers are not durable until
+     * {@link #awaitDurable()} returns. Either all the transfers are appended or, when the journal is full, none.
+     */
+    public long append(List<TransactionInfo> transactionInfoList) {
+        byte[][] referenceIds = new byte[transactionInfoList.size()][];
+        for (int i = 0; i < referenceIds.length; i++) {
+            String referenceId = transactionInfoList.get(i).getReferenceId();
+            referenceIds[i] = referenceId == null ? null : referenceId.getBytes(StandardCharsets.UTF_8);
+            if (referenceIds[i] != null && referenceIds[i].length > MAX_REFERENCE_ID_BYTES) {
+                throw new IllegalArgumentException("Reference id too long to be journaled: " + referenceId);
+            }
+        }
+        appendLock.lock();
+        try {
+            checkAvailable();
+            long sequence = appendedSequence;
+            if (sequence + referenceIds.length - reclaimedSequence > capacity) {
+                log.error("Transfer journal is full at sequence={}", sequence);
+                throw new CustomBusinessException(
+                        HttpStatus.SERVICE_UNAVAILABLE,
+                        "Transfer journal is full, please retry later.");
+            }
+            for (int i = 0; i < referenceIds.length; i++) {
+                write(++sequence, transactionInfoList.get(i), referenceIds[i]);
+            }
+            appendedSequence = sequence;
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns once every transfer appended before the call is durable. The caller forcing the file does it for the
+     * callers queued behind it, which find their transfers durable once they get the lock.
+     * When the force fails, the transfers not durable are struck out of the journal, so that recovery does not
+     * replay transfers reported as failed. If that cannot be forced either, whether they are replayed is unknown
+     * until restart, and the callers get a {@link TransferOutcomeUnknownException}.
+     */
+    public void awaitDurable() {
+        long sequence = appendedSequence;
+        if (durableSequence >= sequence) {
+            return;
+        }
+        forceLock.lock();
+        try {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            if (failed) {
+                /* Appended before the failure, so struck out along with the others. */
+                throw abortFailure(null);
+            }
+            checkAvailable();
+            long target = appendedSequence;
+            try {
+                force();
+            } catch (RuntimeException e) {
+                /* Whether the records reached the disk is unknown, the journal is only trusted again after recovery. */
+                failed = true;
+                log.error("Unable to force the transfer journal after sequence={}", durableSequence, e);
+                abort();
+                throw abortFailure(e);
+            }
+            durableSequence = target;
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /* Transfers struck out of the journal after a failed force, their balance movements are not to be applied. */
+    public List<TransactionInfo> getAbortedTransfers() {
+        return abortedTransfers;
+    }
+
+    /* Zeroes the records not durable, which fail their sequence and CRC checks on recovery. Called holding forceLock,
+     * appends being stopped by the failed flag. */
+    private void abort() {
+        appendLock.lock();
+        try {
+            List<TransactionInfo> transactionInfoList = new ArrayList<>();
+            for (long sequence = durableSequence + 1; sequence <= appendedSequence; sequence++) {
+                int position = offset(sequence);
+                transactionInfoList.add(decode(position));
+                for (int i = position; i < position + RECORD_SIZE; i += Long.BYTES) {
+                    buffer.putLong(i, 0);
+                }
+            }
+            try {
+                force();
+                abortForced = true;
+            } catch (RuntimeException e) {
+                log.error("Unable to strike {} transfers out of the transfer journal after sequence={}",
+                        transactionInfoList.size(), durableSequence, e);
+            }
+            appendedSequence = durableSequence;
+            abortedTransfers = Collections.unmodifiableList(transactionInfoList);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private CustomBusinessException abortFailure(Throwable cause) {
+        if (abortForced) {
+            return new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Transfer failed, please try again.", cause);
+        }
+        return new TransferOutcomeUnknownException(
+                "Transfer outcome unknown, the idempotency key is kept until it is settled.", cause);
+    }
+
+    /**
+     * Frees the slots of the transfers up to appliedSequence, once the database holds them along with the journal
+     * checkpoint. The header is forced before any of the slots is written again, so that recovery never starts
+     * before a slot overwritten by a later lap. A failure to force is left to the next reclaim.
+     */
+    public void reclaim(long appliedSequence) {
+        if (appliedSequence - reclaimedSequence < reclaimBatch) {
+            return;
+        }
+        if (appliedSequence > durableSequence) {
+            throw new IllegalArgumentException("Transfers not durable up to sequence " + appliedSequence);
+        }
+        buffer.putLong(RECLAIMED_SEQUENCE_OFFSET, appliedSequence);
+        try {
+            force();
+        } catch (RuntimeException e) {
+            log.warn("Unable to reclaim the transfer journal up to sequence={}, error={}", appliedSequence, e.getMessage());
+            return;
+        }
+        reclaimedSequence = appliedSequence;
+    }
+
+    /**
+     * Starts an empty journal after the sequence, for a journal replaced after every transfer in it was applied.
+     */
+    public void restartAfter(long sequence) {
+        if (durableSequence != reclaimedSequence || appendedSequence != durableSequence) {
+            throw new IllegalStateException("Transfer journal not empty, lastSequence=" + appendedSequence);
+        }
+        buffer.putLong(RECLAIMED_SEQUENCE_OFFSET, sequence);
+        buffer.force();
+        reclaimedSequence = sequence;
+        appendedSequence = sequence;
+        durableSequence = sequence;
+    }
+
+    /**
+     * Reads the durable transfers following afterSequence, up to limit transfers, in journal order.
+     * The transfers read have no transaction id yet.
+     */
+    public List<TransactionInfo> read(long afterSequence, int limit) {
+        long lastSequence = Math.min(durableSequence, afterSequence + limit);
+        List<TransactionInfo> transactionInfoList = new ArrayList<>((int) Math.max(0, lastSequence - afterSequence));
+        for (long sequence = afterSequence + 1; sequence <= lastSequence; sequence++) {
+            transactionInfoList.add(decode(offset(sequence)));
+        }
+        return transactionInfoList;
+    }
+
+    private void write(long sequence, TransactionInfo transactionInfo, byte[] referenceId) {
+        int position = offset(sequence);
+        buffer.putLong(position + 8, transactionInfo.getSenderAccountId());
+        buffer.putLong(position + 16, transactionInfo.getReceiverAccountId());
+        buffer.putLong(position + 24, transactionInfo.getAmount().getMinorUnits());
+        buffer.putLong(position + 32, transactionInfo.getTransactionDate().toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(position + 40, transactionInfo.getTransactionDate().getNano());
+        for (int i = 0; i < 3; i++) {
+            buffer.put(position + CURRENCY_OFFSET + i, (byte) transactionInfo.getCurrency().charAt(i));
+        }
+        if (referenceId == null) {
+            buffer.put(position + REFERENCE_ID_LENGTH_OFFSET, (byte) 0xFF);
+        } else {
+            buffer.put(position + REFERENCE_ID_LENGTH_OFFSET, (byte) referenceId.length);
+            for (int i = 0; i < referenceId.length; i++) {
+                buffer.put(position + REFERENCE_ID_OFFSET + i, referenceId[i]);
+            }
+        }
+        buffer.putLong(position, sequence);
+        buffer.putInt(position + CRC_OFFSET, crc(position));
+    }
+
+    private TransactionInfo decode(int position) {
+        char[] currency = new char[3];
+        for (int i = 0; i < currency.length; i++) {
+            currency[i] = (char) buffer.get(position + CURRENCY_OFFSET + i);
+        }
+        int referenceIdLength = buffer.get(position + REFERENCE_ID_LENGTH_OFFSET) & 0xFF;
+        String referenceId = null;
+        if (referenceIdLength <= MAX_REFERENCE_ID_BYTES) {
+            byte[] bytes = new byte[referenceIdLength];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(position + REFERENCE_ID_OFFSET + i);
+            }
+            referenceId = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setSenderAccountId(buffer.getLong(position + 8));
+        transactionInfo.setReceiverAccountId(buffer.getLong(position + 16));
+        transactionInfo.setCurrency(new String(currency));
+        transactionInfo.setAmount(Money.ofMinorUnits(buffer.getLong(position + 24), transactionInfo.getCurrency()));
+        transactionInfo.setTransactionDate(LocalDateTime.ofEpochSecond(
+                buffer.getLong(position + 32), buffer.getInt(position + 40), ZoneOffset.UTC));
+        transactionInfo.setReferenceId(referenceId);
+        return transactionInfo;
+    }
+
+    /* Finds the last valid record after the reclaimed ones, then clears the records numbered after it, so that a stale
+     * record left past a torn one is never taken for the continuation of the journal once the torn record is
+     * overwritten. Records of the previous laps are numbered before it, and never match the sequence of their slot. */
+    private void recover() {
+        long sequence = reclaimedSequence;
+        while (sequence - reclaimedSequence < capacity) {
+            int position = offset(sequence + 1);
+            if (buffer.getLong(position) != sequence + 1 || buffer.getInt(position + CRC_OFFSET) != crc(position)) {
+                break;
+            }
+            sequence++;
+        }
+        int dropped = 0;
+        for (int position = HEADER_SIZE; position < size; position += RECORD_SIZE) {
+            if (buffer.getLong(position) > sequence) {
+                for (int i = position; i < position + RECORD_SIZE; i += Long.BYTES) {
+                    buffer.putLong(i, 0);
+                }
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.warn("Dropping the transfer journal tail after sequence={}, records={}", sequence, dropped);
+            buffer.force();
+        }
+        appendedSequence = sequence;
+        durableSequence = sequence;
+    }
+
+    /* Forces the records to disk, overridden by tests to fail it. */
+    void force() {
+        buffer.force();
+    }
+
+    private int crc(int position) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(position).limit(position + CRC_OFFSET);
+        CRC32 crc32 = new CRC32();
+        crc32.update(record);
+        return (int) crc32.getValue();
+    }
+
+    private int offset(long sequence) {
+        return (int) (HEADER_SIZE + (sequence - 1) % capacity * RECORD_SIZE);
+    }
+
+    private void checkAvailable() {
+        if (!enabled || buffer == null || failed) {
+            throw new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Transfer journal is not available.");
+        }
+    }
+}
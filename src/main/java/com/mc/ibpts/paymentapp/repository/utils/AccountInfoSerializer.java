@@ -0,0 +1,37 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+
+public class AccountInfoSerializer extends CacheValueSerializer<AccountInfo> {
+
+    @Override
+    protected void write(AccountInfo accountInfo, DataOutputStream out) throws IOException {
+        writeLong(accountInfo.getAccountId(), out);
+        writeString(accountInfo.getCurrency(), out);
+        writeMoney(accountInfo.getBalance(), out);
+        writeString(accountInfo.getAccountStatus(), out);
+    }
+
+    @Override
+    protected AccountInfo read(DataInputStream in) throws IOException {
+        AccountInfo accountInfo = new AccountInfo();
+        accountInfo.setAccountId(readLong(in));
+        accountInfo.setCurrency(readString(in));
+        accountInfo.setBalance(readMoney(in));
+        accountInfo.setAccountStatus(readString(in));
+        return accountInfo;
+    }
+
+    @Override
+    protected boolean sameValue(AccountInfo accountInfo, AccountInfo other) {
+        return Objects.equals(accountInfo.getAccountId(), other.getAccountId())
+                && Objects.equals(accountInfo.getCurrency(), other.getCurrency())
+                && Objects.equals(accountInfo.getBalance(), other.getBalance())
+                && Objects.equals(accountInfo.getAccountStatus(), other.getAccountStatus());
+    }
+}
@@ -4,14 +4,22 @@ import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.ehcache.CacheManager;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -20,6 +28,21 @@ public class CacheRepositoryServiceUtils {
 
     private final CacheManager cacheManager;
 
+    /* Runs the update once the surrounding database transaction is committed, or right away outside of a transaction,
+     * so that readers never see uncommitted data and a rollback leaves nothing to undo. */
+    protected void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
     protected <T, K> List<T> fetchAll(String cacheName, Class<K> kClass, Class<T> tClass) {
         List<T> dataFromCache = new ArrayList<T>();
         try {
@@ -30,6 +53,21 @@ public class CacheRepositoryServiceUtils {
         return dataFromCache;
     }
 
+    /* Only the keys found in cache are part of the response. */
+    protected <T, K> Map<K, T> fetchAll(String cacheName, Class<K> kClass, Class<T> tClass, Set<K> keys) {
+        Map<K, T> dataFromCache = new HashMap<>();
+        try {
+            cacheManager.getCache(cacheName, kClass, tClass).getAll(keys).forEach((key, value) -> {
+                if (value != null) {
+                    dataFromCache.put(key, value);
+                }
+            });
+        } catch (Exception e) {
+            log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+        }
+        return dataFromCache;
+    }
+
     protected <T, K> Optional<T> fetch(String cacheName, Class<K> kClass, Class<T> tClass, K key) {
         T cashedValue;
         try {
@@ -53,12 +91,59 @@ public class CacheRepositoryServiceUtils {
         }
     }
 
-    protected <T, K> void insertAll(String cacheName, Class<K> kClass, Class<T> tClass, Map<K, T> value) {
+    /* Caches a value read from database unless the key got cached meanwhile, and returns the value left in cache, so
+     * that a read racing with a committed update never replaces the value it wrote. */
+    protected <T, K> T putIfAbsent(String cacheName, Class<K> kClass, Class<T> tClass, K key, T value) {
+        try {
+            T cachedValue = cacheManager.getCache(cacheName, kClass, tClass).putIfAbsent(key, value);
+            return cachedValue == null ? value : cachedValue;
+        } catch (Exception e) {
+            log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            return value;
+        }
+    }
+
+    protected <T, K> void remove(String cacheName, Class<K> kClass, Class<T> tClass, K key) {
+        try {
+            cacheManager.getCache(cacheName, kClass, tClass).remove(key);
+        } catch (Exception e) {
+            log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+        }
+    }
+
+    protected <T, K> Boolean insertAll(String cacheName, Class<K> kClass, Class<T> tClass, Map<K, T> value) {
         try {
             cacheManager.getCache(cacheName, kClass, tClass).clear();
             cacheManager.getCache(cacheName, kClass, tClass).putAll(value);
+            return true;
         } catch (Exception e) {
             log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            return false;
+        }
+    }
+
+    protected <T, K> Boolean updateAll(String cacheName, Class<K> kClass, Class<T> tClass, Map<K, T> value) {
+        try {
+            cacheManager.getCache(cacheName, kClass, tClass).putAll(value);
+            return true;
+        } catch (Exception e) {
+            log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            return false;
+        }
+    }
+
+    protected <T, K> Boolean onEviction(String cacheName, Class<K> kClass, Class<T> tClass, Runnable listener) {
+        try {
+            /* Synchronous, so that the eviction is visible before the put which caused it returns. */
+            cacheManager.getCache(cacheName, kClass, tClass).getRuntimeConfiguration().registerCacheEventListener(
+                    event -> listener.run(),
+                    EventOrdering.ORDERED,
+                    EventFiring.SYNCHRONOUS,
+                    EnumSet.of(EventType.EVICTED));
+            return true;
+        } catch (Exception e) {
+            log.error(CACHE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            return false;
         }
     }
 
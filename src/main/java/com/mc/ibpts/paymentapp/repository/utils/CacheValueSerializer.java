@@ -0,0 +1,96 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.Money;
+import org.ehcache.spi.serialization.Serializer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Base of the compact binary serializers used by the off-heap and disk cache tiers.
+ * Values are written field by field with {@link DataOutputStream}, nullable fields are prefixed with a presence flag.
+ */
+public abstract class CacheValueSerializer<T> implements Serializer<T> {
+
+    protected abstract void write(T value, DataOutputStream out) throws IOException;
+
+    protected abstract T read(DataInputStream in) throws IOException;
+
+    protected abstract boolean sameValue(T object, T other);
+
+    @Override
+    public ByteBuffer serialize(T value) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            write(value, out);
+            out.flush();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T read(ByteBuffer binary) {
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(T object, ByteBuffer binary) {
+        return sameValue(object, read(binary));
+    }
+
+    protected static void writeLong(Long value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    protected static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    protected static void writeString(String value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    protected static void writeMoney(Money value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getMinorUnits());
+            out.writeUTF(value.getCurrency());
+        }
+    }
+
+    protected static Money readMoney(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Money.ofMinorUnits(in.readLong(), in.readUTF()) : null;
+    }
+
+    protected static void writeDateTime(LocalDateTime value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    protected static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+}
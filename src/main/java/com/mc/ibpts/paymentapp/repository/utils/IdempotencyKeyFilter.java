@@ -0,0 +1,214 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.google.common.hash.Hashing;
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bloom filter of the idempotency keys in use, a key not found in the filter is known to be new without
+ * checking the cache or database. Keys cannot be removed from a Bloom filter, so once purges leave it with a false
+ * positive probability expected above rebuild.fpp, the filter is rebuilt from the remaining keys. Keys added while
+ * rebuilding are added to both filters.
+ * The filter bits are snapshotted along with the accounts, so that a restart restores them and only adds the keys
+ * created since instead of reading all the keys.
+ */
+@Slf4j
+@Component
+public class IdempotencyKeyFilter {
+
+    private final long expectedKeys;
+    private final double fpp;
+    private final double rebuildFpp;
+    private volatile BloomFilter current;
+    private volatile BloomFilter next;
+
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    @Autowired
+    public IdempotencyKeyFilter(
+            @Value("${payment.idempotency.filter.expected.keys:1000000}") long expectedKeys,
+            @Value("${payment.idempotency.filter.fpp:0.01}") double fpp,
+            @Value("${payment.idempotency.filter.rebuild.fpp:0.02}") double rebuildFpp) {
+        this.expectedKeys = expectedKeys;
+        this.fpp = fpp;
+        this.rebuildFpp = rebuildFpp;
+        this.current = new BloomFilter(expectedKeys, fpp);
+    }
+
+    public IdempotencyKeyFilter(long expectedKeys, double fpp) {
+        this(expectedKeys, fpp, 2 * fpp);
+    }
+
+    public boolean mightContain(String idempotencyKey) {
+        boolean mightContain = current.mightContain(idempotencyKey);
+        if (!mightContain) {
+            negatives.increment();
+        }
+        return mightContain;
+    }
+
+    public void put(String idempotencyKey) {
+        current.put(idempotencyKey);
+        BloomFilter rebuilding = next;
+        if (rebuilding != null) {
+            rebuilding.put(idempotencyKey);
+        }
+    }
+
+    /* The new filter takes the keys put from before the keys are loaded, so that a key inserted while loading is in
+     * the new filter whether the load reads it or not. It is sized for twice the keys estimated in the current one. */
+    public synchronized void rebuild(Supplier<? extends Collection<String>> idempotencyKeysLoader) {
+        BloomFilter rebuilding = new BloomFilter(Math.max(expectedKeys, 2L * current.approximateKeyCount()), fpp);
+        next = rebuilding;
+        Collection<String> idempotencyKeys;
+        try {
+            idempotencyKeys = idempotencyKeysLoader.get();
+        } catch (RuntimeException e) {
+            next = null;
+            throw e;
+        }
+        idempotencyKeys.forEach(rebuilding::put);
+        current = rebuilding;
+        next = null;
+        log.info("Rebuilt idempotency key filter with {} keys, expectedFpp={}, observedFpp={}",
+                idempotencyKeys.size(), expectedFpp(), falsePositiveRate());
+    }
+
+    /* Returns whether the filter was rebuilt, which is only worth reading all the keys once it is filled past
+     * rebuild.fpp. */
+    public boolean rebuildIfSaturated(Supplier<? extends Collection<String>> idempotencyKeysLoader) {
+        double expectedFpp = expectedFpp();
+        if (expectedFpp <= rebuildFpp) {
+            log.debug("Idempotency key filter not rebuilt, expectedFpp={} within rebuildFpp={}", expectedFpp, rebuildFpp);
+            return false;
+        }
+        rebuild(idempotencyKeysLoader);
+        return true;
+    }
+
+    /* A key is put once its database insert is done, so the copy holds every key inserted before it is taken.
+     * Keys created from keysCreatedFrom on are to be added back when restored, which covers the keys inserted after. */
+    public IdempotencyKeyFilterBits copy(LocalDateTime keysCreatedFrom) {
+        return current.copy(keysCreatedFrom);
+    }
+
+    public synchronized void restore(IdempotencyKeyFilterBits filterBits, Collection<String> idempotencyKeys) {
+        BloomFilter restoring = new BloomFilter(filterBits.getHashFunctions(), filterBits.getBits());
+        next = restoring;
+        idempotencyKeys.forEach(restoring::put);
+        current = restoring;
+        next = null;
+        log.info("Restored idempotency key filter with {} keys created from {}, expectedFpp={}",
+                idempotencyKeys.size(), filterBits.getKeysCreatedFrom(), expectedFpp());
+    }
+
+    /* Called when a key reported by the filter is then not found, i.e. the filter answer was a false positive. */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /* Observed rate of false positives, out of the lookups of keys not in use. */
+    public double falsePositiveRate() {
+        long falsePositiveCount = falsePositives.sum();
+        long lookups = falsePositiveCount + negatives.sum();
+        return lookups == 0 ? 0.0 : (double) falsePositiveCount / lookups;
+    }
+
+    /* False positive probability expected from the current fill of the filter. */
+    public double expectedFpp() {
+        return current.expectedFpp();
+    }
+
+    private static class BloomFilter {
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashFunctions;
+
+        BloomFilter(long expectedKeys, double fpp) {
+            long optimalBits = (long) (-expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bits = new AtomicLongArray((int) Math.max(1, (optimalBits + 63) / 64));
+            this.bitCount = bits.length() * 64L;
+            this.hashFunctions = Math.max(1, (int) Math.round((double) optimalBits / expectedKeys * Math.log(2)));
+        }
+
+        BloomFilter(int hashFunctions, long[] words) {
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = bits.length() * 64L;
+            this.hashFunctions = hashFunctions;
+        }
+
+        IdempotencyKeyFilterBits copy(LocalDateTime keysCreatedFrom) {
+            long[] words = new long[bits.length()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = bits.get(i);
+            }
+            return new IdempotencyKeyFilterBits(keysCreatedFrom, hashFunctions, words);
+        }
+
+        boolean mightContain(String key) {
+            long[] hashes = hashes(key);
+            for (int i = 0; i < hashFunctions; i++) {
+                long bitIndex = bitIndex(hashes, i);
+                if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(String key) {
+            long[] hashes = hashes(key);
+            for (int i = 0; i < hashFunctions; i++) {
+                long bitIndex = bitIndex(hashes, i);
+                int wordIndex = (int) (bitIndex >>> 6);
+                long mask = 1L << bitIndex;
+                long word;
+                do {
+                    word = bits.get(wordIndex);
+                } while ((word & mask) == 0 && !bits.compareAndSet(wordIndex, word, word | mask));
+            }
+        }
+
+        double expectedFpp() {
+            return Math.pow((double) bitsSet() / bitCount, hashFunctions);
+        }
+
+        /* Estimate of the distinct keys put, from the share of bits set. */
+        long approximateKeyCount() {
+            double bitsSetShare = (double) bitsSet() / bitCount;
+            return Math.min(bitCount, Math.round(-bitCount / (double) hashFunctions * Math.log1p(-bitsSetShare)));
+        }
+
+        private long bitsSet() {
+            long bitsSet = 0;
+            for (int i = 0; i < bits.length(); i++) {
+                bitsSet += Long.bitCount(bits.get(i));
+            }
+            return bitsSet;
+        }
+
+        /* Double hashing of the two halves of the 128 bit murmur3 hash. */
+        private long bitIndex(long[] hashes, int i) {
+            return ((hashes[0] + i * hashes[1]) & Long.MAX_VALUE) % bitCount;
+        }
+
+        private static long[] hashes(String key) {
+            ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asBytes())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return new long[]{hash.getLong(0), hash.getLong(8)};
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index from account_id to the latest transactions of the account, newest first.
+ * Each account keeps a bounded ring of {@link #MINI_STATEMENT_SIZE} transactions, so reading or
+ * updating a mini statement costs the same regardless of the number of transactions in the ledger.
+ */
+@Component
+public class MiniStatementIndex {
+
+    public static final int MINI_STATEMENT_SIZE = 20;
+
+    private static final CompletableFuture<Void> LOADED = CompletableFuture.completedFuture(null);
+
+    private final Map<Long, TransactionRing> index = new ConcurrentHashMap<>();
+
+    /* Build the rings of the given accounts from the transactions, accounts without transactions get an empty ring. */
+    public void warm(Collection<Long> accountIds, Collection<TransactionInfo> transactionInfoList) {
+        Map<Long, TransactionRing> rings = new HashMap<>();
+        accountIds.forEach(accountId -> rings.put(accountId, new TransactionRing(LOADED)));
+        transactionInfoList.stream()
+                .sorted(Comparator.reverseOrder())      // Oldest first, so that the newest ends up on the head.
+                .forEach(transactionInfo -> {
+                    rings.computeIfAbsent(transactionInfo.getSenderAccountId(), k -> new TransactionRing(LOADED))
+                            .add(transactionInfo);
+                    rings.computeIfAbsent(transactionInfo.getReceiverAccountId(), k -> new TransactionRing(LOADED))
+                            .add(transactionInfo);
+                });
+        index.putAll(rings);
+    }
+
+    /* Latest transactions of the account newest first, loading them once when the account is not indexed yet.
+     * The empty ring is indexed first and loaded outside the map lock, so that a slow load does not block the other
+     * accounts of the bin, and the transactions committed while it loads are added to the ring and merged with the
+     * loaded ones instead of being missed. Concurrent readers of the account wait for the load. */
+    public List<TransactionInfo> fetch(Long accountId, Function<Long, List<TransactionInfo>> loader) {
+        TransactionRing ring = index.computeIfAbsent(accountId, k -> new TransactionRing(new CompletableFuture<>()));
+        try {
+            ring.awaitLoaded(() -> loader.apply(accountId));
+        } catch (RuntimeException e) {
+            /* Loaded again by the next reader. */
+            index.remove(accountId, ring);
+            throw e;
+        }
+        return ring.snapshot();
+    }
+
+    /* Add a committed transaction to the rings of already indexed, or being loaded, sender and receiver accounts. */
+    public void add(TransactionInfo transactionInfo) {
+        index.computeIfPresent(transactionInfo.getSenderAccountId(), (k, ring) -> ring.add(transactionInfo));
+        index.computeIfPresent(transactionInfo.getReceiverAccountId(), (k, ring) -> ring.add(transactionInfo));
+    }
+
+    private static class TransactionRing {
+        private final TransactionInfo[] transactions = new TransactionInfo[MINI_STATEMENT_SIZE];
+        private int head;       // Position of the newest transaction.
+        private int size;
+        private final CompletableFuture<Void> loaded;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        TransactionRing(CompletableFuture<Void> loaded) {
+            this.loaded = loaded;
+        }
+
+        /* The first caller runs the load, the others wait for it and get the same exception if it fails. */
+        void awaitLoaded(Supplier<List<TransactionInfo>> loader) {
+            if (loaded.isDone() && !loaded.isCompletedExceptionally()) {
+                return;
+            }
+            if (loading.compareAndSet(false, true)) {
+                try {
+                    merge(loader.get());
+                    loaded.complete(null);
+                } catch (RuntimeException e) {
+                    loaded.completeExceptionally(e);
+                    throw e;
+                }
+                return;
+            }
+            try {
+                loaded.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /* Latest of the loaded transactions and of the transactions added meanwhile, which the load may include. */
+        private synchronized void merge(List<TransactionInfo> loadedTransactions) {
+            List<TransactionInfo> latest = new ArrayList<>(loadedTransactions);
+            Set<Long> loadedIds = new HashSet<>();
+            loadedTransactions.forEach(transactionInfo -> loadedIds.add(transactionInfo.getId()));
+            snapshot().stream()
+                    .filter(transactionInfo -> transactionInfo.getId() == null
+                            || !loadedIds.contains(transactionInfo.getId()))
+                    .forEach(latest::add);
+            latest.sort(Comparator.reverseOrder());     // Oldest first, so that the newest ends up on the head.
+            Arrays.fill(transactions, null);
+            head = 0;
+            size = 0;
+            latest.subList(Math.max(0, latest.size() - MINI_STATEMENT_SIZE), latest.size()).forEach(this::add);
+        }
+
+        synchronized TransactionRing add(TransactionInfo transactionInfo) {
+            head = (head + 1) % MINI_STATEMENT_SIZE;
+            transactions[head] = transactionInfo;
+            size = Math.min(size + 1, MINI_STATEMENT_SIZE);
+            return this;
+        }
+
+        synchronized List<TransactionInfo> snapshot() {
+            List<TransactionInfo> latest = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                latest.add(transactions[(head - i + MINI_STATEMENT_SIZE) % MINI_STATEMENT_SIZE]);
+            }
+            return latest;
+        }
+    }
+}
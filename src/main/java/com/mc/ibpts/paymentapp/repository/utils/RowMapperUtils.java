@@ -1,33 +1,55 @@
 package com.mc.ibpts.paymentapp.repository.utils;
 
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
 import org.springframework.jdbc.core.RowMapper;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Map;
 
 public class RowMapperUtils {
 
     public static final RowMapper<AccountInfo> ACCOUNT_INFO_ROW_MAPPER = (resultSet, i) -> {
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(resultSet.getLong("account_id"));
-        accountInfo.setBalance(resultSet.getBigDecimal("balance"));
         accountInfo.setCurrency(resultSet.getString("currency"));
+        accountInfo.setBalance(Money.fromBigDecimal(resultSet.getBigDecimal("balance"), accountInfo.getCurrency()));
         accountInfo.setAccountStatus(resultSet.getString("account_status"));
         return accountInfo;
     };
 
     public static final RowMapper<TransactionInfo> TRANSACTION_INFO_ROW_MAPPER = (resultSet, i) -> {
         TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setId(resultSet.getLong("id"));
         transactionInfo.setSenderAccountId(resultSet.getLong("sender_account_id"));
         transactionInfo.setReceiverAccountId(resultSet.getLong("receiver_account_id"));
-        transactionInfo.setAmount(resultSet.getBigDecimal("amount"));
         transactionInfo.setCurrency(resultSet.getString("currency"));
+        transactionInfo.setAmount(Money.fromBigDecimal(resultSet.getBigDecimal("amount"), transactionInfo.getCurrency()));
         transactionInfo.setTransactionDate(
                 LocalDateTime.ofInstant(resultSet.getTimestamp("transaction_date").toInstant(),
                         ZoneId.systemDefault()));
         transactionInfo.setReferenceId(resultSet.getString("reference_id"));
         return transactionInfo;
     };
+
+    public static final RowMapper<String> IDEMPOTENCY_KEY_ROW_MAPPER = (resultSet, i) ->
+            resultSet.getString("idempotency_key");
+
+    public static final RowMapper<Map.Entry<String, String>> IDEMPOTENT_RESPONSE_ROW_MAPPER = (resultSet, i) ->
+            Map.entry(resultSet.getString("idempotency_key"), resultSet.getString("response"));
+
+    public static final RowMapper<Map.Entry<Long, Money>> ACCOUNT_BALANCE_ROW_MAPPER = (resultSet, i) ->
+            Map.entry(resultSet.getLong("account_id"),
+                    Money.fromBigDecimal(resultSet.getBigDecimal("balance"), resultSet.getString("currency")));
+
+    public static final RowMapper<Long> TRANSACTION_ID_ROW_MAPPER = (resultSet, i) ->
+            resultSet.getLong("id");
+
+    public static final RowMapper<Long> ACCOUNT_COUNT_ROW_MAPPER = (resultSet, i) ->
+            resultSet.getLong("account_count");
+
+    public static final RowMapper<Long> JOURNAL_SEQUENCE_ROW_MAPPER = (resultSet, i) ->
+            resultSet.getLong("applied_sequence");
 }
@@ -4,10 +4,16 @@ import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.support.KeyHolder;
 
+import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,6 +37,30 @@ public class SQLRepositoryServiceUtils {
         }
     }
 
+    protected int upsert(String sql, SqlParameterSource sqlParameterSource, KeyHolder keyHolder, String... keyColumnNames) {
+        try {
+            return namedParameterJdbcTemplate.update(sql, sqlParameterSource, keyHolder, keyColumnNames);
+        } catch (Exception e) {
+            log.error(DATABASE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            throw new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    DATABASE_ERROR_RESPONSE_MESSAGE,
+                    e);
+        }
+    }
+
+    protected int[] batchUpsert(String sql, SqlParameterSource[] sqlParameterSources) {
+        try {
+            return namedParameterJdbcTemplate.batchUpdate(sql, sqlParameterSources);
+        } catch (Exception e) {
+            log.error(DATABASE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            throw new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    DATABASE_ERROR_RESPONSE_MESSAGE,
+                    e);
+        }
+    }
+
     protected <T> List<T> fetch(String sql, SqlParameterSource sqlParameterSource, RowMapper<T> mapper) {
         try {
             if (sqlParameterSource == null) {
@@ -47,6 +77,35 @@ public class SQLRepositoryServiceUtils {
         }
     }
 
+    /* Hands each row to the handler as it is read instead of collecting the rows, fetchSize rows at a time.
+    H2 materializes the whole result before returning the first row unless lazy query execution is set,
+    so it is set on the connection for the query only. */
+    protected void stream(String sql, SqlParameterSource sqlParameterSource, int fetchSize, RowCallbackHandler rowCallbackHandler) {
+        try {
+            namedParameterJdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+                JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+                jdbcTemplate.setFetchSize(fetchSize);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LAZY_QUERY_EXECUTION TRUE");
+                }
+                try {
+                    new NamedParameterJdbcTemplate(jdbcTemplate).query(sql, sqlParameterSource, rowCallbackHandler);
+                } finally {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET LAZY_QUERY_EXECUTION FALSE");
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error(DATABASE_ERROR_LOG_TRACE_MESSAGE, e.getMessage());
+            throw new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    DATABASE_ERROR_RESPONSE_MESSAGE,
+                    e);
+        }
+    }
+
     protected <T> Optional<T> fetchObject(String sql, SqlParameterSource sqlParameterSource, RowMapper<T> mapper) {
         try {
             List<T> list = namedParameterJdbcTemplate.query(sql, sqlParameterSource, mapper);
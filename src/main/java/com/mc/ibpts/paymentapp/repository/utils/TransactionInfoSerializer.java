@@ -0,0 +1,46 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+
+public class TransactionInfoSerializer extends CacheValueSerializer<TransactionInfo> {
+
+    @Override
+    protected void write(TransactionInfo transactionInfo, DataOutputStream out) throws IOException {
+        writeLong(transactionInfo.getId(), out);
+        writeLong(transactionInfo.getSenderAccountId(), out);
+        writeLong(transactionInfo.getReceiverAccountId(), out);
+        writeMoney(transactionInfo.getAmount(), out);
+        writeString(transactionInfo.getCurrency(), out);
+        writeDateTime(transactionInfo.getTransactionDate(), out);
+        writeString(transactionInfo.getReferenceId(), out);
+    }
+
+    @Override
+    protected TransactionInfo read(DataInputStream in) throws IOException {
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setId(readLong(in));
+        transactionInfo.setSenderAccountId(readLong(in));
+        transactionInfo.setReceiverAccountId(readLong(in));
+        transactionInfo.setAmount(readMoney(in));
+        transactionInfo.setCurrency(readString(in));
+        transactionInfo.setTransactionDate(readDateTime(in));
+        transactionInfo.setReferenceId(readString(in));
+        return transactionInfo;
+    }
+
+    @Override
+    protected boolean sameValue(TransactionInfo transactionInfo, TransactionInfo other) {
+        return Objects.equals(transactionInfo.getId(), other.getId())
+                && Objects.equals(transactionInfo.getSenderAccountId(), other.getSenderAccountId())
+                && Objects.equals(transactionInfo.getReceiverAccountId(), other.getReceiverAccountId())
+                && Objects.equals(transactionInfo.getAmount(), other.getAmount())
+                && Objects.equals(transactionInfo.getCurrency(), other.getCurrency())
+                && Objects.equals(transactionInfo.getTransactionDate(), other.getTransactionDate())
+                && Objects.equals(transactionInfo.getReferenceId(), other.getReferenceId());
+    }
+}
@@ -0,0 +1,88 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import com.mc.ibpts.paymentapp.repository.AccountSnapshotStore;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.repository.utils.IdempotencyKeyFilter;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Snapshots the balances and statuses of all the accounts in background, so that a restart only replays the
+ * transactions after the latest snapshot instead of loading the whole ledger.
+ * The accounts are read in a read-only REPEATABLE READ transaction. H2 snapshots each table the first time the
+ * transaction reads it, so both the transactions, for the last transaction id, and the accounts, for their count, are
+ * first read holding every account lock stripe: as each transfer commits holding the locks of its accounts, no
+ * transfer is in progress at that point, and the accounts then read hold exactly the transactions up to the high-water
+ * mark although transaction ids are not committed in order. The locks are released before the accounts are exported,
+ * so the transfers only pause for those two reads.
+ * The idempotency key filter is copied along, a restart then only adds the keys created from the overlap before the
+ * copy on, which covers the key inserts still in progress while it is copied. The database is embedded, so the keys
+ * are timestamped with the same clock.
+ */
+@Slf4j
+@Component
+public class AccountSnapshotJob {
+
+    private final AccountSnapshotStore accountSnapshotStore;
+    private final RepositoryService repositoryService;
+    private final StripedAccountLocks stripedAccountLocks;
+    private final IdempotencyKeyFilter idempotencyKeyFilter;
+    private final TransactionTemplate transactionTemplate;
+    private final int fetchSize;
+    private final Duration idempotencyKeysOverlap;
+
+    public AccountSnapshotJob(
+            AccountSnapshotStore accountSnapshotStore,
+            @Qualifier("embeddedSQLRepositoryServiceImpl") RepositoryService repositoryService,
+            StripedAccountLocks stripedAccountLocks,
+            IdempotencyKeyFilter idempotencyKeyFilter,
+            PlatformTransactionManager transactionManager,
+            @Value("${payment.snapshot.fetch.size:1000}") int fetchSize,
+            @Value("${payment.snapshot.idempotency.overlap.ms:60000}") long idempotencyKeysOverlapMs) {
+        this.accountSnapshotStore = accountSnapshotStore;
+        this.repositoryService = repositoryService;
+        this.stripedAccountLocks = stripedAccountLocks;
+        this.idempotencyKeyFilter = idempotencyKeyFilter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.transactionTemplate.setReadOnly(true);
+        this.fetchSize = fetchSize;
+        this.idempotencyKeysOverlap = Duration.ofMillis(idempotencyKeysOverlapMs);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.snapshot.interval.ms:300000}")
+    public void snapshotAccounts() {
+        if (!accountSnapshotStore.isEnabled()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                long[] highWaterMarkAndCount = stripedAccountLocks.executeWithAllLocks(() -> new long[]{
+                        repositoryService.fetchLastTransactionId(), repositoryService.countAccounts()});
+                IdempotencyKeyFilterBits filterBits =
+                        idempotencyKeyFilter.copy(LocalDateTime.now().minus(idempotencyKeysOverlap));
+                /* Read from database rather than cache, which is bounded and may not hold every account. */
+                accountSnapshotStore.write(highWaterMarkAndCount[0], filterBits, accountConsumer -> {
+                    long count = repositoryService.exportAccounts(fetchSize, accountConsumer);
+                    if (count != highWaterMarkAndCount[1]) {
+                        throw new IllegalStateException("Exported " + count + " accounts from a snapshot of "
+                                + highWaterMarkAndCount[1] + " accounts");
+                    }
+                });
+            });
+        } catch (Exception e) {
+            log.error("Snapshot of the accounts failed, error={}", e.getMessage());
+        }
+    }
+}
@@ -1,37 +1,72 @@
 package com.mc.ibpts.paymentapp.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mc.ibpts.paymentapp.common.gen.api.V1ApiDelegate;
 import com.mc.ibpts.paymentapp.common.gen.model.*;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.StatementCursor;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
 import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.exception.TransferOutcomeUnknownException;
 import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.utils.AccountResponseCache;
 import com.mc.ibpts.paymentapp.utils.RequestResponseMapper;
+import com.mc.ibpts.paymentapp.utils.StreamingResource;
+import com.mc.ibpts.paymentapp.utils.TransactionExportWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class AccountsV1Service implements V1ApiDelegate {
 
+    private static final int MAX_STATEMENT_PAGE_SIZE = 1000;
+    private static final int MAX_ACCOUNTS_PAGE_SIZE = 1000;
+
     private final RepositoryService cachedRepositoryServiceImpl;
+    private final TransferEngine transferEngine;
+    private final ObjectMapper objectMapper;
+    private final AccountResponseCache accountResponseCache;
+    private final AsyncTransferQueue asyncTransferQueue;
+
+    @Value("${payment.export.fetch.size:1000}")
+    private int exportFetchSize = 1000;
 
     public ResponseEntity<AccountBalanceResponse> v1AccountsAccountIdBalanceGet(String accountId) {
+        /* Served from the response cache, built from persistence only after a write touched the account. */
+        AccountBalanceResponse accountBalanceResponse = accountResponseCache.fetchBalance(
+                Long.valueOf(accountId), this::loadAccountBalance);
+        log.info("Successfully retrieved account balance details for account_id={}", accountId);
+        return new ResponseEntity<AccountBalanceResponse>(accountBalanceResponse, HttpStatus.OK);
+    }
+
+    private AccountBalanceResponse loadAccountBalance(Long accountId) {
         AtomicReference<AccountBalanceResponse> accountBalanceResponse = new AtomicReference<>();
-        cachedRepositoryServiceImpl.fetchAccountInfo(Long.valueOf(accountId)).ifPresentOrElse(
+        cachedRepositoryServiceImpl.fetchAccountInfo(accountId).ifPresentOrElse(
                 (accountInfo) -> {
                     log.info("Fetched account details from persistence.");
                     accountBalanceResponse.set(
@@ -44,19 +79,55 @@ public class AccountsV1Service implements V1ApiDelegate {
                             "Invalid account number.");
                 }
         );
-        log.info("Successfully retrieved account balance details for account_id={}", accountId);
-        return new ResponseEntity<AccountBalanceResponse>(accountBalanceResponse.get(), HttpStatus.OK);
+        return accountBalanceResponse.get();
+    }
+
+
+    public ResponseEntity<AccountBalanceBatchResponse> v1AccountsBalancesbatchGetPost(
+            AccountBalanceBatchRequest accountBalanceBatchRequest) {
+        List<Long> accountIds = accountBalanceBatchRequest.getAccountIds();
+        if (accountIds.contains(null)) {
+            log.error("Account number missing in the balance batch request.");
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Invalid account number.");
+        }
+        Map<Long, AccountInfo> accountInfos = cachedRepositoryServiceImpl.fetchAccountInfoByIds(new HashSet<>(accountIds))
+                .stream().collect(Collectors.toMap(AccountInfo::getAccountId, accountInfo -> accountInfo));
+
+        /* Balances in the order of the request, each account once. */
+        AccountBalanceBatchResponse accountBalanceBatchResponse = new AccountBalanceBatchResponse();
+        new LinkedHashSet<>(accountIds).forEach(accountId -> {
+            AccountInfo accountInfo = accountInfos.get(accountId);
+            if (accountInfo == null) {
+                accountBalanceBatchResponse.addMissingAccountIdsItem(accountId);
+            } else {
+                accountBalanceBatchResponse.addBalancesItem(
+                        RequestResponseMapper.ACCOUNT_INFO_TO_ACCOUNT_BALANCE_DETAILS_RESPONSE.apply(accountInfo));
+            }
+        });
+        log.info("Successfully retrieved account balance details for {} accounts out of {} requested.",
+                accountBalanceBatchResponse.getBalances().size(), accountIds.size());
+        return new ResponseEntity<>(accountBalanceBatchResponse, HttpStatus.OK);
     }
 
 
     public ResponseEntity<List<AccountStatementResponseData>> v1AccountsAccountIdStatementsMiniGet(String accountId) {
+        /* Served from the response cache, built from persistence only after a write touched the account. */
+        List<AccountStatementResponseData> statementResponseData = accountResponseCache.fetchStatement(
+                Long.valueOf(accountId), this::loadMiniStatement);
+        log.info("Successfully retrieved mini account statement details for account_id={} with {} no of records.",
+                accountId, statementResponseData.size());
+        return new ResponseEntity<>(statementResponseData, HttpStatus.OK);
+    }
+
+    private List<AccountStatementResponseData> loadMiniStatement(Long accountId) {
         AtomicReference<List<AccountStatementResponseData>> statementResponseData = new AtomicReference<>();
         /* Checking if account is available or not.*/
-        cachedRepositoryServiceImpl.fetchAccountInfo(Long.valueOf(accountId)).ifPresentOrElse(
+        cachedRepositoryServiceImpl.fetchAccountInfo(accountId).ifPresentOrElse(
                 (accountInfo) -> {
                     log.info("Fetched transaction details from persistence.");
-                    List<TransactionInfo> list = cachedRepositoryServiceImpl.fetchMiniStatementByAccountId(
-                            Long.valueOf(accountId));
+                    List<TransactionInfo> list = cachedRepositoryServiceImpl.fetchMiniStatementByAccountId(accountId);
                     if (CollectionUtils.isEmpty(list)) {
                         log.warn("No transactions exists for the account.");
                         throw  new CustomBusinessException(
@@ -64,13 +135,10 @@ public class AccountsV1Service implements V1ApiDelegate {
                                 "No Transaction statement for the account.");
                     } else {
                         Collections.sort(list);
-                        statementResponseData.set(list.stream().peek(transactionInfo -> {
-                            if (transactionInfo.getSenderAccountId().equals(Long.valueOf(accountId))) {
-                                transactionInfo.setType("DEBIT");
-                            } else {
-                                transactionInfo.setType("CREDIT");
-                            }
-                        }).map(RequestResponseMapper.TRANSACTION_INFO_TO_STATEMENT).collect(Collectors.toList()));
+                        statementResponseData.set(list.stream()
+                                .map(transactionInfo -> RequestResponseMapper.TRANSACTION_INFO_TO_STATEMENT
+                                        .apply(transactionInfo, accountId))
+                                .collect(Collectors.toList()));
                     }
                 },
                 () -> {
@@ -80,133 +148,373 @@ public class AccountsV1Service implements V1ApiDelegate {
                             "Invalid account number.");
                 }
         );
-        log.info("Successfully retrieved mini account statement details for account_id={} with {} no of records.",
-                accountId, statementResponseData.get().size());
-        return new ResponseEntity<>(statementResponseData.get(), HttpStatus.OK);
+        return statementResponseData.get();
     }
 
 
-    public ResponseEntity<List<AccountDetailsResponseData>> v1AccountsGet() {
-        List<AccountDetailsResponseData> accountDetailsResponseData = cachedRepositoryServiceImpl.fetchAllAccountInfo()
-                .stream().map(RequestResponseMapper.ACCOUNT_INFO_TO_ACCOUNT_DETAILS_RESPONSE).collect(Collectors.toList());
-        log.info("Successfully retrieved account details with {} no of records.", accountDetailsResponseData.size());
-        return new ResponseEntity<>(accountDetailsResponseData, HttpStatus.OK);
+    public ResponseEntity<AccountStatementPageResponse> v1AccountsAccountIdStatementsGet(
+            String accountId, OffsetDateTime fromDate, OffsetDateTime toDate, Integer pageSize, String cursor) {
+        if (pageSize == null || pageSize < 1 || pageSize > MAX_STATEMENT_PAGE_SIZE) {
+            log.error("Invalid statement page size. pageSize={}", pageSize);
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Invalid page size, it should be from 1 to " + MAX_STATEMENT_PAGE_SIZE + ".");
+        }
+        StatementCursor statementCursor = cursor == null ? null : StatementCursor.decode(cursor);
+        Long id = Long.valueOf(accountId);
+        /* Checking if account is available or not.*/
+        if (cachedRepositoryServiceImpl.fetchAccountInfo(id).isEmpty()) {
+            log.error("Account details not found. account_id={}", accountId);
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Invalid account number.");
+        }
+
+        /* One transaction more than the page is fetched, to know if there is a next page. */
+        List<TransactionInfo> transactionInfoList = cachedRepositoryServiceImpl.fetchStatementByAccountId(
+                id, toLocalDateTime(fromDate), toLocalDateTime(toDate), statementCursor, pageSize + 1);
+        AccountStatementPageResponse accountStatementPageResponse = new AccountStatementPageResponse();
+        transactionInfoList.stream()
+                .limit(pageSize)
+                .map(transactionInfo -> RequestResponseMapper.TRANSACTION_INFO_TO_STATEMENT.apply(transactionInfo, id))
+                .forEach(accountStatementPageResponse::addTransactionsItem);
+        if (transactionInfoList.size() > pageSize) {
+            accountStatementPageResponse.nextCursor(
+                    StatementCursor.after(transactionInfoList.get(pageSize - 1)).encode());
+        }
+        log.info("Successfully retrieved account statement page for account_id={} with {} no of records.",
+                accountId, accountStatementPageResponse.getTransactions().size());
+        return new ResponseEntity<>(accountStatementPageResponse, HttpStatus.OK);
+    }
+
+    /* Transaction dates are stored in the local time of the server. */
+    private static LocalDateTime toLocalDateTime(OffsetDateTime dateTime) {
+        return dateTime == null ? null : dateTime.atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+    }
+
+
+    public ResponseEntity<Resource> v1TransactionsExportGet(String accountId, String format, String acceptEncoding) {
+        TransactionExportWriter.Format exportFormat = TransactionExportWriter.Format.fromValue(format);
+        Long id = accountId == null ? null : Long.valueOf(accountId);
+        /* Checking if account is available or not, before the response is committed.*/
+        if (id != null && cachedRepositoryServiceImpl.fetchAccountInfo(id).isEmpty()) {
+            log.error("Account details not found. account_id={}", accountId);
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Invalid account number.");
+        }
+        boolean gzip = acceptsGzip(acceptEncoding);
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setContentType(exportFormat.getMediaType());
+        httpHeaders.setContentDisposition(ContentDisposition.attachment()
+                .filename((id == null ? "transactions" : "transactions-" + id) + "." + exportFormat.getValue())
+                .build());
+        httpHeaders.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+        if (gzip) {
+            httpHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        /* Rows are written as they are read from database, errors after the first bytes can only cut the export short. */
+        StreamingResource export = new StreamingResource("Transaction export", outputStream -> {
+            OutputStream exportStream = gzip ? new GZIPOutputStream(outputStream, 8192) : outputStream;
+            long count;
+            try (TransactionExportWriter transactionExportWriter =
+                         new TransactionExportWriter(exportFormat, exportStream, objectMapper.getFactory())) {
+                count = cachedRepositoryServiceImpl.exportTransactions(id, exportFetchSize, transactionInfo -> {
+                    try {
+                        transactionExportWriter.write(transactionInfo);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            if (exportStream instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) exportStream).finish();
+            }
+            log.info("Successfully exported {} transactions for account_id={} as {}, gzip={}.",
+                    count, accountId, exportFormat.getValue(), gzip);
+        });
+        return new ResponseEntity<>(export, httpHeaders, HttpStatus.OK);
+    }
+
+
+    public ResponseEntity<AccountDetailsPageResponse> v1AccountsGet(
+            Integer pageSize, String cursor, String accountStatus, String currency, String ifNoneMatch) {
+        if (pageSize == null || pageSize < 1 || pageSize > MAX_ACCOUNTS_PAGE_SIZE) {
+            log.error("Invalid accounts page size. pageSize={}", pageSize);
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Invalid page size, it should be from 1 to " + MAX_ACCOUNTS_PAGE_SIZE + ".");
+        }
+        Long afterAccountId = cursor == null ? null : decodeAccountsCursor(cursor);
+        validateEnumValue(accountStatus, AccountDetailsResponseData.AccountStatusEnum::fromValue, "account status");
+        validateEnumValue(currency, AccountDetailsResponseData.CurrencyEnum::fromValue, "currency");
+
+        /* Tagged before the read, a write committed while reading changes the tag of the next poll. Unchanged
+         * accounts are answered without a query or serialization. */
+        String ledgerTag = accountResponseCache.ledgerTag();
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setETag(ledgerTag);
+        if (matchesTag(ifNoneMatch, ledgerTag)) {
+            log.info("Account details not modified since etag={}", ledgerTag);
+            return new ResponseEntity<>(httpHeaders, HttpStatus.NOT_MODIFIED);
+        }
+
+        /* One account more than the page is fetched, to know if there is a next page. */
+        List<AccountInfo> accountInfoList = cachedRepositoryServiceImpl.fetchAccountInfoPage(
+                afterAccountId, accountStatus, currency, pageSize + 1);
+        AccountDetailsPageResponse accountDetailsPageResponse = new AccountDetailsPageResponse();
+        accountInfoList.stream()
+                .limit(pageSize)
+                .map(RequestResponseMapper.ACCOUNT_INFO_TO_ACCOUNT_DETAILS_RESPONSE)
+                .forEach(accountDetailsPageResponse::addAccountsItem);
+        if (accountInfoList.size() > pageSize) {
+            accountDetailsPageResponse.nextCursor(encodeAccountsCursor(accountInfoList.get(pageSize - 1).getAccountId()));
+        }
+        log.info("Successfully retrieved account details page with {} no of records.",
+                accountDetailsPageResponse.getAccounts().size());
+        return new ResponseEntity<>(accountDetailsPageResponse, httpHeaders, HttpStatus.OK);
+    }
+
+    /* The cursor is the last account_id of the previous page, kept opaque to the clients. */
+    private static String encodeAccountsCursor(Long accountId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(accountId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Long decodeAccountsCursor(String cursor) {
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new CustomBusinessException(HttpStatus.BAD_REQUEST, "Invalid accounts cursor.", e);
+        }
+    }
+
+    private static void validateEnumValue(String value, Function<String, ?> fromValue, String name) {
+        try {
+            if (value != null) {
+                fromValue.apply(value);
+            }
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid {}. value={}", name, value);
+            throw new CustomBusinessException(HttpStatus.BAD_REQUEST, "Invalid " + name + ".", e);
+        }
+    }
+
+    /* If-None-Match is a list of tags or *, compared weakly as per RFC 7232. */
+    private static boolean matchesTag(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(candidate -> candidate.startsWith("W/") ? candidate.substring(2) : candidate)
+                .anyMatch(candidate -> candidate.equals("*") || candidate.equals(tag));
+    }
+
+    /* Accept-Encoding is a list of codings weighted by q from 0 to 1 as per RFC 7231, 0 meaning not acceptable.
+     * gzip is accepted by its own weight, else by the weight of *, and the identity otherwise. */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipWeight = null;
+        Double anyWeight = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim();
+            double weight = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String[] parameter = parameters[i].split("=", 2);
+                if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("q")) {
+                    weight = parseWeight(parameter[1].trim());
+                }
+            }
+            if (coding.equalsIgnoreCase("gzip")) {
+                gzipWeight = weight;
+            } else if (coding.equals("*")) {
+                anyWeight = weight;
+            }
+        }
+        return gzipWeight != null ? gzipWeight > 0 : anyWeight != null && anyWeight > 0;
+    }
+
+    /* An invalid weight makes its coding not acceptable rather than failing the export. */
+    private static double parseWeight(String weight) {
+        try {
+            double value = Double.parseDouble(weight);
+            return value >= 0 && value <= 1 ? value : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 
 
-    @Transactional
     public ResponseEntity<PaymentTransferResponse> v1PaymentsTransferPost(
             String idempotencyKey, PaymentTransferRequest paymentTransferRequest) {
-        /* Ensuring Idempotency of the request. */
-        cachedRepositoryServiceImpl.insertIdempotencyKey(idempotencyKey);
+        /* Ensuring Idempotency of the request, a retry of a completed request gets the original response replayed. */
+        try {
+            cachedRepositoryServiceImpl.insertIdempotencyKey(idempotencyKey);
+        } catch (CustomBusinessException e) {
+            if (!HttpStatus.CONFLICT.equals(e.getHttpStatus())) {
+                throw e;
+            }
+            String storedResponse = cachedRepositoryServiceImpl.fetchIdempotentResponses(
+                    Collections.singleton(idempotencyKey)).get(idempotencyKey);
+            if (storedResponse == null) {
+                throw e;
+            }
+            log.info("Replaying the stored response of idempotencyKey={}", idempotencyKey);
+            return new ResponseEntity<>(readResponse(storedResponse), HttpStatus.ACCEPTED);
+        }
+
+        /* Validate and make the transaction, holding the locks of sender and receiver accounts.
+         * In asynchronous mode, the transfer is validated without locks and queued, its response is stored once applied.
+         * The key is released if the transaction fails, so that the request can be retried with the same key. */
+        PaymentTransferResponse paymentTransferResponse;
+        try {
+            if (asyncTransferQueue.isEnabled()) {
+                transferEngine.validate(paymentTransferRequest);
+                return new ResponseEntity<>(
+                        asyncTransferQueue.submit(idempotencyKey, paymentTransferRequest), HttpStatus.ACCEPTED);
+            }
+            paymentTransferResponse = RequestResponseMapper.TRANSACTION_INFO_TO_PAYMENT_TRANSFER_RESPONSE.apply(
+                    transferEngine.transfer(paymentTransferRequest));
+        } catch (TransferOutcomeUnknownException e) {
+            /* The transfer may still be applied, a retry with the key gets a conflict rather than a second transfer. */
+            throw e;
+        } catch (RuntimeException e) {
+            cachedRepositoryServiceImpl.deleteIdempotencyKey(idempotencyKey);
+            throw e;
+        }
+        saveResponses(Collections.singletonMap(idempotencyKey, paymentTransferResponse));
+
+        return new ResponseEntity<>(paymentTransferResponse, HttpStatus.ACCEPTED);
+    }
+
+
+    public ResponseEntity<PaymentTransferStatusResponse> v1PaymentsTransferIdGet(String transferId) {
+        PaymentTransferStatusResponse paymentTransferStatusResponse = asyncTransferQueue.fetchStatus(transferId)
+                .orElseThrow(() -> {
+                    log.error("Transfer not found. transferId={}", transferId);
+                    return new CustomBusinessException(
+                            HttpStatus.NOT_FOUND,
+                            "Transfer not found.");
+                });
+        log.info("Successfully retrieved transfer status={} for transferId={}",
+                paymentTransferStatusResponse.getStatus(), transferId);
+        return new ResponseEntity<>(paymentTransferStatusResponse, HttpStatus.OK);
+    }
+
+
+    public ResponseEntity<PaymentTransferBatchResponse> v1PaymentsTransferBatchPost(
+            PaymentTransferBatchRequest paymentTransferBatchRequest) {
+        long startTime = System.nanoTime();
+        List<PaymentTransferBatchItem> transfers = paymentTransferBatchRequest.getTransfers();
+        PaymentTransferBatchResult[] results = new PaymentTransferBatchResult[transfers.size()];
 
-        /* Validate sender and receiver account_id and balance info */
-        validateAccountAndBalanceInfo(paymentTransferRequest);
+        /* Ensuring Idempotency of each request, keys repeated within the batch or still in progress are rejected,
+         * and completed requests get their original responses replayed. */
+        Set<String> existingIdempotencyKeys = cachedRepositoryServiceImpl.fetchExistingIdempotencyKeys(
+                transfers.stream().map(PaymentTransferBatchItem::getIdempotencyKey).collect(Collectors.toSet()));
+        Map<String, String> storedResponses = existingIdempotencyKeys.isEmpty()
+                ? Collections.emptyMap()
+                : cachedRepositoryServiceImpl.fetchIdempotentResponses(existingIdempotencyKeys);
+        Set<String> batchIdempotencyKeys = new HashSet<>();
+        List<Integer> positions = new ArrayList<>();
+        List<String> idempotencyKeys = new ArrayList<>();
+        List<PaymentTransferRequest> paymentTransferRequests = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            String idempotencyKey = transfers.get(i).getIdempotencyKey();
+            if (!batchIdempotencyKeys.add(idempotencyKey)) {
+                log.error("Idempotency key already exists. idempotencyKey={}", idempotencyKey);
+                results[i] = new PaymentTransferBatchResult()
+                        .idempotencyKey(idempotencyKey)
+                        .code(HttpStatus.BAD_REQUEST.value())
+                        .error(new ErrorResponse()
+                                .code(HttpStatus.BAD_REQUEST.value())
+                                .message("Duplicate Idempotency-Key, please try again with a new key."));
+            } else if (storedResponses.containsKey(idempotencyKey)) {
+                log.info("Replaying the stored response of idempotencyKey={}", idempotencyKey);
+                results[i] = new PaymentTransferBatchResult()
+                        .idempotencyKey(idempotencyKey)
+                        .code(HttpStatus.ACCEPTED.value())
+                        .paymentTransferResponse(readResponse(storedResponses.get(idempotencyKey)));
+            } else if (existingIdempotencyKeys.contains(idempotencyKey)) {
+                log.error("Idempotency key already in progress. idempotencyKey={}", idempotencyKey);
+                results[i] = new PaymentTransferBatchResult()
+                        .idempotencyKey(idempotencyKey)
+                        .code(HttpStatus.CONFLICT.value())
+                        .error(new ErrorResponse()
+                                .code(HttpStatus.CONFLICT.value())
+                                .message("Request with the same Idempotency-Key is in progress, please retry later."));
+            } else {
+                positions.add(i);
+                idempotencyKeys.add(idempotencyKey);
+                paymentTransferRequests.add(transfers.get(i).getPaymentTransferRequest());
+            }
+        }
 
-        /* Make transaction */
-        TransactionInfo transactionInfo = doTransaction(paymentTransferRequest);
+        /* Validate and make the transactions, holding the locks of all the accounts in the batch. */
+        List<TransferOutcome> transferOutcomes = paymentTransferRequests.isEmpty()
+                ? Collections.emptyList()
+                : transferEngine.transferBatch(idempotencyKeys, paymentTransferRequests);
+        Map<String, PaymentTransferResponse> completedResponses = new HashMap<>();
+        for (int i = 0; i < transferOutcomes.size(); i++) {
+            TransferOutcome transferOutcome = transferOutcomes.get(i);
+            PaymentTransferBatchResult result = new PaymentTransferBatchResult()
+                    .idempotencyKey(idempotencyKeys.get(i))
+                    .code(transferOutcome.getHttpStatus().value());
+            if (transferOutcome.isCompleted()) {
+                result.paymentTransferResponse(RequestResponseMapper.TRANSACTION_INFO_TO_PAYMENT_TRANSFER_RESPONSE
+                        .apply(transferOutcome.getTransactionInfo()));
+                completedResponses.put(idempotencyKeys.get(i), result.getPaymentTransferResponse());
+            } else {
+                result.error(new ErrorResponse()
+                        .code(transferOutcome.getHttpStatus().value())
+                        .message(transferOutcome.getMessage()));
+            }
+            results[positions.get(i)] = result;
+        }
+        if (!completedResponses.isEmpty()) {
+            saveResponses(completedResponses);
+        }
 
+        long elapsedMicros = Math.max(1, (System.nanoTime() - startTime) / 1000);
+        log.info("Successfully processed batch of {} transfers with {} completed in {}ms, throughput={} transfers/sec.",
+                transfers.size(),
+                transferOutcomes.stream().filter(TransferOutcome::isCompleted).count(),
+                elapsedMicros / 1000,
+                transfers.size() * 1_000_000L / elapsedMicros);
         return new ResponseEntity<>(
-                RequestResponseMapper.TRANSACTION_INFO_TO_PAYMENT_TRANSFER_RESPONSE.apply(transactionInfo),
-                HttpStatus.ACCEPTED);
-    }
-
-    private TransactionInfo doTransaction(PaymentTransferRequest paymentTransferRequest) {
-        /* Create and persist transaction details.*/
-        TransactionInfo transactionInfo = new TransactionInfo();
-        transactionInfo.setSenderAccountId(paymentTransferRequest.getSenderAccountId());
-        transactionInfo.setReceiverAccountId(paymentTransferRequest.getReceiverAccountId());
-        transactionInfo.setAmount(new BigDecimal(paymentTransferRequest.getAmount()));
-        transactionInfo.setCurrency(paymentTransferRequest.getCurrency().getValue());
-        transactionInfo.setReferenceId(MDC.get("requestID"));
-        transactionInfo.setTransactionDate(LocalDateTime.now());
-        cachedRepositoryServiceImpl.saveTransactionDetails(transactionInfo);
-
-        /* Updating balance details for sender and receiver.*/
-        cachedRepositoryServiceImpl.updateBalanceInfo(
-                paymentTransferRequest.getSenderAccountId(),
-                new BigDecimal(paymentTransferRequest.getAmount()).negate());
-        cachedRepositoryServiceImpl.updateBalanceInfo(
-                paymentTransferRequest.getReceiverAccountId(),
-                new BigDecimal(paymentTransferRequest.getAmount()));
-
-        return transactionInfo;
-    }
-
-    private void validateAccountAndBalanceInfo(PaymentTransferRequest paymentTransferRequest) {
-        /* Sender related validations.*/
-        cachedRepositoryServiceImpl.fetchAccountInfo(paymentTransferRequest.getSenderAccountId()).ifPresentOrElse(
-                (accountInfo) -> {
-                    log.info("Fetched Sender account details from persistence.");
-                    /* Checking if account is operational or not*/
-                    if (accountInfo.getAccountStatus().equals("DELETED")) {
-                        log.error("Sender's account is in Deleted status, not able to perform the transaction.");
-                        throw new CustomBusinessException(
-                                HttpStatus.BAD_REQUEST,
-                                "Sender's account is in Deleted status, not able to perform the transaction.");
-                    }
-                    /* Checking if sufficient balance or not.*/
-                    if (accountInfo.getBalance().doubleValue() < new BigDecimal(paymentTransferRequest.getAmount()).doubleValue()) {
-                        log.error("Not enough balance for transaction. availableBalance={}, requiredAmout={}",
-                                accountInfo.getBalance(),
-                                paymentTransferRequest.getAmount());
-                        throw new CustomBusinessException(
-                                HttpStatus.BAD_REQUEST,
-                                "Insufficient funds, not able to perform the transaction.");
-                    }
-                    /* Check if currency is supported or not*/
-                    if (!accountInfo.getCurrency().equals(paymentTransferRequest.getCurrency().getValue())) {
-                        log.error("Sender's currency not matching the transaction currency. senderCurrency={}, transactionCurrency={}",
-                                accountInfo.getCurrency(), paymentTransferRequest.getCurrency().getValue());
-                        throw new CustomBusinessException(
-                                HttpStatus.BAD_REQUEST,
-                                "Sender's currency not supported.");
-                    }
-                },
-                () -> {
-                    log.error("Requested sender account_id={}, not found in the system.",
-                            paymentTransferRequest.getSenderAccountId());
-                    throw new CustomBusinessException(
-                            HttpStatus.BAD_REQUEST,
-                            "Sender's account_id not found.");
-                }
-        );
+                new PaymentTransferBatchResponse().results(Arrays.asList(results)),
+                HttpStatus.OK);
+    }
 
-        /* Receiver related validations. */
-        cachedRepositoryServiceImpl.fetchAccountInfo(paymentTransferRequest.getReceiverAccountId()).ifPresentOrElse(
-                (accountInfo) -> {
-                    log.info("Fetched Receiver account details from persistence.");
-                    /* Checking if account is operational or not*/
-                    if (accountInfo.getAccountStatus().equals("DELETED")) {
-                        log.error("Receiver's account is in Deleted status, not able to perform the transaction.");
-                        throw new CustomBusinessException(
-                                HttpStatus.BAD_REQUEST,
-                                "Receiver's account is in Deleted status, not able to perform the transaction.");
-                    }
-                    /* Check if currency is supported or not*/
-                    if (!accountInfo.getCurrency().equals(paymentTransferRequest.getCurrency().getValue())) {
-                        log.error("Receiver's currency not matching the transaction currency. receiverCurrency={}, transactionCurrency={}",
-                                accountInfo.getCurrency(), paymentTransferRequest.getCurrency().getValue());
-                        throw new CustomBusinessException(
-                                HttpStatus.BAD_REQUEST,
-                                "Receiver's currency not supported.");
-                    }
-                },
-                () -> {
-                    log.error("Requested receiver account_id={}, not found in the system.",
-                            paymentTransferRequest.getReceiverAccountId());
-                    throw new CustomBusinessException(
-                            HttpStatus.BAD_REQUEST,
-                            "Receiver's account_id not found.");
-                }
-        );
 
-        /* Check if sending between same accounts*/
-        if (paymentTransferRequest.getSenderAccountId().equals(paymentTransferRequest.getReceiverAccountId())) {
-            log.error("Sending between same account numbers not allowed.");
+    private void saveResponses(Map<String, PaymentTransferResponse> paymentTransferResponses) {
+        /* The transfers are already done, so a failure here is not reported, retries get a conflict until the keys expire. */
+        try {
+            Map<String, String> responses = new HashMap<>();
+            for (Map.Entry<String, PaymentTransferResponse> entry : paymentTransferResponses.entrySet()) {
+                responses.put(entry.getKey(), objectMapper.writeValueAsString(entry.getValue()));
+            }
+            cachedRepositoryServiceImpl.saveIdempotentResponses(responses);
+        } catch (JsonProcessingException | CustomBusinessException e) {
+            log.error("Unable to store the responses of idempotencyKeys={}, error={}",
+                    paymentTransferResponses.keySet(), e.getMessage());
+        }
+    }
+
+    private PaymentTransferResponse readResponse(String storedResponse) {
+        try {
+            return objectMapper.readValue(storedResponse, PaymentTransferResponse.class);
+        } catch (JsonProcessingException e) {
+            log.error("Unable to read the stored response, error={}", e.getMessage());
             throw new CustomBusinessException(
-                    HttpStatus.BAD_REQUEST,
-                    "Sending between same account numbers not permitted.");
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Unable to replay the response of the Idempotency-Key.",
+                    e);
         }
     }
 }
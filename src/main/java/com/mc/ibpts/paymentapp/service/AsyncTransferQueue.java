@@ -0,0 +1,220 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mc.ibpts.paymentapp.common.gen.model.ErrorResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferStatusResponse;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.utils.RequestResponseMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers submitted in asynchronous mode, partitioned by sender account_id across a fixed set of ledger shards,
+ * each applying its transfers in batches on its own thread. A transfer is acknowledged with its transfer id once
+ * queued, and its status is kept until the idempotency key retention is over. Completed transfers get their response
+ * stored against their idempotency key, rejected transfers get their key released, as the synchronous transfers do.
+ */
+@Slf4j
+@Component
+public class AsyncTransferQueue {
+
+    private final RepositoryService cachedRepositoryServiceImpl;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, PaymentTransferStatusResponse> transferStatuses;
+    private final boolean enabled;
+    private final LedgerShard[] shards;
+    private final List<Thread> shardThreads = new ArrayList<>();
+
+    public AsyncTransferQueue(
+            TransferEngine transferEngine,
+            RepositoryService cachedRepositoryServiceImpl,
+            ObjectMapper objectMapper,
+            CacheManager cacheManager,
+            @Value("${payment.transfer.async.enabled:false}") boolean enabled,
+            @Value("${payment.transfer.async.shards:4}") int shardCount,
+            @Value("${payment.transfer.async.queue.capacity:4096}") int capacity,
+            @Value("${payment.transfer.async.batch.size:100}") int batchSize,
+            @Value("${payment.transfer.async.shard.balances.entries:10000}") int balanceEntries) {
+        this.cachedRepositoryServiceImpl = cachedRepositoryServiceImpl;
+        this.objectMapper = objectMapper;
+        this.transferStatuses = cacheManager.getCache(
+                "transferStatuses", String.class, PaymentTransferStatusResponse.class);
+        this.enabled = enabled;
+        this.shards = new LedgerShard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new LedgerShard(i, capacity, batchSize, balanceEntries, transferEngine, this::shardOf, this::complete);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            Thread thread = new Thread(shards[i], "ledger-shard-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            shardThreads.add(thread);
+        }
+        log.info("Started asynchronous transfers with shards={}", shards.length);
+    }
+
+    /* Shards finish the transfers already queued before stopping. */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (LedgerShard shard : shards) {
+            shard.stop();
+        }
+        for (Thread thread : shardThreads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            if (thread.isAlive()) {
+                log.error("Asynchronous transfers of {} not finished on shutdown.", thread.getName());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a transfer whose idempotency key is already inserted, and returns the response to acknowledge it with.
+     * The transfer is rejected with 503 when the queue is full.
+     */
+    public PaymentTransferResponse submit(String idempotencyKey, PaymentTransferRequest paymentTransferRequest) {
+        String transferId = UUID.randomUUID().toString();
+        PaymentTransferResponse paymentTransferResponse = new PaymentTransferResponse()
+                .status("Transfer accepted for processing")
+                .senderAccountId(paymentTransferRequest.getSenderAccountId())
+                .receiverAccountId(paymentTransferRequest.getReceiverAccountId())
+                .amount(Money.parse(paymentTransferRequest.getAmount(), paymentTransferRequest.getCurrency().getValue())
+                        .format())
+                .transferId(transferId);
+        transferStatuses.put(transferId, new PaymentTransferStatusResponse()
+                .transferId(transferId)
+                .status(PaymentTransferStatusResponse.StatusEnum.PENDING)
+                .paymentTransferResponse(paymentTransferResponse));
+
+        LedgerShard shard = shardOf(paymentTransferRequest.getSenderAccountId());
+        if (!shard.offer(new QueuedTransfer(transferId, idempotencyKey, MDC.get("requestID"), paymentTransferRequest))) {
+            transferStatuses.remove(transferId);
+            log.error("Transfer queue is full, transfer rejected. idempotencyKey={}", idempotencyKey);
+            throw new CustomBusinessException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    "Transfer queue is full, please retry later.");
+        }
+        log.info("Transfer queued, transferId={}, shardSize={}", transferId, shard.size());
+        return paymentTransferResponse;
+    }
+
+    public Optional<PaymentTransferStatusResponse> fetchStatus(String transferId) {
+        return Optional.ofNullable(transferStatuses.get(transferId));
+    }
+
+    /* Spreading sequential account_ids across the shards, an account always belongs to the same shard. */
+    LedgerShard shardOf(Long accountId) {
+        long hash = accountId * 0x9E3779B97F4A7C15L;
+        return shards[Math.floorMod((int) (hash ^ (hash >>> 32)), shards.length)];
+    }
+
+    /* Called by the shards with the outcome of each transfer of a batch, in the same order. */
+    void complete(List<QueuedTransfer> batch, List<TransferOutcome> transferOutcomes) {
+        Map<String, String> completedResponses = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            QueuedTransfer queuedTransfer = batch.get(i);
+            TransferOutcome transferOutcome = transferOutcomes.get(i);
+            PaymentTransferStatusResponse paymentTransferStatusResponse = new PaymentTransferStatusResponse()
+                    .transferId(queuedTransfer.transferId);
+            if (transferOutcome.isCompleted()) {
+                PaymentTransferResponse paymentTransferResponse = RequestResponseMapper
+                        .TRANSACTION_INFO_TO_PAYMENT_TRANSFER_RESPONSE.apply(transferOutcome.getTransactionInfo())
+                        .transferId(queuedTransfer.transferId);
+                paymentTransferStatusResponse
+                        .status(PaymentTransferStatusResponse.StatusEnum.COMPLETED)
+                        .paymentTransferResponse(paymentTransferResponse);
+                writeResponse(paymentTransferResponse).ifPresent(
+                        response -> completedResponses.put(queuedTransfer.idempotencyKey, response));
+            } else if (transferOutcome.isUnknown()) {
+                /* It may still be applied, left pending with its idempotency key held. */
+                paymentTransferStatusResponse
+                        .status(PaymentTransferStatusResponse.StatusEnum.PENDING)
+                        .error(new ErrorResponse()
+                                .code(transferOutcome.getHttpStatus().value())
+                                .message(transferOutcome.getMessage()));
+            } else {
+                paymentTransferStatusResponse
+                        .status(PaymentTransferStatusResponse.StatusEnum.REJECTED)
+                        .error(new ErrorResponse()
+                                .code(transferOutcome.getHttpStatus().value())
+                                .message(transferOutcome.getMessage()));
+                releaseIdempotencyKey(queuedTransfer.idempotencyKey);
+            }
+            transferStatuses.put(queuedTransfer.transferId, paymentTransferStatusResponse);
+        }
+        if (!completedResponses.isEmpty()) {
+            saveResponses(completedResponses);
+        }
+        log.info("Applied batch of {} queued transfers with {} completed.", batch.size(), completedResponses.size());
+    }
+
+    private Optional<String> writeResponse(PaymentTransferResponse paymentTransferResponse) {
+        try {
+            return Optional.of(objectMapper.writeValueAsString(paymentTransferResponse));
+        } catch (JsonProcessingException e) {
+            log.error("Unable to write the response of transferId={}, error={}",
+                    paymentTransferResponse.getTransferId(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /* The transfers are already done, so a failure here is only logged, retries get a conflict until the keys expire. */
+    private void saveResponses(Map<String, String> responses) {
+        try {
+            cachedRepositoryServiceImpl.saveIdempotentResponses(responses);
+        } catch (CustomBusinessException e) {
+            log.error("Unable to store the responses of idempotencyKeys={}, error={}", responses.keySet(), e.getMessage());
+        }
+    }
+
+    private void releaseIdempotencyKey(String idempotencyKey) {
+        try {
+            cachedRepositoryServiceImpl.deleteIdempotencyKey(idempotencyKey);
+        } catch (CustomBusinessException e) {
+            log.error("Unable to release idempotencyKey={}, error={}", idempotencyKey, e.getMessage());
+        }
+    }
+
+    @Getter
+    static class QueuedTransfer {
+        private final String transferId;
+        private final String idempotencyKey;
+        private final String referenceId;
+        private final PaymentTransferRequest paymentTransferRequest;
+
+        QueuedTransfer(String transferId, String idempotencyKey, String referenceId,
+                       PaymentTransferRequest paymentTransferRequest) {
+            this.transferId = transferId;
+            this.idempotencyKey = idempotencyKey;
+            this.referenceId = referenceId;
+            this.paymentTransferRequest = paymentTransferRequest;
+        }
+    }
+}
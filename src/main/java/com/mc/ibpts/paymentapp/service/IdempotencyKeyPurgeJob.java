@@ -0,0 +1,44 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.repository.utils.IdempotencyKeyFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Purges the idempotency keys older than the retention period in background, so that the table does not grow forever.
+ */
+@Slf4j
+@Component
+public class IdempotencyKeyPurgeJob {
+
+    private final RepositoryService cachedRepositoryServiceImpl;
+    private final IdempotencyKeyFilter idempotencyKeyFilter;
+    private final long retentionMinutes;
+
+    public IdempotencyKeyPurgeJob(
+            RepositoryService cachedRepositoryServiceImpl,
+            IdempotencyKeyFilter idempotencyKeyFilter,
+            @Value("${payment.idempotency.retention.minutes:1440}") long retentionMinutes) {
+        this.cachedRepositoryServiceImpl = cachedRepositoryServiceImpl;
+        this.idempotencyKeyFilter = idempotencyKeyFilter;
+        this.retentionMinutes = retentionMinutes;
+    }
+
+    @Scheduled(fixedDelayString = "${payment.idempotency.purge.interval.ms:60000}")
+    public void purgeExpiredIdempotencyKeys() {
+        try {
+            int purgedKeys = cachedRepositoryServiceImpl.purgeIdempotencyKeys(
+                    LocalDateTime.now().minusMinutes(retentionMinutes));
+            log.info("Purged {} idempotency keys older than {} minutes. Idempotency key filter expectedFpp={}, observedFpp={}",
+                    purgedKeys, retentionMinutes,
+                    idempotencyKeyFilter.expectedFpp(), idempotencyKeyFilter.falsePositiveRate());
+        } catch (Exception e) {
+            log.error("Purging of expired idempotency keys failed, error={}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.exception.TransferOutcomeUnknownException;
+import com.mc.ibpts.paymentapp.utils.RingBuffer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Single writer of the debits of the accounts it owns. Transfers are partitioned by sender account_id, and the shard
+ * keeps the balances of its senders in memory, so that the balance check is a local read. The balances are only
+ * a fast path, the debits and credits committed are still guarded in database, and a balance found short is
+ * reloaded before the transfer is rejected.
+ * A transfer between accounts of two shards takes two steps: the shard of the sender debits and commits the whole
+ * transfer, then bumps the credit stamp of the receiver in the shard of the receiver, which reloads the balance of an
+ * account whose stamp moved since it was loaded. The balances kept are bounded, the least recently used evicted.
+ */
+@Slf4j
+class LedgerShard implements Runnable {
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int CREDIT_STAMP_STRIPES = 4096;
+
+    private final int index;
+    private final RingBuffer<AsyncTransferQueue.QueuedTransfer> ringBuffer;
+    private final int batchSize;
+    private final TransferEngine transferEngine;
+    private final Function<Long, LedgerShard> shardOfAccount;
+    private final BiConsumer<List<AsyncTransferQueue.QueuedTransfer>, List<TransferOutcome>> outcomeConsumer;
+    /* Confined to the shard thread, in access order. */
+    private final Map<Long, Balance> balances;
+    /* Bumped by the other shards on each credit committed to an account of this shard, a stripe shared by several
+     * accounts only reloads them more often. */
+    private final AtomicLongArray creditStamps = new AtomicLongArray(CREDIT_STAMP_STRIPES);
+    private volatile boolean running = true;
+
+    LedgerShard(int index, int capacity, int batchSize, int balanceEntries,
+                TransferEngine transferEngine,
+                Function<Long, LedgerShard> shardOfAccount,
+                BiConsumer<List<AsyncTransferQueue.QueuedTransfer>, List<TransferOutcome>> outcomeConsumer) {
+        this.index = index;
+        this.ringBuffer = new RingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.transferEngine = transferEngine;
+        this.shardOfAccount = shardOfAccount;
+        this.outcomeConsumer = outcomeConsumer;
+        this.balances = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Balance> eldest) {
+                return size() > balanceEntries;
+            }
+        };
+    }
+
+    boolean offer(AsyncTransferQueue.QueuedTransfer queuedTransfer) {
+        return ringBuffer.offer(queuedTransfer);
+    }
+
+    /* Called once the credit is committed and the account cached again, so that a balance loaded after the stamp
+     * was read includes it. */
+    private void creditCommitted(Long accountId) {
+        creditStamps.incrementAndGet(creditStampStripe(accountId));
+    }
+
+    private static int creditStampStripe(Long accountId) {
+        return (int) (accountId & (CREDIT_STAMP_STRIPES - 1));
+    }
+
+    int size() {
+        return ringBuffer.size();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        List<AsyncTransferQueue.QueuedTransfer> queuedTransfers = new ArrayList<>(batchSize);
+        long idleNanos = 0;
+        while (running || !ringBuffer.isEmpty()) {
+            if (ringBuffer.drainTo(queuedTransfers::add, batchSize) == 0) {
+                /* Backing off while idle, producers never wake the shard up so that publishing stays lock-free. */
+                idleNanos = Math.min(MAX_IDLE_NANOS, Math.max(1000, idleNanos * 2));
+                LockSupport.parkNanos(idleNanos);
+                continue;
+            }
+            idleNanos = 0;
+            try {
+                handle(queuedTransfers);
+            } finally {
+                queuedTransfers.clear();
+            }
+        }
+    }
+
+    /* Every queued transfer gets an outcome, a failure of the shard itself fails them all, so that none is left
+     * pending with its idempotency key held. */
+    void handle(List<AsyncTransferQueue.QueuedTransfer> queuedTransfers) {
+        List<TransferOutcome> transferOutcomes;
+        try {
+            transferOutcomes = process(queuedTransfers);
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure of ledger shard {}, failing its batch of {} transfers.",
+                    index, queuedTransfers.size(), e);
+            /* The balances in memory may be partly updated, reloaded on next use. */
+            balances.clear();
+            transferOutcomes = Collections.nCopies(queuedTransfers.size(),
+                    TransferOutcome.rejected(HttpStatus.INTERNAL_SERVER_ERROR, "Transfer failed, please try again."));
+        }
+        if (queuedTransfers.isEmpty()) {
+            return;
+        }
+        try {
+            outcomeConsumer.accept(queuedTransfers, transferOutcomes);
+        } catch (RuntimeException e) {
+            log.error("Outcomes of a batch of {} transfers of ledger shard {} not reported.",
+                    queuedTransfers.size(), index, e);
+        }
+    }
+
+    /* Returns the outcome of each queued transfer, in the same order. */
+    List<TransferOutcome> process(List<AsyncTransferQueue.QueuedTransfer> queuedTransfers) {
+        List<TransferOutcome> transferOutcomes = new ArrayList<>(queuedTransfers.size());
+        List<TransactionInfo> transactions = new ArrayList<>(queuedTransfers.size());
+        List<Integer> positions = new ArrayList<>(queuedTransfers.size());
+        for (AsyncTransferQueue.QueuedTransfer queuedTransfer : queuedTransfers) {
+            transferOutcomes.add(null);
+            try {
+                Money amount = TransferEngine.parseAmount(queuedTransfer.getPaymentTransferRequest());
+                Long senderAccountId = queuedTransfer.getPaymentTransferRequest().getSenderAccountId();
+                try {
+                    transferEngine.validateAccountAndBalanceInfo(
+                            queuedTransfer.getPaymentTransferRequest(), amount, this::fetchAccountInfo);
+                } catch (CustomBusinessException e) {
+                    /* The balance may be short of a credit still on its way, validated again on the latest balance. */
+                    if (balances.remove(senderAccountId) == null) {
+                        throw e;
+                    }
+                    transferEngine.validateAccountAndBalanceInfo(
+                            queuedTransfer.getPaymentTransferRequest(), amount, this::fetchAccountInfo);
+                }
+                Balance senderBalance = balances.get(senderAccountId);
+                if (senderBalance != null) {
+                    senderBalance.amount = senderBalance.amount.subtract(amount);
+                }
+                transactions.add(transferEngine.createTransactionInfo(
+                        queuedTransfer.getPaymentTransferRequest(), amount, queuedTransfer.getReferenceId()));
+                positions.add(transferOutcomes.size() - 1);
+            } catch (CustomBusinessException e) {
+                transferOutcomes.set(transferOutcomes.size() - 1, TransferOutcome.rejected(e.getHttpStatus(), e.getMessage()));
+            }
+        }
+
+        if (!transactions.isEmpty()) {
+            List<TransferOutcome> committedOutcomes = commit(transactions);
+            for (int i = 0; i < transactions.size(); i++) {
+                TransactionInfo transactionInfo = transactions.get(i);
+                TransferOutcome transferOutcome = committedOutcomes.get(i);
+                transferOutcomes.set(positions.get(i), transferOutcome);
+                if (transferOutcome.isCompleted()) {
+                    LedgerShard receiverShard = shardOfAccount.apply(transactionInfo.getReceiverAccountId());
+                    if (receiverShard != this) {
+                        receiverShard.creditCommitted(transactionInfo.getReceiverAccountId());
+                    } else {
+                        Balance receiverBalance = balances.get(transactionInfo.getReceiverAccountId());
+                        if (receiverBalance != null) {
+                            receiverBalance.amount = receiverBalance.amount.add(transactionInfo.getAmount());
+                        }
+                    }
+                } else {
+                    /* Debited in memory but not in database, reloaded on its next transfer. */
+                    balances.remove(transactionInfo.getSenderAccountId());
+                }
+            }
+        }
+        return transferOutcomes;
+    }
+
+    /* A failure of the batch itself, e.g. of the database, rejects all its transfers. */
+    private List<TransferOutcome> commit(List<TransactionInfo> transactions) {
+        try {
+            return transferEngine.commitBatch(transactions);
+        } catch (TransferOutcomeUnknownException e) {
+            return Collections.nCopies(transactions.size(), TransferOutcome.unknown(e.getHttpStatus(), e.getMessage()));
+        } catch (CustomBusinessException e) {
+            return Collections.nCopies(transactions.size(), TransferOutcome.rejected(e.getHttpStatus(), e.getMessage()));
+        } catch (RuntimeException e) {
+            log.error("Transfer batch of ledger shard {} failed.", index, e);
+            return Collections.nCopies(transactions.size(),
+                    TransferOutcome.rejected(HttpStatus.INTERNAL_SERVER_ERROR, "Transfer failed, please try again."));
+        }
+    }
+
+    /* Accounts owned by the shard are read with their balance in memory, loaded on first use and again once credited
+     * by another shard. The stamp is read before the account, so that a credit committed meanwhile leaves the stamp
+     * moved and the balance reloaded on next use. */
+    private Optional<AccountInfo> fetchAccountInfo(Long accountId) {
+        if (shardOfAccount.apply(accountId) != this) {
+            return transferEngine.fetchAccountInfo(accountId).map(TransferEngine::copyOf);
+        }
+        long creditStamp = creditStamps.get(creditStampStripe(accountId));
+        Optional<AccountInfo> accountInfo = transferEngine.fetchAccountInfo(accountId).map(TransferEngine::copyOf);
+        accountInfo.ifPresent(account -> {
+            Balance balance = balances.get(accountId);
+            if (balance == null || balance.creditStamp != creditStamp) {
+                balance = new Balance(account.getBalance(), creditStamp);
+                balances.put(accountId, balance);
+            }
+            account.setBalance(balance.amount);
+        });
+        return accountInfo;
+    }
+
+    private static class Balance {
+        private Money amount;
+        private final long creditStamp;
+
+        Balance(Money amount, long creditStamp) {
+            this.amount = amount;
+            this.creditStamp = creditStamp;
+        }
+    }
+}
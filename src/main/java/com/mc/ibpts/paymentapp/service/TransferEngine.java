@@ -0,0 +1,323 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Applies payment transfers while holding the locks of only the two accounts involved.
+ * The database transaction is committed before the locks are released, so the next transfer
+ * on the same account always validates against the committed balance.
+ * With the transfer journal enabled, transfers are journaled instead, and validated against the cached balances
+ * plus the amounts journaled but not yet applied to the database.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TransferEngine {
+
+    private final RepositoryService cachedRepositoryServiceImpl;
+    private final StripedAccountLocks stripedAccountLocks;
+    private final TransactionTemplate transactionTemplate;
+    private final TransferJournalApplier transferJournalApplier;
+
+    public TransactionInfo transfer(PaymentTransferRequest paymentTransferRequest) {
+        if (transferJournalApplier.isEnabled()) {
+            return journalTransfer(paymentTransferRequest);
+        }
+        return stripedAccountLocks.executeWithLocks(
+                paymentTransferRequest.getSenderAccountId(),
+                paymentTransferRequest.getReceiverAccountId(),
+                () -> transactionTemplate.execute(status -> {
+                    /* The amount is parsed once, then shared by the validations and the transaction. */
+                    Money amount = parseAmount(paymentTransferRequest);
+
+                    /* Validate sender and receiver account_id and balance info */
+                    validateAccountAndBalanceInfo(paymentTransferRequest, amount, this::fetchAccountInfo);
+
+                    /* Make transaction */
+                    return doTransaction(paymentTransferRequest, amount);
+                }));
+    }
+
+    /**
+     * Validates a transfer against the current accounts without taking any lock, so that a transfer bound to fail
+     * is rejected before being queued. The transfer is validated again when it is applied.
+     */
+    public void validate(PaymentTransferRequest paymentTransferRequest) {
+        validateAccountAndBalanceInfo(paymentTransferRequest, parseAmount(paymentTransferRequest),
+                this::fetchAccountInfo);
+    }
+
+    /**
+     * Validates and applies a batch of transfers holding the locks of every account in the batch.
+     * Balances are tracked on a working copy of the accounts while validating, and the accepted transfers
+     * are persisted together with their idempotency keys in a single database transaction.
+     * The outcome of each transfer is returned in the same order as the requests.
+     */
+    public List<TransferOutcome> transferBatch(
+            List<String> idempotencyKeys, List<PaymentTransferRequest> paymentTransferRequests) {
+        String referenceId = MDC.get("requestID");
+        Set<Long> accountIds = new HashSet<>();
+        paymentTransferRequests.forEach(paymentTransferRequest -> {
+            accountIds.add(paymentTransferRequest.getSenderAccountId());
+            accountIds.add(paymentTransferRequest.getReceiverAccountId());
+        });
+
+        return stripedAccountLocks.executeWithLocks(accountIds, () -> transactionTemplate.execute(status -> {
+            Map<Long, Optional<AccountInfo>> workingAccounts = new HashMap<>();
+            Function<Long, Optional<AccountInfo>> accountLookup = accountId -> workingAccounts.computeIfAbsent(
+                    accountId, id -> fetchAccountInfo(id).map(TransferEngine::copyOf));
+
+            List<TransferOutcome> transferOutcomes = new ArrayList<>(paymentTransferRequests.size());
+            List<String> acceptedIdempotencyKeys = new ArrayList<>();
+            List<TransactionInfo> acceptedTransactions = new ArrayList<>();
+            for (int i = 0; i < paymentTransferRequests.size(); i++) {
+                PaymentTransferRequest paymentTransferRequest = paymentTransferRequests.get(i);
+                try {
+                    Money amount = parseAmount(paymentTransferRequest);
+                    validateAccountAndBalanceInfo(paymentTransferRequest, amount, accountLookup);
+
+                    AccountInfo senderAccountInfo = accountLookup.apply(paymentTransferRequest.getSenderAccountId()).orElseThrow();
+                    AccountInfo receiverAccountInfo = accountLookup.apply(paymentTransferRequest.getReceiverAccountId()).orElseThrow();
+                    senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(amount));
+                    receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(amount));
+
+                    TransactionInfo transactionInfo = createTransactionInfo(paymentTransferRequest, amount, referenceId);
+                    acceptedIdempotencyKeys.add(idempotencyKeys.get(i));
+                    acceptedTransactions.add(transactionInfo);
+                    transferOutcomes.add(TransferOutcome.completed(transactionInfo));
+                } catch (CustomBusinessException e) {
+                    transferOutcomes.add(TransferOutcome.rejected(e.getHttpStatus(), e.getMessage()));
+                }
+            }
+
+            if (!acceptedTransactions.isEmpty()) {
+                cachedRepositoryServiceImpl.saveTransferBatch(acceptedIdempotencyKeys, acceptedTransactions);
+            }
+            return transferOutcomes;
+        }));
+    }
+
+    /**
+     * Persists a batch of transfers already validated by their ledger shard as guarded debits and credits,
+     * group committed in a single database transaction. The locks are still taken, as the batch endpoint relies
+     * on them for its unguarded balance updates, and are uncontended otherwise.
+     * With the transfer journal enabled, the same guards are checked in memory and the batch is journaled instead.
+     * The outcome of each transfer is returned in the same order as the transactions.
+     */
+    public List<TransferOutcome> commitBatch(List<TransactionInfo> transactionInfoList) {
+        Set<Long> accountIds = new HashSet<>();
+        transactionInfoList.forEach(transactionInfo -> {
+            accountIds.add(transactionInfo.getSenderAccountId());
+            accountIds.add(transactionInfo.getReceiverAccountId());
+        });
+        if (transferJournalApplier.isEnabled()) {
+            List<TransferOutcome> transferOutcomes = stripedAccountLocks.executeWithLocks(
+                    accountIds, () -> journalBatch(transactionInfoList));
+            transferJournalApplier.awaitDurable();
+            return transferOutcomes;
+        }
+        return stripedAccountLocks.executeWithLocks(accountIds, () -> transactionTemplate.execute(
+                status -> cachedRepositoryServiceImpl.transferFundsBatch(transactionInfoList)));
+    }
+
+    /* The transfer is acknowledged once journaled, the locks being released before waiting for the journal force,
+     * so that the following transfers on the same accounts are committed by the same force. */
+    private TransactionInfo journalTransfer(PaymentTransferRequest paymentTransferRequest) {
+        TransactionInfo transactionInfo = stripedAccountLocks.executeWithLocks(
+                paymentTransferRequest.getSenderAccountId(),
+                paymentTransferRequest.getReceiverAccountId(),
+                () -> {
+                    Money amount = parseAmount(paymentTransferRequest);
+                    validateAccountAndBalanceInfo(paymentTransferRequest, amount, this::fetchAccountInfo);
+                    TransactionInfo journaledTransactionInfo =
+                            createTransactionInfo(paymentTransferRequest, amount, MDC.get("requestID"));
+                    transferJournalApplier.journal(Collections.singletonList(journaledTransactionInfo));
+                    return journaledTransactionInfo;
+                });
+        transferJournalApplier.awaitDurable();
+        log.info("Transfer journaled, senderAccountId={}, receiverAccountId={}",
+                transactionInfo.getSenderAccountId(), transactionInfo.getReceiverAccountId());
+        return transactionInfo;
+    }
+
+    /* Validations of a single transfer, checked on a working copy of the accounts of the batch, so that a transfer is
+     * rejected with the same status and message as when validated alone. */
+    private List<TransferOutcome> journalBatch(List<TransactionInfo> transactionInfoList) {
+        Map<Long, Optional<AccountInfo>> workingAccounts = new HashMap<>();
+        Function<Long, Optional<AccountInfo>> accountLookup = accountId -> workingAccounts.computeIfAbsent(
+                accountId, id -> fetchAccountInfo(id).map(TransferEngine::copyOf));
+
+        List<TransferOutcome> transferOutcomes = new ArrayList<>(transactionInfoList.size());
+        List<TransactionInfo> acceptedTransactions = new ArrayList<>();
+        for (TransactionInfo transactionInfo : transactionInfoList) {
+            try {
+                validateAccountAndBalanceInfo(transactionInfo.getSenderAccountId(), transactionInfo.getReceiverAccountId(),
+                        transactionInfo.getCurrency(), transactionInfo.getAmount(), accountLookup);
+            } catch (CustomBusinessException e) {
+                transferOutcomes.add(TransferOutcome.rejected(e.getHttpStatus(), e.getMessage()));
+                continue;
+            }
+            AccountInfo senderAccountInfo = accountLookup.apply(transactionInfo.getSenderAccountId()).orElseThrow();
+            AccountInfo receiverAccountInfo = accountLookup.apply(transactionInfo.getReceiverAccountId()).orElseThrow();
+            senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(transactionInfo.getAmount()));
+            receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(transactionInfo.getAmount()));
+            acceptedTransactions.add(transactionInfo);
+            transferOutcomes.add(TransferOutcome.completed(transactionInfo));
+        }
+        if (!acceptedTransactions.isEmpty()) {
+            transferJournalApplier.journal(acceptedTransactions);
+        }
+        return transferOutcomes;
+    }
+
+    /* The cached account, with the balance movements journaled but not yet applied to the database. */
+    Optional<AccountInfo> fetchAccountInfo(Long accountId) {
+        Optional<AccountInfo> accountInfo = cachedRepositoryServiceImpl.fetchAccountInfo(accountId);
+        Money pendingAmount = transferJournalApplier.pendingAmount(accountId);
+        if (pendingAmount == null) {
+            return accountInfo;
+        }
+        return accountInfo.map(TransferEngine::copyOf).map(pendingAccountInfo -> {
+            pendingAccountInfo.setBalance(pendingAccountInfo.getBalance().add(pendingAmount));
+            return pendingAccountInfo;
+        });
+    }
+
+    private TransactionInfo doTransaction(PaymentTransferRequest paymentTransferRequest, Money amount) {
+        /* Create and persist transaction details, debiting the sender and crediting the receiver in the same batch.*/
+        TransactionInfo transactionInfo = createTransactionInfo(paymentTransferRequest, amount, MDC.get("requestID"));
+        Map<Long, Money> balances = cachedRepositoryServiceImpl.transferFunds(transactionInfo);
+        log.info("Transfer applied, senderBalance={}, receiverBalance={}",
+                balances.get(transactionInfo.getSenderAccountId()),
+                balances.get(transactionInfo.getReceiverAccountId()));
+
+        return transactionInfo;
+    }
+
+    static Money parseAmount(PaymentTransferRequest paymentTransferRequest) {
+        return Money.parse(paymentTransferRequest.getAmount(), paymentTransferRequest.getCurrency().getValue());
+    }
+
+    TransactionInfo createTransactionInfo(
+            PaymentTransferRequest paymentTransferRequest, Money amount, String referenceId) {
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setSenderAccountId(paymentTransferRequest.getSenderAccountId());
+        transactionInfo.setReceiverAccountId(paymentTransferRequest.getReceiverAccountId());
+        transactionInfo.setAmount(amount);
+        transactionInfo.setCurrency(paymentTransferRequest.getCurrency().getValue());
+        transactionInfo.setReferenceId(referenceId);
+        transactionInfo.setTransactionDate(LocalDateTime.now());
+        return transactionInfo;
+    }
+
+    static AccountInfo copyOf(AccountInfo accountInfo) {
+        AccountInfo copy = new AccountInfo();
+        copy.setAccountId(accountInfo.getAccountId());
+        copy.setCurrency(accountInfo.getCurrency());
+        copy.setBalance(accountInfo.getBalance());
+        copy.setAccountStatus(accountInfo.getAccountStatus());
+        return copy;
+    }
+
+    void validateAccountAndBalanceInfo(
+            PaymentTransferRequest paymentTransferRequest, Money amount, Function<Long, Optional<AccountInfo>> accountLookup) {
+        validateAccountAndBalanceInfo(paymentTransferRequest.getSenderAccountId(),
+                paymentTransferRequest.getReceiverAccountId(), paymentTransferRequest.getCurrency().getValue(),
+                amount, accountLookup);
+    }
+
+    private void validateAccountAndBalanceInfo(Long senderAccountId, Long receiverAccountId, String currency,
+                                               Money amount, Function<Long, Optional<AccountInfo>> accountLookup) {
+        /* Sender related validations.*/
+        accountLookup.apply(senderAccountId).ifPresentOrElse(
+                (accountInfo) -> {
+                    log.info("Fetched Sender account details from persistence.");
+                    /* Checking if account is operational or not*/
+                    if (accountInfo.getAccountStatus().equals("DELETED")) {
+                        log.error("Sender's account is in Deleted status, not able to perform the transaction.");
+                        throw new CustomBusinessException(
+                                HttpStatus.BAD_REQUEST,
+                                "Sender's account is in Deleted status, not able to perform the transaction.");
+                    }
+                    /* Check if currency is supported or not, before comparing the balance in that currency.*/
+                    if (!accountInfo.getCurrency().equals(currency)) {
+                        log.error("Sender's currency not matching the transaction currency. senderCurrency={}, transactionCurrency={}",
+                                accountInfo.getCurrency(), currency);
+                        throw new CustomBusinessException(
+                                HttpStatus.BAD_REQUEST,
+                                "Sender's currency not supported.");
+                    }
+                    /* Checking if sufficient balance or not.*/
+                    if (accountInfo.getBalance().isLessThan(amount)) {
+                        log.error("Not enough balance for transaction. availableBalance={}, requiredAmout={}",
+                                accountInfo.getBalance(),
+                                amount);
+                        throw new CustomBusinessException(
+                                HttpStatus.BAD_REQUEST,
+                                "Insufficient funds, not able to perform the transaction.");
+                    }
+                },
+                () -> {
+                    log.error("Requested sender account_id={}, not found in the system.",
+                            senderAccountId);
+                    throw new CustomBusinessException(
+                            HttpStatus.BAD_REQUEST,
+                            "Sender's account_id not found.");
+                }
+        );
+
+        /* Receiver related validations. */
+        accountLookup.apply(receiverAccountId).ifPresentOrElse(
+                (accountInfo) -> {
+                    log.info("Fetched Receiver account details from persistence.");
+                    /* Checking if account is operational or not*/
+                    if (accountInfo.getAccountStatus().equals("DELETED")) {
+                        log.error("Receiver's account is in Deleted status, not able to perform the transaction.");
+                        throw new CustomBusinessException(
+                                HttpStatus.BAD_REQUEST,
+                                "Receiver's account is in Deleted status, not able to perform the transaction.");
+                    }
+                    /* Check if currency is supported or not*/
+                    if (!accountInfo.getCurrency().equals(currency)) {
+                        log.error("Receiver's currency not matching the transaction currency. receiverCurrency={}, transactionCurrency={}",
+                                accountInfo.getCurrency(), currency);
+                        throw new CustomBusinessException(
+                                HttpStatus.BAD_REQUEST,
+                                "Receiver's currency not supported.");
+                    }
+                },
+                () -> {
+                    log.error("Requested receiver account_id={}, not found in the system.",
+                            receiverAccountId);
+                    throw new CustomBusinessException(
+                            HttpStatus.BAD_REQUEST,
+                            "Receiver's account_id not found.");
+                }
+        );
+
+        /* Check if sending between same accounts*/
+        if (senderAccountId.equals(receiverAccountId)) {
+            log.error("Sending between same account numbers not allowed.");
+            throw new CustomBusinessException(
+                    HttpStatus.BAD_REQUEST,
+                    "Sending between same account numbers not permitted.");
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.repository.TransferJournal;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies the journaled transfers to the database in journal order, in batches on its own thread, the journal
+ * checkpoint being committed with each batch, after which the journal reclaims their slots. On startup, the transfers
+ * journaled after the checkpoint are replayed before requests are served.
+ * Until applied, the balance movements of the journaled transfers are kept as pending amounts by account, which the
+ * validations add to the cached balances. A batch is applied holding the locks of its accounts, so that a validation
+ * never finds a movement both in the cached balance and still pending.
+ */
+@Slf4j
+@Component
+public class TransferJournalApplier {
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TransferJournal transferJournal;
+    private final RepositoryService cachedRepositoryServiceImpl;
+    private final StripedAccountLocks stripedAccountLocks;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Map<Long, Money> pendingAmounts = new ConcurrentHashMap<>();
+    private final AtomicBoolean abortedAmountsReleased = new AtomicBoolean(false);
+    /* Transfers up to this sequence were journaled before the start, their amounts were never pending. */
+    private long recoveredSequence;
+    private volatile long appliedSequence;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public TransferJournalApplier(
+            TransferJournal transferJournal,
+            RepositoryService cachedRepositoryServiceImpl,
+            StripedAccountLocks stripedAccountLocks,
+            TransactionTemplate transactionTemplate,
+            @Value("${payment.journal.apply.batch.size:500}") int batchSize) {
+        this.transferJournal = transferJournal;
+        this.cachedRepositoryServiceImpl = cachedRepositoryServiceImpl;
+        this.stripedAccountLocks = stripedAccountLocks;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        recoveredSequence = transferJournal.getDurableSequence();
+        appliedSequence = cachedRepositoryServiceImpl.fetchJournalCheckpoint();
+        if (appliedSequence < transferJournal.getReclaimedSequence()) {
+            log.error("Journal checkpoint={} is behind the transfer journal reclaimed up to sequence={}, the journal does "
+                    + "not belong to this database.", appliedSequence, transferJournal.getReclaimedSequence());
+            throw new IllegalStateException("Journal checkpoint behind the reclaimed transfer journal.");
+        }
+        if (appliedSequence > recoveredSequence && recoveredSequence == transferJournal.getReclaimedSequence()) {
+            /* An empty journal, e.g. replaced once applied, carries on from the checkpoint. */
+            log.warn("Transfer journal empty at sequence={}, restarting it after the journal checkpoint={}",
+                    recoveredSequence, appliedSequence);
+            transferJournal.restartAfter(appliedSequence);
+            recoveredSequence = appliedSequence;
+        }
+        if (appliedSequence > recoveredSequence) {
+            log.error("Journal checkpoint={} is ahead of the transfer journal lastSequence={}, the journal does not "
+                    + "belong to this database.", appliedSequence, recoveredSequence);
+            throw new IllegalStateException("Journal checkpoint ahead of the transfer journal.");
+        }
+        long checkpoint = appliedSequence;
+        while (applyNext() > 0) {
+            log.info("Replayed journaled transfers up to sequence={}", appliedSequence);
+        }
+        log.info("Replayed {} journaled transfers after checkpoint={}", appliedSequence - checkpoint, checkpoint);
+        transferJournal.reclaim(appliedSequence);
+
+        thread = new Thread(this::run, "journal-applier");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* The transfers journaled are all applied before stopping. */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            if (thread.isAlive()) {
+                log.error("Journaled transfers not applied on shutdown after sequence={}", appliedSequence);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return transferJournal.isEnabled();
+    }
+
+    /**
+     * Journals transfers already validated, and adds their balance movements to the pending amounts.
+     * The caller holds the locks of the accounts of the transfers, and acknowledges them once {@link #awaitDurable()}
+     * returns, which can be after releasing the locks as a later transfer is only durable once these are.
+     */
+    public void journal(List<TransactionInfo> transactionInfoList) {
+        transferJournal.append(transactionInfoList);
+        transactionInfoList.forEach(transactionInfo -> {
+            addPendingAmount(transactionInfo.getSenderAccountId(), transactionInfo.getAmount().negate());
+            addPendingAmount(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount());
+        });
+    }
+
+    /* A failure to make the transfers durable strikes them out of the journal, their pending amounts are then
+     * released once. The journal stops taking transfers, so no validation relies on them meanwhile. */
+    public void awaitDurable() {
+        try {
+            transferJournal.awaitDurable();
+        } catch (RuntimeException e) {
+            List<TransactionInfo> abortedTransfers = transferJournal.getAbortedTransfers();
+            if (!abortedTransfers.isEmpty() && abortedAmountsReleased.compareAndSet(false, true)) {
+                abortedTransfers.forEach(transactionInfo -> {
+                    addPendingAmount(transactionInfo.getSenderAccountId(), transactionInfo.getAmount());
+                    addPendingAmount(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount().negate());
+                });
+            }
+            throw e;
+        }
+    }
+
+    /* Net balance movement of the account journaled but not yet applied, null if none. */
+    public Money pendingAmount(Long accountId) {
+        return pendingAmounts.get(accountId);
+    }
+
+    private void run() {
+        long idleNanos = 0;
+        while (true) {
+            int applied;
+            try {
+                applied = applyNext();
+            } catch (RuntimeException e) {
+                /* The batch is retried as is, a journaled transfer is never skipped. */
+                log.error("Applying journaled transfers after sequence={} failed, error={}", appliedSequence, e.getMessage());
+                applied = 0;
+            }
+            if (applied > 0) {
+                idleNanos = 0;
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            idleNanos = Math.min(MAX_IDLE_NANOS, Math.max(1000, idleNanos * 2));
+            LockSupport.parkNanos(idleNanos);
+        }
+    }
+
+    int applyNext() {
+        List<TransactionInfo> transactionInfoList = transferJournal.read(appliedSequence, batchSize);
+        if (transactionInfoList.isEmpty()) {
+            return 0;
+        }
+        long firstSequence = appliedSequence + 1;
+        long lastSequence = appliedSequence + transactionInfoList.size();
+        Set<Long> accountIds = new HashSet<>();
+        transactionInfoList.forEach(transactionInfo -> {
+            accountIds.add(transactionInfo.getSenderAccountId());
+            accountIds.add(transactionInfo.getReceiverAccountId());
+        });
+        stripedAccountLocks.executeWithLocks(accountIds, () -> {
+            transactionTemplate.execute(status ->
+                    cachedRepositoryServiceImpl.applyJournaledTransfers(transactionInfoList, lastSequence));
+            for (int i = 0; i < transactionInfoList.size(); i++) {
+                if (firstSequence + i > recoveredSequence) {
+                    TransactionInfo transactionInfo = transactionInfoList.get(i);
+                    addPendingAmount(transactionInfo.getSenderAccountId(), transactionInfo.getAmount());
+                    addPendingAmount(transactionInfo.getReceiverAccountId(), transactionInfo.getAmount().negate());
+                }
+            }
+            return null;
+        });
+        appliedSequence = lastSequence;
+        transferJournal.reclaim(lastSequence);
+        return transactionInfoList.size();
+    }
+
+    private void addPendingAmount(Long accountId, Money amount) {
+        pendingAmounts.compute(accountId, (id, pendingAmount) -> {
+            Money total = pendingAmount == null ? amount : pendingAmount.add(amount);
+            return total.getMinorUnits() == 0 ? null : total;
+        });
+    }
+}
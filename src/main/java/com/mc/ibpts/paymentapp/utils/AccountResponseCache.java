@@ -0,0 +1,195 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mc.ibpts.paymentapp.common.gen.model.AccountBalanceResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.AccountStatementResponseData;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.UserManagedCache;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.builders.UserManagedCacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Balance and mini statement responses per account, serialized to JSON once and served as is until a write
+ * touches the account. The responses are held in heap caches bounded to heap.entries accounts each, the least
+ * recently used being evicted. Each invalidation bumps the version of the stripe of the account, a response loaded
+ * while the version changed is returned to its caller but not cached, so a stale response never outlives the write.
+ * The versions are a fixed array of stripes rather than an entry per account ever written.
+ * Invalidations also bump the version of the whole ledger, once the surrounding database transaction completes,
+ * which tags the responses read from database, such as the pages of accounts.
+ */
+@Slf4j
+@Component
+public class AccountResponseCache {
+
+    private static final int VERSION_STRIPES = 4096;
+
+    private final ObjectMapper objectMapper;
+    private final UserManagedCache<Long, BalanceResponse> balances;
+    private final UserManagedCache<Long, StatementResponse> statements;
+    /* Version of each stripe of accounts, guarded by the lock of the stripe. */
+    private final long[] versions = new long[VERSION_STRIPES];
+    private final Object[] stripeLocks = new Object[VERSION_STRIPES];
+    private final AtomicLong ledgerVersion = new AtomicLong();
+    /* Versions restart from zero with the application, so tags of a previous run never match. */
+    private final String ledgerEpoch = Long.toHexString(System.currentTimeMillis());
+
+    @Autowired
+    public AccountResponseCache(
+            ObjectMapper objectMapper,
+            @Value("${payment.cache.account-responses.heap.entries:10000}") long heapEntries) {
+        this.objectMapper = objectMapper;
+        this.balances = heapCache(BalanceResponse.class, heapEntries);
+        this.statements = heapCache(StatementResponse.class, heapEntries);
+        Arrays.setAll(stripeLocks, stripe -> new Object());
+    }
+
+    public AccountResponseCache(ObjectMapper objectMapper) {
+        this(objectMapper, 10000);
+    }
+
+    @PreDestroy
+    public void close() {
+        balances.close();
+        statements.close();
+    }
+
+    public AccountBalanceResponse fetchBalance(Long accountId, Function<Long, AccountBalanceResponse> loader) {
+        return fetch(balances, accountId, id -> {
+            AccountBalanceResponse accountBalanceResponse = loader.apply(id);
+            return new BalanceResponse(accountBalanceResponse, serialize(accountBalanceResponse));
+        });
+    }
+
+    public List<AccountStatementResponseData> fetchStatement(
+            Long accountId, Function<Long, List<AccountStatementResponseData>> loader) {
+        return fetch(statements, accountId, id -> {
+            List<AccountStatementResponseData> statement = loader.apply(id);
+            return new StatementResponse(statement, serialize(statement));
+        });
+    }
+
+    /* Called once the write is visible to the loaders, i.e. after the account and transaction caches are updated. */
+    public void invalidate(Long accountId) {
+        int stripe = stripe(accountId);
+        synchronized (stripeLocks[stripe]) {
+            versions[stripe]++;
+            balances.remove(accountId);
+            statements.remove(accountId);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            /* Bumped after the commit, a page read before it is of the previous version. */
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    ledgerVersion.incrementAndGet();
+                }
+            });
+        } else {
+            ledgerVersion.incrementAndGet();
+        }
+    }
+
+    /* Strong entity tag of the current ledger version, to be read before the data it tags. */
+    public String ledgerTag() {
+        return "\"" + ledgerEpoch + "-" + ledgerVersion.get() + "\"";
+    }
+
+    private <T> T fetch(UserManagedCache<Long, T> responses, Long accountId, Function<Long, T> loader) {
+        T cachedResponse = responses.get(accountId);
+        if (cachedResponse != null) {
+            return cachedResponse;
+        }
+        int stripe = stripe(accountId);
+        long version;
+        synchronized (stripeLocks[stripe]) {
+            version = versions[stripe];
+        }
+        T response = loader.apply(accountId);
+        /* Cached under the lock of the stripe, so that it cannot interleave with an invalidation. */
+        synchronized (stripeLocks[stripe]) {
+            if (versions[stripe] == version) {
+                responses.put(accountId, response);
+            }
+        }
+        return response;
+    }
+
+    private static int stripe(Long accountId) {
+        return (Long.hashCode(accountId) & Integer.MAX_VALUE) % VERSION_STRIPES;
+    }
+
+    private static <T> UserManagedCache<Long, T> heapCache(Class<T> responseClass, long heapEntries) {
+        return UserManagedCacheBuilder.newUserManagedCacheBuilder(Long.class, responseClass)
+                .withResourcePools(ResourcePoolsBuilder.heap(heapEntries))
+                .build(true);
+    }
+
+    private byte[] serialize(Object response) {
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (JsonProcessingException e) {
+            log.error("Unable to serialize the response, error={}", e.getMessage());
+            throw new CustomBusinessException(
+                    HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Something went wrong, please try again or contact our support team.",
+                    e);
+        }
+    }
+
+    private static class BalanceResponse extends AccountBalanceResponse implements PrecomputedJson {
+        private final byte[] json;
+
+        BalanceResponse(AccountBalanceResponse accountBalanceResponse, byte[] json) {
+            accountId(accountBalanceResponse.getAccountId())
+                    .currency(accountBalanceResponse.getCurrency())
+                    .balance(accountBalanceResponse.getBalance());
+            this.json = json;
+        }
+
+        @JsonIgnore
+        @Override
+        public byte[] getJson() {
+            return json;
+        }
+    }
+
+    private static class StatementResponse extends AbstractList<AccountStatementResponseData>
+            implements PrecomputedJson, RandomAccess {
+        private final List<AccountStatementResponseData> statement;
+        private final byte[] json;
+
+        StatementResponse(List<AccountStatementResponseData> statement, byte[] json) {
+            this.statement = List.copyOf(statement);
+            this.json = json;
+        }
+
+        @Override
+        public AccountStatementResponseData get(int index) {
+            return statement.get(index);
+        }
+
+        @Override
+        public int size() {
+            return statement.size();
+        }
+
+        @Override
+        public byte[] getJson() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.mc.ibpts.paymentapp.utils;
+
+/**
+ * Response body already serialized to JSON, written as is by {@link PrecomputedJsonHttpMessageConverter}.
+ */
+public interface PrecomputedJson {
+
+    byte[] getJson();
+}
@@ -0,0 +1,45 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link PrecomputedJson} responses by copying their bytes, skipping the serialization by Jackson.
+ * Write only, request bodies are still read by Jackson.
+ */
+public class PrecomputedJsonHttpMessageConverter extends AbstractHttpMessageConverter<PrecomputedJson> {
+
+    public PrecomputedJsonHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PrecomputedJson.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PrecomputedJson readInternal(Class<? extends PrecomputedJson> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Precomputed JSON responses are write only.", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(PrecomputedJson precomputedJson, MediaType contentType) {
+        return (long) precomputedJson.getJson().length;
+    }
+
+    @Override
+    protected void writeInternal(PrecomputedJson precomputedJson, HttpOutputMessage outputMessage) throws IOException {
+        outputMessage.getBody().write(precomputedJson.getJson());
+    }
+}
@@ -0,0 +1,92 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer, in the style of the LMAX Disruptor.
+ * A producer claims the next position with a compare-and-set of the tail, writes its element in the slot, then
+ * publishes it by advancing the sequence of the slot. The consumer reads a slot only once its sequence shows it
+ * published, and frees it for the producer one lap ahead by advancing the sequence again.
+ * The capacity is rounded up to a power of two, so that the slot can be resolved with a bit mask. There are at least
+ * two slots, as with a single one the sequence publishing position p equals the sequence freeing it for p + 1.
+ */
+public class RingBuffer<E> {
+
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;     // Written by the consumer only.
+
+    public RingBuffer(int capacity) {
+        this.capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        int size = Math.max(2, this.capacity);
+        this.elements = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /* Returns false without waiting when the buffer is full. */
+    public boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            if (position - head >= capacity) {
+                return false;   // Only reached with fewer elements allowed than slots.
+            }
+            int index = (int) position & mask;
+            long lag = sequences.get(index) - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (lag < 0) {
+                return false;   // The slot is still held by the consumer one lap behind.
+            } else {
+                position = tail.get();  // Claimed by another producer meanwhile.
+            }
+        }
+    }
+
+    /* Hands up to limit published elements to the consumer in order, to be called from the consumer thread only. */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Consumer<? super E> consumer, int limit) {
+        long position = head;
+        int drained = 0;
+        while (drained < limit) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            E element = (E) elements[index];
+            elements[index] = null;
+            sequences.set(index, position + elements.length);
+            position++;
+            head = position;
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,50 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary response body written by a {@link StreamingResponseBody} straight to the response as it is produced,
+ * exposed as a {@link org.springframework.core.io.Resource} as the generated API declares binary responses as such.
+ * Written by {@link StreamingResourceHttpMessageConverter}, it cannot be read back as an input stream.
+ */
+public class StreamingResource extends AbstractResource implements StreamingResponseBody {
+
+    private final String description;
+    private final StreamingResponseBody streamingResponseBody;
+
+    public StreamingResource(String description, StreamingResponseBody streamingResponseBody) {
+        this.description = description;
+        this.streamingResponseBody = streamingResponseBody;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        streamingResponseBody.writeTo(outputStream);
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return false;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        throw new FileNotFoundException(description + " is written as a stream and cannot be read.");
+    }
+}
@@ -0,0 +1,40 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link StreamingResource} responses to the response body as they are produced, without a content length,
+ * in the content type set on the response. Write only.
+ */
+public class StreamingResourceHttpMessageConverter extends AbstractHttpMessageConverter<StreamingResource> {
+
+    public StreamingResourceHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return StreamingResource.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected StreamingResource readInternal(Class<? extends StreamingResource> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Streaming responses are write only.", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(StreamingResource streamingResource, HttpOutputMessage outputMessage) throws IOException {
+        streamingResource.writeTo(outputMessage.getBody());
+    }
+}
@@ -0,0 +1,68 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Fixed pool of locks shared by all the accounts, an account is always guarded by the same stripe.
+ * Locks are acquired in ascending stripe order (not account_id order, as two account_ids can share a stripe),
+ * which keeps the locking deadlock free while transfers on unrelated accounts run in parallel.
+ */
+@Slf4j
+@Component
+public class StripedAccountLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedAccountLocks(@Value("${payment.transfer.lock.stripes:1024}") int stripeCount) {
+        /* Rounding up to the power of two, so that the stripe can be resolved with a bit mask. */
+        int size = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        log.info("Initialised account lock stripes with size={}", size);
+    }
+
+    public <T> T executeWithLocks(Long firstAccountId, Long secondAccountId, Supplier<T> action) {
+        return executeWithLocks(Arrays.asList(firstAccountId, secondAccountId), action);
+    }
+
+    public <T> T executeWithLocks(Collection<Long> accountIds, Supplier<T> action) {
+        return executeWithStripes(accountIds.stream().mapToInt(this::stripeOf).sorted().distinct().toArray(), action);
+    }
+
+    /* Holds every stripe, so that no transfer is in progress while the action runs. */
+    public <T> T executeWithAllLocks(Supplier<T> action) {
+        return executeWithStripes(IntStream.range(0, stripes.length).toArray(), action);
+    }
+
+    private <T> T executeWithStripes(int[] stripeIndexes, Supplier<T> action) {
+        int locked = 0;
+        try {
+            for (int stripeIndex : stripeIndexes) {
+                stripes[stripeIndex].lock();
+                locked++;
+            }
+            return action.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                stripes[stripeIndexes[i]].unlock();
+            }
+        }
+    }
+
+    int stripeOf(Long accountId) {
+        long hash = accountId * 0x9E3779B97F4A7C15L;   // Spreading sequential account_ids across stripes.
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
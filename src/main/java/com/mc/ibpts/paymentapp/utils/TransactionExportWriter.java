@@ -0,0 +1,115 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes transactions to an export one line each, as they are read, so that only the current line is held in memory.
+ * Amounts are written without grouping, e.g. "1000.05", so that CSV columns are not split by the separator.
+ */
+public class TransactionExportWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER =
+            "id,sender_account_id,receiver_account_id,amount,currency,transaction_date,reference_id\n";
+
+    @Getter
+    @RequiredArgsConstructor
+    public enum Format {
+        NDJSON("ndjson", new MediaType("application", "x-ndjson")),
+        CSV("csv", new MediaType("text", "csv", StandardCharsets.UTF_8));
+
+        private final String value;
+        private final MediaType mediaType;
+
+        public static Format fromValue(String value) {
+            return Arrays.stream(values())
+                    .filter(format -> format.value.equals(value))
+                    .findFirst()
+                    .orElseThrow(() -> new CustomBusinessException(
+                            HttpStatus.BAD_REQUEST,
+                            "Invalid export format, it should be ndjson or csv."));
+        }
+    }
+
+    private final Format format;
+    private final Writer writer;
+    private final JsonGenerator jsonGenerator;
+
+    public TransactionExportWriter(Format format, OutputStream outputStream, JsonFactory jsonFactory) throws IOException {
+        this.format = format;
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (format == Format.NDJSON) {
+            /* Lines are separated by hand, and the stream is left open for the caller to finish. */
+            this.jsonGenerator = jsonFactory.createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .setRootValueSeparator(null);
+        } else {
+            this.jsonGenerator = null;
+            writer.write(CSV_HEADER);
+        }
+    }
+
+    public void write(TransactionInfo transactionInfo) throws IOException {
+        if (format == Format.NDJSON) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeNumberField("id", transactionInfo.getId());
+            jsonGenerator.writeNumberField("sender_account_id", transactionInfo.getSenderAccountId());
+            jsonGenerator.writeNumberField("receiver_account_id", transactionInfo.getReceiverAccountId());
+            jsonGenerator.writeStringField("amount", transactionInfo.getAmount().toString());
+            jsonGenerator.writeStringField("currency", transactionInfo.getCurrency());
+            jsonGenerator.writeStringField("transaction_date", transactionInfo.getTransactionDate().toString());
+            jsonGenerator.writeStringField("reference_id", transactionInfo.getReferenceId());
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeRaw('\n');
+        } else {
+            writer.write(String.valueOf(transactionInfo.getId()));
+            writer.write(',');
+            writer.write(String.valueOf(transactionInfo.getSenderAccountId()));
+            writer.write(',');
+            writer.write(String.valueOf(transactionInfo.getReceiverAccountId()));
+            writer.write(',');
+            writer.write(transactionInfo.getAmount().toString());
+            writer.write(',');
+            writeCsvField(transactionInfo.getCurrency());
+            writer.write(',');
+            writer.write(transactionInfo.getTransactionDate().toString());
+            writer.write(',');
+            writeCsvField(transactionInfo.getReferenceId());
+            writer.write('\n');
+        }
+    }
+
+    /* Flushes the buffered lines, the underlying stream is left open. */
+    @Override
+    public void close() throws IOException {
+        if (jsonGenerator != null) {
+            jsonGenerator.close();
+        }
+        writer.flush();
+    }
+
+    /* Quoted only when needed, as per RFC 4180. */
+    private void writeCsvField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -16,3 +16,5 @@ INSERT INTO TRANSACTIONS (sender_account_id, receiver_account_id, amount, curren
   (555, 111, 10.00,'GBP', '2020-04-24 12:58:52.1234', 'b5f59f74-05f3-4af5-9b9f-394eb6c23b6a'),
   (999, 111, 10.00,'GBP', '2020-04-22 12:58:52.1234', 'b5f59f74-05f3-4af5-9b9f-394eb6c23b6a');
 
+
+INSERT INTO JOURNAL_CHECKPOINT (id, applied_sequence) VALUES (1, 0);
@@ -5,9 +5,12 @@ CREATE TABLE IF NOT EXISTS ACCOUNTS (
   balance NUMBER(10, 2) NOT NULL,
   account_status VARCHAR(10) NOT NULL
 );
+CREATE INDEX IF NOT EXISTS IDX_ACCOUNTS_STATUS_ID ON ACCOUNTS(account_status, account_id);
+
+CREATE SEQUENCE IF NOT EXISTS TRANSACTIONS_ID_SEQ;
 
 CREATE TABLE IF NOT EXISTS TRANSACTIONS (
-    id bigint auto_increment  PRIMARY KEY,
+    id bigint DEFAULT NEXT VALUE FOR TRANSACTIONS_ID_SEQ  PRIMARY KEY,
     sender_account_id NUMBER(10, 0) NOT NULL,
     receiver_account_id NUMBER(10, 0) NOT NULL,
     amount NUMBER(10, 2) NOT NULL,
@@ -21,7 +24,17 @@ ALTER TABLE TRANSACTIONS
 ALTER TABLE TRANSACTIONS
     ADD FOREIGN KEY (receiver_account_id)
     REFERENCES ACCOUNTS(account_id);
+CREATE INDEX IF NOT EXISTS IDX_TRANSACTIONS_SENDER_DATE ON TRANSACTIONS(sender_account_id, transaction_date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS IDX_TRANSACTIONS_RECEIVER_DATE ON TRANSACTIONS(receiver_account_id, transaction_date DESC, id DESC);
 
 CREATE TABLE IF NOT EXISTS IDEMPOTENCY (
-  idempotency_key VARCHAR(50)  PRIMARY KEY
-);
\ No newline at end of file
+  idempotency_key VARCHAR(50)  PRIMARY KEY,
+  created_at TIMESTAMP(6) DEFAULT CURRENT_TIMESTAMP NOT NULL,
+  response VARCHAR(500)
+);
+CREATE INDEX IF NOT EXISTS IDX_IDEMPOTENCY_CREATED_AT ON IDEMPOTENCY(created_at);
+
+CREATE TABLE IF NOT EXISTS JOURNAL_CHECKPOINT (
+  id NUMBER(1, 0) PRIMARY KEY,
+  applied_sequence bigint NOT NULL
+);
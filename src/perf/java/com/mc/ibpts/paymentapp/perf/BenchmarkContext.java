@@ -0,0 +1,42 @@
+package com.mc.ibpts.paymentapp.perf;
+
+import com.mc.ibpts.paymentapp.IntraPaymentAppApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application, by default without the web layer, against its own in-memory database, to be seeded
+ * by {@link LedgerGenerator}. Logging is turned down, so that the benchmarks measure the code paths
+ * and not the console appender.
+ */
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        return start(WebApplicationType.NONE, properties);
+    }
+
+    public static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+        /* Passed as command line arguments, so that they take precedence over application.properties. */
+        List<String> arguments = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:perf-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.mc.ibpts=WARN",
+                "--logging.level.com.mc.ibpts.paymentapp.perf=INFO",
+                "--payment.cache.directory=" + System.getProperty("java.io.tmpdir") + "/payment-app/perf-cache-" + UUID.randomUUID()));
+        for (String property : properties) {
+            arguments.add("--" + property);
+        }
+        return new SpringApplicationBuilder(IntraPaymentAppApplication.class)
+                .web(webApplicationType)
+                .run(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,97 @@
+package com.mc.ibpts.paymentapp.perf;
+
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams generated ACCOUNTS and TRANSACTIONS rows into the schema.sql tables with batched inserts, in constant
+ * memory whatever the number of rows. Receivers follow a Zipf distribution, so that a few merchant-like accounts
+ * receive most of the payments, and senders a flatter one for a long tail of occasional payers. Account ids are
+ * ranked by popularity, {@link #FIRST_ACCOUNT_ID} being the most popular. Transaction dates are spread uniformly
+ * over the last {@code spreadDays} days.
+ *
+ * <pre>
+ * LedgerGenerator.builder().accounts(1_000_000).transactions(10_000_000).build().generate(jdbcTemplate);
+ * </pre>
+ */
+@Slf4j
+@Builder
+public class LedgerGenerator {
+
+    /* Generated accounts start after the ids of data.sql. */
+    public static final long FIRST_ACCOUNT_ID = 1_000_000L;
+
+    private static final String INSERT_ACCOUNT =
+            "insert into accounts (account_id, currency, balance, account_status) values (?, ?, ?, ?)";
+    private static final String INSERT_TRANSACTION = "insert into transactions (sender_account_id, receiver_account_id, "
+            + "amount, currency, transaction_date, reference_id) values (?, ?, ?, ?, ?, ?)";
+
+    @Builder.Default
+    private final int accounts = 1000;
+    @Builder.Default
+    private final long transactions = 0;
+    @Builder.Default
+    private final BigDecimal balance = new BigDecimal("1000.00");
+    /* Exponents of the Zipf distributions, 0 for uniform. */
+    @Builder.Default
+    private final double receiverSkew = 1.1;
+    @Builder.Default
+    private final double senderSkew = 0.6;
+    @Builder.Default
+    private final int spreadDays = 365;
+    @Builder.Default
+    private final long seed = 42L;
+    @Builder.Default
+    private final int batchSize = 10_000;
+
+    public void generate(JdbcTemplate jdbcTemplate) {
+        long startNanos = System.nanoTime();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_ACCOUNT)) {
+                for (int i = 0; i < accounts; i++) {
+                    statement.setLong(1, FIRST_ACCOUNT_ID + i);
+                    statement.setString(2, "GBP");
+                    statement.setBigDecimal(3, balance);
+                    statement.setString(4, "ACTIVE");
+                    statement.addBatch();
+                    if ((i + 1) % batchSize == 0 || i == accounts - 1) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+
+            SplittableRandom random = new SplittableRandom(seed);
+            ZipfSampler receivers = new ZipfSampler(accounts, receiverSkew);
+            ZipfSampler senders = new ZipfSampler(accounts, senderSkew);
+            LocalDateTime now = LocalDateTime.now();
+            long spreadSeconds = TimeUnit.DAYS.toSeconds(spreadDays);
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_TRANSACTION)) {
+                for (long i = 0; i < transactions; i++) {
+                    statement.setLong(1, FIRST_ACCOUNT_ID + senders.sample(random) - 1);
+                    statement.setLong(2, FIRST_ACCOUNT_ID + receivers.sample(random) - 1);
+                    statement.setBigDecimal(3, BigDecimal.valueOf(random.nextInt(1, 100_000), 2));
+                    statement.setString(4, "GBP");
+                    statement.setTimestamp(5, Timestamp.valueOf(now.minusSeconds(random.nextLong(spreadSeconds + 1))));
+                    statement.setString(6, "generated-" + i);
+                    statement.addBatch();
+                    if ((i + 1) % batchSize == 0 || i == transactions - 1) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+            return null;
+        });
+        log.info("Generated {} accounts and {} transactions in {} ms, receiverSkew={}, senderSkew={}, spreadDays={}",
+                accounts, transactions, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                receiverSkew, senderSkew, spreadDays);
+    }
+}
@@ -0,0 +1,249 @@
+package com.mc.ibpts.paymentapp.perf;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the REST API. The application is started in-process on a random port and seeded
+ * by {@link LedgerGenerator}, then requests are sent at a fixed rate whatever the response times, and the latency of each
+ * request is measured from its intended start, so that a stalled server is not hidden by the generator waiting on it.
+ * At the end, the total balance of all accounts is checked to be unchanged by the transfers.
+ *
+ * <pre>
+ * mvn -B -Pperf -DskipTests test-compile exec:exec@load-test -Dload.args="--rate=1000 --duration=60 --skew=hot"
+ * </pre>
+ * Options, with their defaults:
+ * <ul>
+ *     <li>--rate=500 requests per second</li>
+ *     <li>--duration=30 seconds</li>
+ *     <li>--warmup=10 seconds of load before the measured duration, not reported</li>
+ *     <li>--accounts=10000 generated accounts</li>
+ *     <li>--transactions=0 generated transactions of history, see {@link LedgerGenerator} for
+ *     --receiver-skew=1.1, --sender-skew=0.6 and --spread-days=365</li>
+ *     <li>--mix=transfer:50,balance:40,statement:10 weights of the endpoints</li>
+ *     <li>--skew=uniform, zipf for Zipf skewed accounts with --zipf-exponent=1.1,
+ *     or hot for every transfer paying --hot-account=999</li>
+ *     <li>--amount=0.01 of each transfer</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final String AUTHORIZATION = "Basic YWRtaW46JGVDNkV0";
+    private static final long HIGHEST_TRACKABLE_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<String, String> options;
+    private final Map<String, EndpointStats> endpointStats = new LinkedHashMap<>();
+    private final AtomicLong idempotencyKeys = new AtomicLong();
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private String baseUrl;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length > 1 ? option[1] : "true");
+        }
+        int exitCode = new LoadGenerator(options).run() ? 0 : 1;
+        System.exit(exitCode);
+    }
+
+    boolean run() {
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "10000"));
+        ConfigurableApplicationContext applicationContext = BenchmarkContext.start(WebApplicationType.SERVLET, "server.port=0");
+        try {
+            JdbcTemplate jdbcTemplate = applicationContext.getBean(JdbcTemplate.class);
+            LedgerGenerator.builder()
+                    .accounts(accounts)
+                    .transactions(Long.parseLong(options.getOrDefault("transactions", "0")))
+                    .receiverSkew(Double.parseDouble(options.getOrDefault("receiver-skew", "1.1")))
+                    .senderSkew(Double.parseDouble(options.getOrDefault("sender-skew", "0.6")))
+                    .spreadDays(Integer.parseInt(options.getOrDefault("spread-days", "365")))
+                    .build()
+                    .generate(jdbcTemplate);
+            baseUrl = "http://localhost:" + ((WebServerApplicationContext) applicationContext).getWebServer().getPort()
+                    + "/payment-app";
+            BigDecimal totalBalanceBefore = totalBalance(jdbcTemplate);
+
+            generate(accounts, Long.parseLong(options.getOrDefault("warmup", "10")));
+            endpointStats.values().forEach(EndpointStats::reset);
+            generate(accounts, Long.parseLong(options.getOrDefault("duration", "30")));
+
+            BigDecimal totalBalanceAfter = totalBalance(jdbcTemplate);
+            Integer overdrawnAccounts = jdbcTemplate.queryForObject(
+                    "select count(*) from accounts where balance < 0", Integer.class);
+            report();
+            System.out.printf("Total balance before=%s, after=%s, overdrawn accounts=%d%n",
+                    totalBalanceBefore, totalBalanceAfter, overdrawnAccounts);
+            boolean conserved = totalBalanceBefore.compareTo(totalBalanceAfter) == 0 && overdrawnAccounts == 0;
+            if (!conserved) {
+                System.out.println("FAILED: total balance not conserved by the transfers.");
+            }
+            return conserved;
+        } finally {
+            applicationContext.close();
+        }
+    }
+
+    private void generate(int accounts, long durationSeconds) {
+        int rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        String skew = options.getOrDefault("skew", "uniform");
+        ZipfSampler zipfSampler = new ZipfSampler(accounts,
+                "zipf".equals(skew) ? Double.parseDouble(options.getOrDefault("zipf-exponent", "1.1")) : 0);
+        SplittableRandom zipfRandom = new SplittableRandom();
+        long hotAccountId = Long.parseLong(options.getOrDefault("hot-account", "999"));
+        String amount = options.getOrDefault("amount", "0.01");
+        NavigableMap<Integer, String> mix = mix(options.getOrDefault("mix", "transfer:50,balance:40,statement:10"));
+        int totalWeight = mix.lastKey();
+
+        AtomicLong inFlight = new AtomicLong();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long startNanos = System.nanoTime();
+        for (long i = 0; ; i++) {
+            long intendedStartNanos = startNanos + i * intervalNanos;
+            if (intendedStartNanos - startNanos >= durationNanos) {
+                break;
+            }
+            long waitNanos = intendedStartNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long senderAccountId = LedgerGenerator.FIRST_ACCOUNT_ID + random.nextInt(accounts);
+            long accountId = "hot".equals(skew)
+                    ? hotAccountId
+                    : LedgerGenerator.FIRST_ACCOUNT_ID + zipfSampler.sample(zipfRandom) - 1;
+            String endpoint = mix.higherEntry(random.nextInt(totalWeight)).getValue();
+            HttpRequest httpRequest;
+            switch (endpoint) {
+                case "transfer":
+                    httpRequest = transferRequest(senderAccountId, accountId, amount);
+                    break;
+                case "balance":
+                    httpRequest = getRequest("/v1/accounts/" + accountId + "/balance");
+                    break;
+                case "statement":
+                    httpRequest = getRequest("/v1/accounts/" + accountId + "/statements/mini");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown endpoint in mix, endpoint=" + endpoint);
+            }
+            EndpointStats stats = endpointStats.get(endpoint);
+            inFlight.incrementAndGet();
+            httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((httpResponse, throwable) -> {
+                        stats.record(System.nanoTime() - intendedStartNanos,
+                                throwable == null ? httpResponse.statusCode() : -1);
+                        inFlight.decrementAndGet();
+                    });
+        }
+        /* Waiting for the requests still in flight, so that the balances are checked after the last transfer. */
+        while (inFlight.get() > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        endpointStats.values().forEach(stats -> stats.elapsedNanos = elapsedNanos);
+    }
+
+    private NavigableMap<Integer, String> mix(String mixOption) {
+        /* Cumulative weights, an endpoint is picked by the first cumulative weight above a random value. */
+        NavigableMap<Integer, String> mix = new TreeMap<>();
+        int cumulativeWeight = 0;
+        for (String entry : mixOption.split(",")) {
+            String[] endpointWeight = entry.split(":");
+            int weight = Integer.parseInt(endpointWeight[1]);
+            if (weight > 0) {
+                cumulativeWeight += weight;
+                mix.put(cumulativeWeight, endpointWeight[0]);
+                endpointStats.putIfAbsent(endpointWeight[0], new EndpointStats());
+            }
+        }
+        return mix;
+    }
+
+    private HttpRequest transferRequest(long senderAccountId, long receiverAccountId, String amount) {
+        String body = "{\"sender_account_id\": " + senderAccountId + ", \"receiver_account_id\": " + receiverAccountId
+                + ", \"amount\": \"" + amount + "\", \"currency\": \"GBP\"}";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/v1/payments/transfer"))
+                .header("Authorization", AUTHORIZATION)
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", "load-" + idempotencyKeys.incrementAndGet())
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest getRequest(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", AUTHORIZATION)
+                .GET()
+                .build();
+    }
+
+    private static BigDecimal totalBalance(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("select sum(balance) from accounts", BigDecimal.class);
+    }
+
+    private void report() {
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "req/s", "rejected", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        endpointStats.forEach((endpoint, stats) -> {
+            Histogram histogram = stats.latencies.getIntervalHistogram();
+            long requests = histogram.getTotalCount();
+            System.out.printf("%-10s %10d %10.1f %10d %10d %10.2f %10.2f %10.2f %10.2f%n",
+                    endpoint,
+                    requests,
+                    requests / (stats.elapsedNanos / 1e9),
+                    stats.rejected.sum(),
+                    stats.errors.sum(),
+                    histogram.getValueAtPercentile(50) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6,
+                    histogram.getValueAtPercentile(99.9) / 1e6,
+                    histogram.getMaxValue() / 1e6);
+        });
+    }
+
+    /* Business rejections (4xx, e.g. insufficient funds) are counted apart from errors (5xx and failed requests). */
+    private static class EndpointStats {
+        private final Recorder latencies = new Recorder(HIGHEST_TRACKABLE_LATENCY_NANOS, 3);
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private volatile long elapsedNanos;
+
+        void reset() {
+            latencies.reset();
+            rejected.reset();
+            errors.reset();
+        }
+
+        void record(long latencyNanos, int statusCode) {
+            latencies.recordValue(Math.min(latencyNanos, HIGHEST_TRACKABLE_LATENCY_NANOS));
+            if (statusCode >= 400 && statusCode < 500) {
+                rejected.increment();
+            } else if (statusCode < 200 || statusCode >= 500) {
+                errors.increment();
+            }
+        }
+    }
+}
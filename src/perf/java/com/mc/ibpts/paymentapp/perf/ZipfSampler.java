@@ -0,0 +1,75 @@
+package com.mc.ibpts.paymentapp.perf;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples ranks 1..n with probability proportional to 1 / rank^exponent, in constant time and memory, by the
+ * rejection-inversion method of Hörmann and Derflinger. An exponent of 0 samples uniformly.
+ */
+public class ZipfSampler {
+
+    private final int numberOfElements;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralNumberOfElements;
+    private final double s;
+
+    public ZipfSampler(int numberOfElements, double exponent) {
+        if (numberOfElements < 1 || exponent < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid Zipf parameters, numberOfElements=" + numberOfElements + ", exponent=" + exponent);
+        }
+        this.numberOfElements = numberOfElements;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1d;
+        this.hIntegralNumberOfElements = hIntegral(numberOfElements + 0.5);
+        this.s = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public int sample(SplittableRandom random) {
+        if (exponent == 0) {
+            return 1 + random.nextInt(numberOfElements);
+        }
+        while (true) {
+            double u = hIntegralNumberOfElements + random.nextDouble() * (hIntegralX1 - hIntegralNumberOfElements);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > numberOfElements) {
+                k = numberOfElements;
+            }
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1d - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1d - exponent);
+        if (t < -1d) {
+            /* Limited by rounding errors only, t is never below -1 in exact arithmetic. */
+            t = -1d;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    /* log(1 + x) / x, accurate for x close to 0. */
+    private static double helper1(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1d - x * (0.5 - x * (1d / 3d - 0.25 * x));
+    }
+
+    /* (exp(x) - 1) / x, accurate for x close to 0. */
+    private static double helper2(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1d + x * 0.5 * (1d + x * (1d / 3d) * (1d + 0.25 * x));
+    }
+}
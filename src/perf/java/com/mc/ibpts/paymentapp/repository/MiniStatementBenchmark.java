@@ -0,0 +1,59 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.perf.BenchmarkContext;
+import com.mc.ibpts.paymentapp.perf.LedgerGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mini statement lookups of uniformly random accounts through
+ * {@link CachedRepositoryServiceImpl#fetchMiniStatementByAccountId(Long)}, on a generated ledger with Zipf skewed
+ * receivers. The ledger is generated after startup, so each account is loaded once from database before being
+ * served from the mini statement index, as it is after a restart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class MiniStatementBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    @Param({"10"})
+    public int transactionsPerAccount;
+
+    private ConfigurableApplicationContext applicationContext;
+    private RepositoryService cachedRepositoryServiceImpl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        applicationContext = BenchmarkContext.start();
+        LedgerGenerator.builder()
+                .accounts(accounts)
+                .transactions((long) accounts * transactionsPerAccount)
+                .build()
+                .generate(applicationContext.getBean(JdbcTemplate.class));
+        cachedRepositoryServiceImpl = applicationContext.getBean(CachedRepositoryServiceImpl.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public List<TransactionInfo> fetchMiniStatementByAccountId() {
+        return cachedRepositoryServiceImpl.fetchMiniStatementByAccountId(
+                LedgerGenerator.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(accounts));
+    }
+}
@@ -0,0 +1,64 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.perf.BenchmarkContext;
+import com.mc.ibpts.paymentapp.perf.LedgerGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The mini statement query of {@link EmbeddedSQLRepositoryServiceImpl#fetchMiniStatementByAccountId(Long)}, bypassing
+ * the cache, as the history grows. It should stay flat across {@code transactions}, for a random account as well as
+ * for the most popular receiver of the generated ledger, which holds the longest history. Ledgers of 10^7 and 10^8
+ * transactions can be run with {@code -p transactions=100000000}, given the heap for an in-memory H2 of that size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class MiniStatementQueryBenchmark {
+
+    @Param({"10000", "1000000"})
+    public long transactions;
+
+    @Param({"10000"})
+    public int accounts;
+
+    private ConfigurableApplicationContext applicationContext;
+    private RepositoryService embeddedSQLRepositoryServiceImpl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        applicationContext = BenchmarkContext.start();
+        LedgerGenerator.builder()
+                .accounts(accounts)
+                .transactions(transactions)
+                .build()
+                .generate(applicationContext.getBean(JdbcTemplate.class));
+        embeddedSQLRepositoryServiceImpl = applicationContext.getBean(EmbeddedSQLRepositoryServiceImpl.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public List<TransactionInfo> randomAccount() {
+        return embeddedSQLRepositoryServiceImpl.fetchMiniStatementByAccountId(
+                LedgerGenerator.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(accounts));
+    }
+
+    @Benchmark
+    public List<TransactionInfo> mostPopularAccount() {
+        return embeddedSQLRepositoryServiceImpl.fetchMiniStatementByAccountId(LedgerGenerator.FIRST_ACCOUNT_ID);
+    }
+}
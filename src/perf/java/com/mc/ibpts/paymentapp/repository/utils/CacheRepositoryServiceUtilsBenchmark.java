@@ -0,0 +1,73 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.perf.BenchmarkContext;
+import com.mc.ibpts.paymentapp.perf.LedgerGenerator;
+import org.ehcache.CacheManager;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache reads and writes of accounts through {@link CacheRepositoryServiceUtils}, on the tiered "accounts" cache
+ * of the application. Key spaces larger than the heap tier measure the off-heap and disk tiers as well.
+ * Larger key spaces can be run with {@code -p accounts=10000000}, given enough off-heap and disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CacheRepositoryServiceUtilsBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private ConfigurableApplicationContext applicationContext;
+    private CacheRepositoryServiceUtils cacheRepositoryServiceUtils;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        applicationContext = BenchmarkContext.start();
+        cacheRepositoryServiceUtils = new CacheRepositoryServiceUtils(applicationContext.getBean(CacheManager.class));
+        for (int i = 0; i < accounts; i++) {
+            long accountId = LedgerGenerator.FIRST_ACCOUNT_ID + i;
+            cacheRepositoryServiceUtils.update("accounts", Long.class, AccountInfo.class, accountId, accountInfo(accountId));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public Optional<AccountInfo> fetch() {
+        return cacheRepositoryServiceUtils.fetch("accounts", Long.class, AccountInfo.class, randomAccountId());
+    }
+
+    @Benchmark
+    public void update() {
+        long accountId = randomAccountId();
+        cacheRepositoryServiceUtils.update("accounts", Long.class, AccountInfo.class, accountId, accountInfo(accountId));
+    }
+
+    private long randomAccountId() {
+        return LedgerGenerator.FIRST_ACCOUNT_ID + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    private static AccountInfo accountInfo(long accountId) {
+        AccountInfo accountInfo = new AccountInfo();
+        accountInfo.setAccountId(accountId);
+        accountInfo.setCurrency("GBP");
+        accountInfo.setBalance(Money.ofMinorUnits(accountId, "GBP"));
+        accountInfo.setAccountStatus("ACTIVE");
+        return accountInfo;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferResponse;
+import com.mc.ibpts.paymentapp.perf.BenchmarkContext;
+import com.mc.ibpts.paymentapp.perf.LedgerGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.MDC;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full transfers through {@link AccountsV1Service#v1PaymentsTransferPost(String, PaymentTransferRequest)} against H2,
+ * each with a new idempotency key, between uniformly random seeded accounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class TransferBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    private ConfigurableApplicationContext applicationContext;
+    private AccountsV1Service accountsV1Service;
+    private final AtomicLong idempotencyKeys = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class RequestContext {
+        @Setup(Level.Trial)
+        public void setUp() {
+            /* Set by the request filter for the API calls, persisted as the reference of the transaction. */
+            MDC.put("requestID", UUID.randomUUID().toString());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        applicationContext = BenchmarkContext.start();
+        LedgerGenerator.builder()
+                .accounts(accounts)
+                .balance(new BigDecimal("10000000.00"))
+                .build()
+                .generate(applicationContext.getBean(JdbcTemplate.class));
+        accountsV1Service = applicationContext.getBean(AccountsV1Service.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<PaymentTransferResponse> transfer(RequestContext requestContext) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        PaymentTransferRequest paymentTransferRequest = new PaymentTransferRequest()
+                .senderAccountId(LedgerGenerator.FIRST_ACCOUNT_ID + random.nextInt(accounts))
+                .receiverAccountId(LedgerGenerator.FIRST_ACCOUNT_ID + random.nextInt(accounts))
+                .amount("0.01")
+                .currency(PaymentTransferRequest.CurrencyEnum.GBP);
+        return accountsV1Service.v1PaymentsTransferPost(
+                "perf-" + idempotencyKeys.incrementAndGet(), paymentTransferRequest);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import com.mc.ibpts.paymentapp.common.gen.model.AccountBalanceResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.AccountStatementResponseData;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferResponse;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the persisted values to the API responses, for a balance, a transfer and a full mini statement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestResponseMapperBenchmark {
+
+    private static final int MINI_STATEMENT_SIZE = 20;
+
+    private AccountInfo accountInfo;
+    private TransactionInfo transactionInfo;
+    private List<TransactionInfo> miniStatement;
+
+    @Setup
+    public void setUp() {
+        accountInfo = new AccountInfo();
+        accountInfo.setAccountId(1_000_000L);
+        accountInfo.setCurrency("GBP");
+        accountInfo.setBalance(Money.parse("1234567.89", "GBP"));
+        accountInfo.setAccountStatus("ACTIVE");
+
+        miniStatement = new ArrayList<>(MINI_STATEMENT_SIZE);
+        for (int i = 0; i < MINI_STATEMENT_SIZE; i++) {
+            TransactionInfo statementEntry = new TransactionInfo();
+            statementEntry.setId((long) i);
+            statementEntry.setSenderAccountId(i % 2 == 0 ? 1_000_000L : 1_000_001L);
+            statementEntry.setReceiverAccountId(i % 2 == 0 ? 1_000_001L : 1_000_000L);
+            statementEntry.setAmount(Money.ofMinorUnits(1000L * i + 5, "GBP"));
+            statementEntry.setCurrency("GBP");
+            statementEntry.setTransactionDate(LocalDateTime.now().minusMinutes(i));
+            statementEntry.setReferenceId("perf-" + i);
+            miniStatement.add(statementEntry);
+        }
+        transactionInfo = miniStatement.get(0);
+    }
+
+    @Benchmark
+    public AccountBalanceResponse accountBalance() {
+        return RequestResponseMapper.ACCOUNT_INFO_TO_ACCOUNT_BALANCE_DETAILS_RESPONSE.apply(accountInfo);
+    }
+
+    @Benchmark
+    public PaymentTransferResponse paymentTransfer() {
+        return RequestResponseMapper.TRANSACTION_INFO_TO_PAYMENT_TRANSFER_RESPONSE.apply(transactionInfo);
+    }
+
+    @Benchmark
+    public List<AccountStatementResponseData> miniStatement() {
+        List<AccountStatementResponseData> statement = new ArrayList<>(MINI_STATEMENT_SIZE);
+        for (TransactionInfo statementEntry : miniStatement) {
+            statement.add(RequestResponseMapper.TRANSACTION_INFO_TO_STATEMENT.apply(statementEntry, 1_000_000L));
+        }
+        return statement;
+    }
+
+    @Benchmark
+    public Money parseAmount() {
+        return Money.parse("1234567.89", "GBP");
+    }
+}
@@ -2,6 +2,7 @@ package com.mc.ibpts.paymentapp;
 
 import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
 import org.ehcache.Cache;
 import org.ehcache.config.CacheRuntimeConfiguration;
@@ -11,7 +12,6 @@ import org.ehcache.spi.loaderwriter.CacheLoadingException;
 import org.ehcache.spi.loaderwriter.CacheWritingException;
 import org.hamcrest.internal.ArrayIterator;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -21,7 +21,7 @@ public class TestSupportUtils {
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(1234L);
         accountInfo.setCurrency("GBP");
-        accountInfo.setBalance(new BigDecimal(1000));
+        accountInfo.setBalance(Money.parse("1000.00", "GBP"));
         accountInfo.setAccountStatus("ACTIVE");
         return Optional.of(accountInfo);
     }
@@ -30,7 +30,7 @@ public class TestSupportUtils {
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(1111L);
         accountInfo.setCurrency("GBP");
-        accountInfo.setBalance(new BigDecimal(2000));
+        accountInfo.setBalance(Money.parse("2000.00", "GBP"));
         accountInfo.setAccountStatus("ACTIVE");
         return Optional.of(accountInfo);
     }
@@ -39,7 +39,7 @@ public class TestSupportUtils {
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(1234L);
         accountInfo.setCurrency("GBP");
-        accountInfo.setBalance(new BigDecimal(1000));
+        accountInfo.setBalance(Money.parse("1000.00", "GBP"));
         accountInfo.setAccountStatus("DELETED");
         return Optional.of(accountInfo);
     }
@@ -48,7 +48,7 @@ public class TestSupportUtils {
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(1111L);
         accountInfo.setCurrency("NOK");
-        accountInfo.setBalance(new BigDecimal(2000));
+        accountInfo.setBalance(Money.parse("2000.00", "NOK"));
         accountInfo.setAccountStatus("ACTIVE");
         return Optional.of(accountInfo);
     }
@@ -56,27 +56,30 @@ public class TestSupportUtils {
     public static List<TransactionInfo> getTransactionInfoList() {
         List<TransactionInfo> transactionInfoList = new ArrayList<>();
         TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setId(1L);
         transactionInfo.setSenderAccountId(1234L);
         transactionInfo.setReceiverAccountId(1111L);
-        transactionInfo.setAmount(new BigDecimal(123));
+        transactionInfo.setAmount(Money.parse("123.00", "GBP"));
         transactionInfo.setCurrency("GBP");
         transactionInfo.setTransactionDate(LocalDateTime.now());
         transactionInfo.setReferenceId("123123jk-13123n-123123-123123");
         transactionInfoList.add(transactionInfo);
 
         transactionInfo = new TransactionInfo();
+        transactionInfo.setId(2L);
         transactionInfo.setSenderAccountId(4444L);
         transactionInfo.setReceiverAccountId(1234L);
-        transactionInfo.setAmount(new BigDecimal(1000));
+        transactionInfo.setAmount(Money.parse("1000.00", "GBP"));
         transactionInfo.setCurrency("GBP");
         transactionInfo.setTransactionDate(LocalDateTime.now());
         transactionInfo.setReferenceId("123123jk-13123n-123123-123123");
         transactionInfoList.add(transactionInfo);
 
         transactionInfo = new TransactionInfo();
+        transactionInfo.setId(3L);
         transactionInfo.setSenderAccountId(1134L);
         transactionInfo.setReceiverAccountId(1234L);
-        transactionInfo.setAmount(new BigDecimal(444));
+        transactionInfo.setAmount(Money.parse("444.00", "GBP"));
         transactionInfo.setCurrency("GBP");
         transactionInfo.setTransactionDate(LocalDateTime.now());
         transactionInfo.setReferenceId("123123jk-13123n-123123-123123");
@@ -88,21 +91,21 @@ public class TestSupportUtils {
         List<AccountInfo> accountInfoList = new ArrayList<>();
         AccountInfo accountInfo = new AccountInfo();
         accountInfo.setAccountId(1234L);
-        accountInfo.setBalance(new BigDecimal(1000));
+        accountInfo.setBalance(Money.parse("1000.00", "GBP"));
         accountInfo.setCurrency("GBP");
         accountInfo.setAccountStatus("ACTIVE");
         accountInfoList.add(accountInfo);
 
         accountInfo = new AccountInfo();
         accountInfo.setAccountId(1111L);
-        accountInfo.setBalance(new BigDecimal(1000));
+        accountInfo.setBalance(Money.parse("1000.00", "GBP"));
         accountInfo.setCurrency("GBP");
         accountInfo.setAccountStatus("ACTIVE");
         accountInfoList.add(accountInfo);
 
         accountInfo = new AccountInfo();
         accountInfo.setAccountId(2222L);
-        accountInfo.setBalance(new BigDecimal(1000));
+        accountInfo.setBalance(Money.parse("1000.00", "GBP"));
         accountInfo.setCurrency("GBP");
         accountInfo.setAccountStatus("ACTIVE");
         accountInfoList.add(accountInfo);
@@ -1,18 +1,27 @@
 package com.mc.ibpts.paymentapp.controller;
 
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -31,6 +40,59 @@ class AccountsV1ControllerTest {
                 .andExpect(content().string(containsString("\"account_id\":111")));
     }
 
+    @Test
+    void v1AccountsGet_PagesWithFilters() throws Exception {
+        MvcResult firstPage = this.mockMvc.perform(get("/v1/accounts")
+                        .param("page_size", "2")
+                        .param("account_status", "ACTIVE")
+                        .param("currency", "GBP")
+                        .header("Authorization", "Basic YWRtaW46JGVDNkV0"))
+                .andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.accounts[0].account_id").value(111))
+                .andExpect(jsonPath("$.accounts[1].account_id").value(222))
+                .andExpect(jsonPath("$.next_cursor").exists())
+                .andReturn();
+        String nextCursor = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.next_cursor");
+
+        /* 666 is DELETED and 555, 777 are NOK. */
+        this.mockMvc.perform(get("/v1/accounts")
+                        .param("page_size", "2")
+                        .param("cursor", nextCursor)
+                        .param("account_status", "ACTIVE")
+                        .param("currency", "GBP")
+                        .header("Authorization", "Basic YWRtaW46JGVDNkV0"))
+                .andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.accounts[0].account_id").value(333))
+                .andExpect(jsonPath("$.accounts[1].account_id").value(444))
+                .andExpect(jsonPath("$.next_cursor").exists());
+    }
+
+    @Test
+    void v1AccountsGet_NotModified() throws Exception {
+        MvcResult result = this.mockMvc.perform(get("/v1/accounts")
+                        .header("Authorization", "Basic YWRtaW46JGVDNkV0"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+        String etag = result.getResponse().getHeader("ETag");
+
+        this.mockMvc.perform(get("/v1/accounts")
+                        .header("Authorization", "Basic YWRtaW46JGVDNkV0")
+                        .header("If-None-Match", etag))
+                .andDo(print()).andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void v1AccountsGet_InvalidCursor() throws Exception {
+        this.mockMvc.perform(get("/v1/accounts")
+                        .param("cursor", "not-a-cursor")
+                        .header("Authorization", "Basic YWRtaW46JGVDNkV0"))
+                .andDo(print()).andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Invalid accounts cursor.")));
+    }
+
     @Test
     void v1AccountsGet_Unauthorized() throws Exception {
         this.mockMvc.perform(get("/v1/accounts")).andDo(print()).andExpect(status().isUnauthorized())
@@ -45,6 +107,31 @@ class AccountsV1ControllerTest {
                 .andExpect(content().string(containsString("\"account_id\":111")));
     }
 
+    @Test
+    void v1AccountsBalancesBatchGet() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/accounts/balances:batchGet");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        mockHttpServletRequestBuilder.content("{\"account_ids\": [777, 111, 123, 777]}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.balances.length()").value(2))
+                .andExpect(jsonPath("$.balances[0].account_id").value(777))
+                .andExpect(jsonPath("$.balances[0].currency").value("NOK"))
+                .andExpect(jsonPath("$.balances[1].account_id").value(111))
+                .andExpect(jsonPath("$.missing_account_ids[0]").value(123));
+    }
+
+    @Test
+    void v1AccountsBalancesBatchGet_Exception_ValidationError() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/accounts/balances:batchGet");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        mockHttpServletRequestBuilder.content("{\"account_ids\": []}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isBadRequest());
+    }
+
     @Test
     void v1AccountsAccountIdStatementsMiniGet() throws Exception {
         MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/accounts/111/statements/mini");
@@ -53,7 +140,101 @@ class AccountsV1ControllerTest {
                 .andExpect(content().string(containsString("\"account_id\":444")));
     }
 
+    @Test
+    void v1AccountsAccountIdStatementsGet_Success_DateRange() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/accounts/111/statements")
+                .param("from_date", "2020-04-21T00:00:00Z")
+                .param("to_date", "2020-04-23T00:00:00Z");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions.length()").value(1))
+                .andExpect(jsonPath("$.transactions[0].account_id").value(999))
+                .andExpect(jsonPath("$.next_cursor").doesNotExist());
+    }
+
+    @Test
+    void v1AccountsAccountIdStatementsGet_Success_NextPageFromCursor() throws Exception {
+        MockHttpServletRequestBuilder firstPageRequestBuilder = get("/v1/accounts/333/statements")
+                .param("to_date", "2021-01-01T00:00:00Z")
+                .param("page_size", "1");
+        firstPageRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        MvcResult firstPage = this.mockMvc.perform(firstPageRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions.length()").value(1))
+                .andExpect(jsonPath("$.transactions[0].account_id").value(222))
+                .andExpect(jsonPath("$.transactions[0].type").value("CREDIT"))
+                .andReturn();
+        String nextCursor = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.next_cursor");
+
+        MockHttpServletRequestBuilder secondPageRequestBuilder = get("/v1/accounts/333/statements")
+                .param("to_date", "2021-01-01T00:00:00Z")
+                .param("page_size", "1")
+                .param("cursor", nextCursor);
+        secondPageRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        this.mockMvc.perform(secondPageRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions.length()").value(1))
+                .andExpect(jsonPath("$.transactions[0].account_id").value(444))
+                .andExpect(jsonPath("$.transactions[0].type").value("DEBIT"))
+                .andExpect(jsonPath("$.next_cursor").doesNotExist());
+    }
+
+    @Test
+    void v1AccountsAccountIdStatementsGet_Exception_InvalidCursor() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/accounts/111/statements")
+                .param("cursor", "not-a-cursor");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Invalid statement cursor.")));
+    }
+
+
+
+    @Test
+    void v1TransactionsExportGet_Success_AccountAsNdjson() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/transactions/export")
+                .param("account_id", "555");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        MvcResult mvcResult = this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-ndjson"))
+                .andReturn();
+        /* Most recent first, the seeded transaction is the oldest one. */
+        String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+        String oldest = lines[lines.length - 1];
+        assertEquals(Integer.valueOf(555), JsonPath.read(oldest, "$.sender_account_id"));
+        assertEquals(Integer.valueOf(111), JsonPath.read(oldest, "$.receiver_account_id"));
+        assertEquals("10.00", JsonPath.read(oldest, "$.amount"));
+        assertEquals("2020-04-24T12:58:52.123400", JsonPath.read(oldest, "$.transaction_date"));
+    }
+
+    @Test
+    void v1TransactionsExportGet_Success_AllAsGzippedCsv() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/transactions/export")
+                .param("format", "csv");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0")
+                .header("Accept-Encoding", "gzip");
+        MvcResult mvcResult = this.mockMvc.perform(mockHttpServletRequestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn();
+        String csv;
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(
+                new ByteArrayInputStream(mvcResult.getResponse().getContentAsByteArray()))) {
+            csv = new String(gzipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String[] lines = csv.split("\n");
+        assertEquals("id,sender_account_id,receiver_account_id,amount,currency,transaction_date,reference_id", lines[0]);
+        assertTrue(lines.length > 6);
+        assertTrue(lines[1].startsWith("1,111,222,200.00,GBP,2020-04-20T12:58:52.123400,"));
+    }
 
+    @Test
+    void v1TransactionsExportGet_Exception_InvalidFormat() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = get("/v1/transactions/export")
+                .param("format", "xml");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Invalid export format, it should be ndjson or csv.")));
+    }
 
     @Test
     void v1PaymentsTransferPost_Success() throws Exception {
@@ -72,6 +253,50 @@ class AccountsV1ControllerTest {
                 .andExpect(content().string(containsString("Transfer completed successfully")));
     }
 
+    @Test
+    void v1PaymentsTransferPost_Success_RetryReplaysResponse() throws Exception {
+        for (String amount : new String[]{"2.50", "3.75"}) {
+            MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer");
+            mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0")
+                    .header("Idempotency-Key", "replay-key");
+            mockHttpServletRequestBuilder.content("{\n" +
+                    "  \"sender_account_id\": 111,\n" +
+                    "  \"receiver_account_id\": 222,\n" +
+                    "  \"amount\": \"" + amount + "\",\n" +
+                    "  \"currency\": \"GBP\"\n" +
+                    "}");
+            mockHttpServletRequestBuilder.contentType("application/json");
+
+            /* The retry is answered with the response of the first request, without making another transfer. */
+            this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isAccepted())
+                    .andExpect(content().string(containsString("\"amount\":\"2.50\"")));
+        }
+    }
+
+    @Test
+    void v1AccountsAccountIdBalanceGet_Success_RefreshedAfterTransfer() throws Exception {
+        MockHttpServletRequestBuilder balanceRequestBuilder = get("/v1/accounts/777/balance");
+        balanceRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        this.mockMvc.perform(balanceRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"balance\":\"800.00\"")));
+
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0")
+                .header("Idempotency-Key", "refresh-key");
+        mockHttpServletRequestBuilder.content("{\n" +
+                "  \"sender_account_id\": 777,\n" +
+                "  \"receiver_account_id\": 555,\n" +
+                "  \"amount\": \"1.00\",\n" +
+                "  \"currency\": \"NOK\"\n" +
+                "}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isAccepted());
+
+        /* The cached response of the account is invalidated by the transfer. */
+        this.mockMvc.perform(balanceRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"balance\":\"799.00\"")));
+    }
+
     @Test
     void v1PaymentsTransferPost_Exception_InvalidContentType() throws Exception {
         MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer");
@@ -185,4 +410,54 @@ class AccountsV1ControllerTest {
         this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isBadRequest())
                 .andExpect(content().string(containsString("Insufficient funds, not able to perform the transaction.")));
     }
-}
\ No newline at end of file
+
+    @Test
+    void v1PaymentsTransferBatchPost_Success_PerItemResults() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer/batch");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        mockHttpServletRequestBuilder.content("{\n" +
+                "  \"transfers\": [\n" +
+                "    {\"idempotency_key\": \"batch-key-1\", \"payment_transfer_request\": {\"sender_account_id\": 333, \"receiver_account_id\": 222, \"amount\": \"1.00\", \"currency\": \"GBP\"}},\n" +
+                "    {\"idempotency_key\": \"batch-key-2\", \"payment_transfer_request\": {\"sender_account_id\": 444, \"receiver_account_id\": 222, \"amount\": \"90000.00\", \"currency\": \"GBP\"}},\n" +
+                "    {\"idempotency_key\": \"batch-key-1\", \"payment_transfer_request\": {\"sender_account_id\": 333, \"receiver_account_id\": 222, \"amount\": \"1.00\", \"currency\": \"GBP\"}}\n" +
+                "  ]\n" +
+                "}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isOk())
+                .andExpect(content().string(containsString("{\"idempotency_key\":\"batch-key-1\",\"code\":202")))
+                .andExpect(content().string(containsString("Insufficient funds, not able to perform the transaction.")))
+                .andExpect(content().string(containsString("Duplicate Idempotency-Key, please try again with a new key.")));
+    }
+
+    @Test
+    void v1PaymentsTransferBatchPost_Success_LargeBatch() throws Exception {
+        StringBuilder transfers = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            transfers.append(i == 0 ? "" : ",")
+                    .append("{\"idempotency_key\": \"large-batch-key-").append(i)
+                    .append("\", \"payment_transfer_request\": {\"sender_account_id\": 999, \"receiver_account_id\": ")
+                    .append(i % 2 == 0 ? 111 : 333)
+                    .append(", \"amount\": \"0.01\", \"currency\": \"GBP\"}}");
+        }
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer/batch");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        mockHttpServletRequestBuilder.content("{\"transfers\": [" + transfers + "]}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andExpect(status().isOk())
+                .andExpect(content().string(containsString("\"idempotency_key\":\"large-batch-key-999\",\"code\":202")))
+                .andExpect(content().string(not(containsString("\"code\":400"))));
+    }
+
+    @Test
+    void v1PaymentsTransferBatchPost_Exception_ValidationError() throws Exception {
+        MockHttpServletRequestBuilder mockHttpServletRequestBuilder = post("/v1/payments/transfer/batch");
+        mockHttpServletRequestBuilder.header("Authorization", "Basic YWRtaW46JGVDNkV0");
+        mockHttpServletRequestBuilder.content("{\"transfers\": []}");
+        mockHttpServletRequestBuilder.contentType("application/json");
+
+        this.mockMvc.perform(mockHttpServletRequestBuilder).andDo(print()).andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("size must be between 1 and 1000")));
+    }
+}
@@ -0,0 +1,67 @@
+package com.mc.ibpts.paymentapp.dvo;
+
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+class MoneyTest {
+
+    @Test
+    void parse_Success() {
+        Assertions.assertEquals(100005L, Money.parse("1000.05", "GBP").getMinorUnits());
+        Assertions.assertEquals(0L, Money.parse("0.00", "GBP").getMinorUnits());
+        Assertions.assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07", "GBP").getMinorUnits());
+        Assertions.assertEquals("NOK", Money.parse("1.00", "NOK").getCurrency());
+    }
+
+    @Test
+    void parse_Failed_InvalidFormat() {
+        for (String amount : new String[]{null, "", "1", "1.0", ".00", "10.005", "1,000.00", "-1.00", "1a.00", "1.0a",
+                "92233720368547758.08"}) {
+            CustomBusinessException e = Assertions.assertThrows(
+                    CustomBusinessException.class, () -> Money.parse(amount, "GBP"), String.valueOf(amount));
+            Assertions.assertEquals(400, e.getHttpStatus().value());
+        }
+    }
+
+    @Test
+    void format_Success() {
+        Assertions.assertEquals("0.05", Money.ofMinorUnits(5, "GBP").format());
+        Assertions.assertEquals("999.99", Money.ofMinorUnits(99999, "GBP").format());
+        Assertions.assertEquals("1,000.00", Money.ofMinorUnits(100000, "GBP").format());
+        Assertions.assertEquals("-1,234,567,890.05", Money.ofMinorUnits(-123456789005L, "GBP").format());
+        Assertions.assertEquals("-92,233,720,368,547,758.08", Money.ofMinorUnits(Long.MIN_VALUE, "GBP").format());
+        Assertions.assertEquals("1000.00", Money.ofMinorUnits(100000, "GBP").toString());
+    }
+
+    @Test
+    void arithmetic_Success() {
+        Money balance = Money.parse("10.00", "GBP");
+        Money amount = Money.parse("2.55", "GBP");
+        Assertions.assertEquals(Money.parse("7.45", "GBP"), balance.subtract(amount));
+        Assertions.assertEquals(Money.parse("12.55", "GBP"), balance.add(amount));
+        Assertions.assertEquals(-255L, amount.negate().getMinorUnits());
+        Assertions.assertTrue(amount.isLessThan(balance));
+        Assertions.assertFalse(balance.isLessThan(balance));
+        Assertions.assertThrows(ArithmeticException.class,
+                () -> Money.ofMinorUnits(Long.MAX_VALUE, "GBP").add(Money.ofMinorUnits(1, "GBP")));
+    }
+
+    @Test
+    void arithmetic_Failed_CurrencyMismatch() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Money.parse("1.00", "GBP").add(Money.parse("1.00", "NOK")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Money.parse("1.00", "GBP").isLessThan(Money.parse("1.00", "NOK")));
+    }
+
+    @Test
+    void bigDecimal_Success_RoundTrip() {
+        Assertions.assertEquals(Money.ofMinorUnits(20098, "GBP"), Money.fromBigDecimal(new BigDecimal("200.98"), "GBP"));
+        Assertions.assertEquals(Money.ofMinorUnits(1000, "GBP"), Money.fromBigDecimal(new BigDecimal("10"), "GBP"));
+        Assertions.assertEquals(new BigDecimal("-200.98"), Money.ofMinorUnits(-20098, "GBP").toBigDecimal());
+        Assertions.assertNull(Money.fromBigDecimal(null, "GBP"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.TestSupportUtils;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.AccountSnapshot;
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+class AccountSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static AccountSnapshot accountSnapshot(long highWaterMark) {
+        return new AccountSnapshot(highWaterMark, Arrays.asList(
+                TestSupportUtils.getOptionalAccountInfo().orElseThrow(),
+                TestSupportUtils.getOptionalDeletedAccountInfo().orElseThrow()));
+    }
+
+    @Test
+    void write_Success_LoadedBack() {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        Assertions.assertTrue(accountSnapshotStore.load().isEmpty());
+
+        accountSnapshotStore.write(accountSnapshot(3));
+        /* The latest snapshot replaces the previous one. */
+        accountSnapshotStore.write(accountSnapshot(7));
+        AccountSnapshot accountSnapshot = accountSnapshotStore.load().orElseThrow();
+        Assertions.assertEquals(7, accountSnapshot.getHighWaterMark());
+        List<AccountInfo> accountInfoList = accountSnapshot.getAccountInfoList();
+        Assertions.assertEquals(2, accountInfoList.size());
+        Assertions.assertEquals(1234L, accountInfoList.get(0).getAccountId());
+        Assertions.assertEquals("GBP", accountInfoList.get(0).getCurrency());
+        Assertions.assertEquals(Money.parse("1000.00", "GBP"), accountInfoList.get(0).getBalance());
+        Assertions.assertEquals("ACTIVE", accountInfoList.get(0).getAccountStatus());
+        Assertions.assertEquals("DELETED", accountInfoList.get(1).getAccountStatus());
+    }
+
+    @Test
+    void write_Success_StreamedAccountsLoadedBack() {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        /* Enough accounts to flush the write buffer several times. */
+        int count = 10000;
+        accountSnapshotStore.write(11, null, accountConsumer -> {
+            for (long accountId = 1; accountId <= count; accountId++) {
+                AccountInfo accountInfo = TestSupportUtils.getOptionalAccountInfo().orElseThrow();
+                accountInfo.setAccountId(accountId);
+                accountInfo.setBalance(Money.ofMinorUnits(accountId, "GBP"));
+                accountConsumer.accept(accountInfo);
+            }
+        });
+        AccountSnapshot accountSnapshot = accountSnapshotStore.load().orElseThrow();
+        Assertions.assertEquals(11, accountSnapshot.getHighWaterMark());
+        Assertions.assertEquals(count, accountSnapshot.getAccountInfoList().size());
+        AccountInfo lastAccountInfo = accountSnapshot.getAccountInfoList().get(count - 1);
+        Assertions.assertEquals(count, lastAccountInfo.getAccountId());
+        Assertions.assertEquals(Money.ofMinorUnits(count, "GBP"), lastAccountInfo.getBalance());
+    }
+
+    @Test
+    void write_Success_FilterBitsLoadedBack() {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        Assertions.assertNull(accountSnapshot(3).getIdempotencyKeyFilterBits());
+        /* Enough words to flush the write buffer before the accounts. */
+        long[] bits = new long[20000];
+        Arrays.fill(bits, 0x5555555555555555L);
+        bits[bits.length - 1] = -1L;
+        LocalDateTime keysCreatedFrom = LocalDateTime.of(2026, 3, 1, 10, 15, 30, 123_000_000);
+        accountSnapshotStore.write(new AccountSnapshot(3, accountSnapshot(3).getAccountInfoList(),
+                new IdempotencyKeyFilterBits(keysCreatedFrom, 7, bits)));
+
+        AccountSnapshot accountSnapshot = accountSnapshotStore.load().orElseThrow();
+        Assertions.assertEquals(2, accountSnapshot.getAccountInfoList().size());
+        IdempotencyKeyFilterBits filterBits = accountSnapshot.getIdempotencyKeyFilterBits();
+        Assertions.assertEquals(keysCreatedFrom, filterBits.getKeysCreatedFrom());
+        Assertions.assertEquals(7, filterBits.getHashFunctions());
+        Assertions.assertArrayEquals(bits, filterBits.getBits());
+    }
+
+    @Test
+    void write_Failed_PreviousSnapshotKept() {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        accountSnapshotStore.write(accountSnapshot(3));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> accountSnapshotStore.write(7, null, accountConsumer -> {
+            accountConsumer.accept(TestSupportUtils.getOptionalAccountInfo().orElseThrow());
+            throw new IllegalStateException("Database read failed");
+        }));
+        Assertions.assertEquals(3, accountSnapshotStore.load().orElseThrow().getHighWaterMark());
+        Assertions.assertFalse(directory.resolve(AccountSnapshotStore.FILE_NAME + ".tmp").toFile().exists());
+    }
+
+    @Test
+    void load_Failed_CorruptSnapshotIgnored() throws Exception {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        accountSnapshotStore.write(accountSnapshot(3));
+
+        /* Corrupting the balance of the first account. */
+        try (FileChannel channel = FileChannel.open(
+                directory.resolve(AccountSnapshotStore.FILE_NAME), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1}), 52);
+        }
+        Assertions.assertEquals(Optional.empty(), accountSnapshotStore.load());
+    }
+
+    @Test
+    void load_Failed_Disabled() {
+        new AccountSnapshotStore(true, directory.toString()).write(accountSnapshot(3));
+        Assertions.assertTrue(new AccountSnapshotStore(false, directory.toString()).load().isEmpty());
+    }
+}
@@ -1,12 +1,21 @@
 package com.mc.ibpts.paymentapp.repository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mc.ibpts.paymentapp.TestSupportUtils;
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.AccountSnapshot;
+import com.mc.ibpts.paymentapp.dvo.Money;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.repository.utils.IdempotencyKeyFilter;
+import com.mc.ibpts.paymentapp.repository.utils.MiniStatementIndex;
+import com.mc.ibpts.paymentapp.utils.AccountResponseCache;
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.CacheConfiguration;
 import org.ehcache.config.CacheRuntimeConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.core.Ehcache;
 import org.ehcache.spi.loaderwriter.BulkCacheLoadingException;
 import org.ehcache.spi.loaderwriter.BulkCacheWritingException;
@@ -16,11 +25,16 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 import static com.mc.ibpts.paymentapp.TestSupportUtils.MOCKED_CACHE;
@@ -32,12 +46,16 @@ class CachedRepositoryServiceImplTest {
     private CachedRepositoryServiceImpl cachedRepositoryService;
     private  CacheManager cacheManager;
     private RepositoryService repositoryService;
+    private IdempotencyKeyFilter idempotencyKeyFilter;
 
     @BeforeAll
     public void init() {
         this.cacheManager = Mockito.mock(CacheManager.class);;
         this.repositoryService = Mockito.mock(RepositoryService.class);
-        this.cachedRepositoryService = new CachedRepositoryServiceImpl(cacheManager, repositoryService);
+        this.idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        this.cachedRepositoryService = new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, new MiniStatementIndex(), idempotencyKeyFilter,
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
     }
 
 
@@ -105,14 +123,16 @@ class CachedRepositoryServiceImplTest {
 
     @Test
     void fetchMiniStatementByAccountId() {
-        Mockito.when(repositoryService.fetchAllTransactionInfo())
+        Mockito.when(repositoryService.fetchMiniStatementByAccountId(Mockito.eq(1234L)))
                 .thenReturn(TestSupportUtils.getTransactionInfoList());
-        Cache mockCache = Mockito.mock(Cache.class);
-        Mockito.when(cacheManager.getCache(Mockito.eq("transactions"), Mockito.any(), Mockito.any())).thenReturn(mockCache);
         List<TransactionInfo> transactionInfoList = cachedRepositoryService.fetchMiniStatementByAccountId(1234L);
 
         Assertions.assertFalse(transactionInfoList.isEmpty());
         Assertions.assertEquals(3, transactionInfoList.size());
+
+        /* Loaded once from database, served from the index afterwards. */
+        cachedRepositoryService.fetchMiniStatementByAccountId(1234L);
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchMiniStatementByAccountId(Mockito.eq(1234L));
     }
 
     @Test
@@ -131,6 +151,28 @@ class CachedRepositoryServiceImplTest {
 
     }
 
+    @Test
+    void saveTransactionDetails_Success_IndexedOnceCommitted() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        miniStatementIndex.warm(Arrays.asList(1234L, 1111L), Collections.emptyList());
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, miniStatementIndex, new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cachedRepositoryService.saveTransactionDetails(transactionInfo);
+            Assertions.assertTrue(cachedRepositoryService.fetchMiniStatementByAccountId(1234L).isEmpty());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        Assertions.assertEquals(Collections.singletonList(transactionInfo),
+                cachedRepositoryService.fetchMiniStatementByAccountId(1234L));
+    }
+
     @Test
     void updateBalanceInfo() {
         Cache mockCache = Mockito.mock(Cache.class);
@@ -138,6 +180,328 @@ class CachedRepositoryServiceImplTest {
         Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1234L)))
                 .thenReturn(TestSupportUtils.getOptionalAccountInfo());
         Mockito.when(cacheManager.getCache(Mockito.eq("accounts"), Mockito.any(), Mockito.any())).thenReturn(mockCache);
-        cachedRepositoryService.updateBalanceInfo(1234L, BigDecimal.valueOf(1000));
+        cachedRepositoryService.updateBalanceInfo(1234L, Money.parse("1000.00", "GBP"));
+    }
+
+    @Test
+    void fetchExistingIdempotencyKeys() {
+        Arrays.asList("idem-key", "idem-key2", "idem-key3").forEach(idempotencyKeyFilter::put);
+        Cache mockCache = Mockito.mock(Cache.class);
+        Mockito.when(cacheManager.getCache(Mockito.eq("idempotency"), Mockito.any(), Mockito.any())).thenReturn(mockCache);
+        Mockito.when(mockCache.containsKey(Mockito.eq("idem-key"))).thenReturn(true);
+        Mockito.when(repositoryService.fetchExistingIdempotencyKeys(Mockito.eq(Arrays.asList("idem-key2", "idem-key3"))))
+                .thenReturn(Collections.singleton("idem-key2"));
+
+        Set<String> existingIdempotencyKeys = cachedRepositoryService.fetchExistingIdempotencyKeys(
+                Arrays.asList("idem-key", "idem-key2", "idem-key3"));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("idem-key", "idem-key2")), existingIdempotencyKeys);
+    }
+
+    @Test
+    void saveTransferBatch() {
+        Cache mockCache = Mockito.mock(Cache.class);
+        Mockito.when(cacheManager.getCache(Mockito.anyString(), Mockito.any(), Mockito.any())).thenReturn(mockCache);
+        Mockito.when(repositoryService.saveTransferBatch(Mockito.anyList(), Mockito.anyList()))
+                .thenReturn(TestSupportUtils.getAccountInfoList());
+
+        List<AccountInfo> accountInfoList = cachedRepositoryService.saveTransferBatch(
+                Collections.singletonList("idem-key"), TestSupportUtils.getTransactionInfoList().subList(0, 1));
+        Assertions.assertEquals(3, accountInfoList.size());
+        Mockito.verify(mockCache, Mockito.times(1)).put(Mockito.eq(1234L), Mockito.any());
+    }
+
+    @Test
+    void transferFunds() {
+        Cache mockCache = Mockito.mock(Cache.class);
+        Mockito.when(cacheManager.getCache(Mockito.anyString(), Mockito.any(), Mockito.any())).thenReturn(mockCache);
+        Mockito.when(mockCache.get(Mockito.eq(1234L))).thenReturn(TestSupportUtils.getOptionalAccountInfo().get());
+        Mockito.when(repositoryService.transferFunds(Mockito.any()))
+                .thenReturn(Map.of(1234L, Money.parse("877.00", "GBP"), 1111L, Money.parse("2123.00", "GBP")));
+
+        Map<Long, Money> balances = cachedRepositoryService.transferFunds(
+                TestSupportUtils.getTransactionInfoList().get(0));
+        Assertions.assertEquals(2, balances.size());
+        /* Only the cached account is refreshed, without re-reading it from database. */
+        Mockito.verify(mockCache, Mockito.times(1)).put(Mockito.eq(1234L),
+                Mockito.argThat((AccountInfo accountInfo) -> Money.parse("877.00", "GBP").equals(accountInfo.getBalance())));
+        Mockito.verify(mockCache, Mockito.never()).put(Mockito.eq(1111L), Mockito.any());
+        Mockito.verify(repositoryService, Mockito.never()).fetchAccountInfo(Mockito.anyLong());
+    }
+
+    @Test
+    void transferFunds_Success_CachedOnceCommitted() {
+        CacheManager accountsCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllAccountInfo())
+                .thenReturn(Collections.singletonList(TestSupportUtils.getOptionalAccountInfo().get()));
+        Mockito.when(repositoryService.transferFunds(Mockito.any()))
+                .thenReturn(Map.of(1234L, Money.parse("877.00", "GBP"), 1111L, Money.parse("2123.00", "GBP")));
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                accountsCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cachedRepositoryService.transferFunds(TestSupportUtils.getTransactionInfoList().get(0));
+            /* Readers keep the committed balance until the transfer commits, a rollback would leave it as is. */
+            Assertions.assertEquals(Money.parse("1000.00", "GBP"),
+                    cachedRepositoryService.fetchAccountInfo(1234L).orElseThrow().getBalance());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        Assertions.assertEquals(Money.parse("877.00", "GBP"),
+                cachedRepositoryService.fetchAccountInfo(1234L).orElseThrow().getBalance());
+        accountsCacheManager.close();
+    }
+
+    @Test
+    void fetchAllTransactionInfo_EvictedFromCache_FetchedFromDB() {
+        CacheManager boundedCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("transactions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, TransactionInfo.class, ResourcePoolsBuilder.heap(3)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllTransactionInfo()).thenReturn(TestSupportUtils.getTransactionInfoList());
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                boundedCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        /* All the transactions fit in cache, so no database access after warm up. */
+        Assertions.assertEquals(3, cachedRepositoryService.fetchAllTransactionInfo().size());
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAllTransactionInfo();
+
+        /* The fourth transaction evicts one from cache, readers fall back to database instead of a partial list. */
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+        transactionInfo.setId(4L);
+        cachedRepositoryService.saveTransactionDetails(transactionInfo);
+        Assertions.assertEquals(3, cachedRepositoryService.fetchAllTransactionInfo().size());
+        Mockito.verify(repositoryService, Mockito.times(2)).fetchAllTransactionInfo();
+        boundedCacheManager.close();
+    }
+
+    @Test
+    void init_Success_WarmedFromSnapshotAndLaterTransactions(@TempDir Path directory) {
+        CacheManager snapshotCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("transactions", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, TransactionInfo.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        IdempotencyKeyFilter snapshotFilter = new IdempotencyKeyFilter(1000, 0.01);
+        snapshotFilter.put("snapshot-key");
+        /* Kept to the millisecond in the snapshot. */
+        LocalDateTime keysCreatedFrom = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        accountSnapshotStore.write(new AccountSnapshot(1L, Arrays.asList(
+                TestSupportUtils.getOptionalAccountInfo().get(), TestSupportUtils.getOptionalAccountInfo2().get()),
+                snapshotFilter.copy(keysCreatedFrom)));
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+        transactionInfo.setId(2L);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchLastTransactionId()).thenReturn(2L);
+        Mockito.when(repositoryService.fetchTransactionInfoAfter(Mockito.eq(1L)))
+                .thenReturn(Collections.singletonList(transactionInfo));
+        Mockito.when(repositoryService.fetchIdempotencyKeysCreatedFrom(Mockito.eq(keysCreatedFrom)))
+                .thenReturn(Collections.singletonList("later-key"));
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                snapshotCacheManager, repositoryService, new MiniStatementIndex(), idempotencyKeyFilter,
+                new AccountResponseCache(new ObjectMapper()), accountSnapshotStore);
+
+        /* Only the transaction after the snapshot is replayed, nothing else is read from database. */
+        Assertions.assertEquals(Money.parse("877.00", "GBP"),
+                cachedRepositoryService.fetchAccountInfo(1234L).orElseThrow().getBalance());
+        Assertions.assertEquals(Money.parse("2123.00", "GBP"),
+                cachedRepositoryService.fetchAccountInfo(1111L).orElseThrow().getBalance());
+        Mockito.verify(repositoryService, Mockito.never()).fetchAllAccountInfo();
+        Mockito.verify(repositoryService, Mockito.never()).fetchAllTransactionInfo();
+        Mockito.verify(repositoryService, Mockito.never()).fetchAccountInfo(Mockito.anyLong());
+        /* The filter is restored from the snapshot, only the keys created since are read. */
+        Mockito.verify(repositoryService, Mockito.never()).fetchAllIdempotencyKeys();
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("snapshot-key"));
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("later-key"));
+
+        /* Older transactions are not in cache, all the transactions are read from database. */
+        cachedRepositoryService.fetchAllTransactionInfo();
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAllTransactionInfo();
+        snapshotCacheManager.close();
+    }
+
+    @Test
+    void init_Success_SnapshotAheadOfDatabaseIgnored(@TempDir Path directory) {
+        AccountSnapshotStore accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        accountSnapshotStore.write(new AccountSnapshot(5L,
+                Collections.singletonList(TestSupportUtils.getOptionalAccountInfo().get())));
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchLastTransactionId()).thenReturn(3L);
+        new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), accountSnapshotStore);
+
+        Mockito.verify(repositoryService, Mockito.never()).fetchTransactionInfoAfter(Mockito.anyLong());
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAllTransactionInfo();
+    }
+
+    @Test
+    void fetchAccountInfo_NotFoundInDB_NegativeCached() {
+        CacheManager missingAccountsCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("missingAccounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, String.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(9999L))).thenReturn(Optional.empty());
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                missingAccountsCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        Assertions.assertTrue(cachedRepositoryService.fetchAccountInfo(9999L).isEmpty());
+        Assertions.assertTrue(cachedRepositoryService.fetchAccountInfo(9999L).isEmpty());
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAccountInfo(Mockito.eq(9999L));
+        missingAccountsCacheManager.close();
+    }
+
+    @Test
+    void fetchAccountInfo_Success_LoadKeepsAccountRefreshedMeanwhile() {
+        CacheManager accountsCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("missingAccounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, String.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        AccountInfo refreshedAccountInfo = TestSupportUtils.getOptionalAccountInfo().get();
+        refreshedAccountInfo.setBalance(Money.parse("877.00", "GBP"));
+        /* A transfer committed while the account is read refreshes the cache with its new balance. */
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1234L))).thenAnswer(invocation -> {
+            accountsCacheManager.getCache("accounts", Long.class, AccountInfo.class).put(1234L, refreshedAccountInfo);
+            return TestSupportUtils.getOptionalAccountInfo();
+        });
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                accountsCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        Assertions.assertEquals(Money.parse("877.00", "GBP"),
+                cachedRepositoryService.fetchAccountInfo(1234L).orElseThrow().getBalance());
+        Assertions.assertEquals(Money.parse("877.00", "GBP"), accountsCacheManager
+                .getCache("accounts", Long.class, AccountInfo.class).get(1234L).getBalance());
+        accountsCacheManager.close();
+    }
+
+    @Test
+    void fetchAccountInfoByIds_MissesFetchedOnce() {
+        CacheManager accountsCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("accounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, AccountInfo.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("missingAccounts", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        Long.class, String.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllAccountInfo())
+                .thenReturn(Collections.singletonList(TestSupportUtils.getOptionalAccountInfo().get()));
+        Mockito.when(repositoryService.fetchAccountInfoByIds(Mockito.eq(Set.of(1111L, 9999L))))
+                .thenReturn(Collections.singletonList(TestSupportUtils.getOptionalAccountInfo2().get()));
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                accountsCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        Assertions.assertEquals(2, cachedRepositoryService.fetchAccountInfoByIds(List.of(1234L, 1111L, 9999L)).size());
+        /* 1111 is now cached and 9999 known to be missing, nothing left for the database. */
+        Assertions.assertEquals(2, cachedRepositoryService.fetchAccountInfoByIds(List.of(1234L, 1111L, 9999L)).size());
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAccountInfoByIds(Mockito.anyCollection());
+        accountsCacheManager.close();
+    }
+
+    @Test
+    void fetchExistingIdempotencyKeys_NewKeysNotLookedUp() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllIdempotencyKeys()).thenReturn(Collections.singletonList("used-key"));
+        Mockito.when(repositoryService.fetchExistingIdempotencyKeys(Mockito.anyCollection()))
+                .thenReturn(Collections.singleton("used-key"));
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        Set<String> existingIdempotencyKeys = cachedRepositoryService.fetchExistingIdempotencyKeys(
+                Arrays.asList("used-key", "new-key"));
+        Assertions.assertEquals(Collections.singleton("used-key"), existingIdempotencyKeys);
+        /* Only the key found in filter is checked in database. */
+        Mockito.verify(repositoryService, Mockito.times(1))
+                .fetchExistingIdempotencyKeys(Mockito.eq(Collections.singletonList("used-key")));
+    }
+
+    @Test
+    void purgeIdempotencyKeys_FilterRebuilt() {
+        /* Rebuilt after any purge. */
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01, 0.0);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllIdempotencyKeys())
+                .thenReturn(Arrays.asList("expired-key", "used-key"))
+                .thenReturn(Collections.singletonList("used-key"));
+        Mockito.when(repositoryService.purgeIdempotencyKeys(Mockito.any())).thenReturn(1);
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, new MiniStatementIndex(), idempotencyKeyFilter,
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("expired-key"));
+
+        Assertions.assertEquals(1, cachedRepositoryService.purgeIdempotencyKeys(LocalDateTime.now()));
+        Assertions.assertFalse(idempotencyKeyFilter.mightContain("expired-key"));
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("used-key"));
+    }
+
+    @Test
+    void purgeIdempotencyKeys_FilterKeptWithinRebuildFpp() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAllIdempotencyKeys()).thenReturn(Arrays.asList("expired-key", "used-key"));
+        Mockito.when(repositoryService.purgeIdempotencyKeys(Mockito.any())).thenReturn(1);
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                cacheManager, repositoryService, new MiniStatementIndex(), idempotencyKeyFilter,
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        Assertions.assertEquals(1, cachedRepositoryService.purgeIdempotencyKeys(LocalDateTime.now()));
+        /* Only read on startup, the purged key left in the filter. */
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAllIdempotencyKeys();
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("used-key"));
+    }
+
+    @Test
+    void fetchIdempotentResponses_CacheThenDatabase() {
+        CacheManager responsesCacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("idempotency", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, String.class, ResourcePoolsBuilder.heap(10)))
+                .withCache("idempotentResponses", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, String.class, ResourcePoolsBuilder.heap(10)))
+                .build(true);
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchIdempotentResponses(Mockito.anyCollection()))
+                .thenReturn(Collections.singletonMap("db-key", "db-response"));
+        CachedRepositoryServiceImpl cachedRepositoryService = new CachedRepositoryServiceImpl(
+                responsesCacheManager, repositoryService, new MiniStatementIndex(), new IdempotencyKeyFilter(1000, 0.01),
+                new AccountResponseCache(new ObjectMapper()), new AccountSnapshotStore(false, ""));
+
+        cachedRepositoryService.saveIdempotentResponses(Collections.singletonMap("cached-key", "cached-response"));
+        Map<String, String> responses = cachedRepositoryService.fetchIdempotentResponses(
+                Arrays.asList("cached-key", "db-key"));
+        Assertions.assertEquals(Map.of("cached-key", "cached-response", "db-key", "db-response"), responses);
+        Mockito.verify(repositoryService, Mockito.times(1))
+                .fetchIdempotentResponses(Mockito.eq(Collections.singletonList("db-key")));
+
+        /* Responses found in database are served from cache afterwards. */
+        cachedRepositoryService.fetchIdempotentResponses(Collections.singletonList("db-key"));
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchIdempotentResponses(Mockito.anyCollection());
+
+        cachedRepositoryService.insertIdempotencyKey("released-key");
+        cachedRepositoryService.deleteIdempotencyKey("released-key");
+        Mockito.verify(repositoryService, Mockito.times(1)).deleteIdempotencyKey(Mockito.eq("released-key"));
+        cachedRepositoryService.insertIdempotencyKey("released-key");
+        responsesCacheManager.close();
     }
-}
\ No newline at end of file
+}
@@ -2,24 +2,28 @@ package com.mc.ibpts.paymentapp.repository;
 
 import com.mc.ibpts.paymentapp.TestSupportUtils;
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
 import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
 import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.mockito.AdditionalMatchers;
 import org.mockito.Mockito;
 import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.support.KeyHolder;
 
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.time.LocalDateTime;
+import java.util.*;
 
 import static com.mc.ibpts.paymentapp.repository.EmbeddedSQLRepositoryServiceImpl.*;
 
@@ -147,8 +151,8 @@ class EmbeddedRepositoryServiceImplTest {
         try {
             embeddedRepositoryServiceImpl.insertIdempotencyKey("idem-key");
         } catch (CustomBusinessException e) {
-            Assertions.assertEquals(400, e.getHttpStatus().value());
-            Assertions.assertEquals("Duplicate Idempotency-Key, please try again with a new key.", e.getMessage());
+            Assertions.assertEquals(409, e.getHttpStatus().value());
+            Assertions.assertEquals("Request with the same Idempotency-Key is in progress, please retry later.", e.getMessage());
 
         }
     }
@@ -157,7 +161,9 @@ class EmbeddedRepositoryServiceImplTest {
     void saveTransactionDetails_Success() {
         Mockito.when(namedParameterJdbcTemplate.update(
                 Mockito.eq(INSERT_TRANSACTION_DETAILS),
-                Mockito.any(SqlParameterSource.class)))
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(KeyHolder.class),
+                AdditionalMatchers.aryEq(new String[]{"id"})))
                 .thenReturn(1);
 
         embeddedRepositoryServiceImpl.saveTransactionDetails(
@@ -165,7 +171,9 @@ class EmbeddedRepositoryServiceImplTest {
 
         Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).update(
                 Mockito.eq(INSERT_TRANSACTION_DETAILS),
-                Mockito.any(SqlParameterSource.class));
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(KeyHolder.class),
+                AdditionalMatchers.aryEq(new String[]{"id"}));
     }
 
     @Test
@@ -175,10 +183,373 @@ class EmbeddedRepositoryServiceImplTest {
                 Mockito.any(SqlParameterSource.class)))
                 .thenReturn(1);
 
-        embeddedRepositoryServiceImpl.updateBalanceInfo(1234L, new BigDecimal(100));
+        embeddedRepositoryServiceImpl.updateBalanceInfo(1234L, Money.parse("100.00", "GBP"));
 
         Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).update(
                 Mockito.eq(UPDATE_ACCOUNT_BALANCE),
                 Mockito.any(SqlParameterSource.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    void fetchExistingIdempotencyKeys_Success() {
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_EXISTING_IDEMPOTENCY_KEYS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Collections.singletonList("idem-key"));
+
+        Set<String> existingIdempotencyKeys = embeddedRepositoryServiceImpl.fetchExistingIdempotencyKeys(
+                Arrays.asList("idem-key", "idem-key2"));
+        Assertions.assertEquals(Collections.singleton("idem-key"), existingIdempotencyKeys);
+    }
+
+    @Test
+    void saveTransferBatch_Success() {
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.anyString(),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1});
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ACCOUNT_DETAILS_BY_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(TestSupportUtils.getAccountInfoList());
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_NEXT_TRANSACTION_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList(1L, 2L, 3L));
+
+        List<AccountInfo> accountInfoList = embeddedRepositoryServiceImpl.saveTransferBatch(
+                Arrays.asList("idem-key", "idem-key2", "idem-key3"), TestSupportUtils.getTransactionInfoList());
+        Assertions.assertEquals(3, accountInfoList.size());
+
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(INSERT_IDEMPOTENCY_KEY),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 3));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS_WITH_ID),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 3 && batch[2].getValue("id").equals(3L)));
+        /* Four distinct accounts are involved in the three transactions. */
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(UPDATE_ACCOUNT_BALANCE),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 4));
+    }
+
+    @Test
+    void saveTransferBatch_Failed_DuplicateIdemKeyException() {
+        Mockito.doThrow(new DuplicateKeyException("Exception"))
+                .when(namedParameterJdbcTemplate).batchUpdate(
+                Mockito.eq(INSERT_IDEMPOTENCY_KEY),
+                Mockito.any(SqlParameterSource[].class));
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                embeddedRepositoryServiceImpl.saveTransferBatch(
+                        Collections.singletonList("idem-key"),
+                        TestSupportUtils.getTransactionInfoList().subList(0, 1)));
+        Assertions.assertEquals(409, e.getHttpStatus().value());
+        Assertions.assertEquals("Request with the same Idempotency-Key is in progress, please retry later.", e.getMessage());
+    }
+
+    @Test
+    void transferFunds_Success() {
+        /* Dedicated template, so that the transaction insert is not counted against saveTransactionDetails. */
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 1});
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ACCOUNT_BALANCES_BY_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList(Map.entry(1234L, Money.parse("877.00", "GBP")), Map.entry(1111L, Money.parse("2123.00", "GBP"))));
+        Mockito.when(namedParameterJdbcTemplate.update(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(KeyHolder.class),
+                AdditionalMatchers.aryEq(new String[]{"id"})))
+                .thenReturn(1);
+
+        Map<Long, Money> balances = embeddedRepositoryServiceImpl.transferFunds(
+                TestSupportUtils.getTransactionInfoList().get(0));
+        Assertions.assertEquals(Money.parse("877.00", "GBP"), balances.get(1234L));
+        Assertions.assertEquals(Money.parse("2123.00", "GBP"), balances.get(1111L));
+        /* Debit and credit are sent as one batch. */
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.argThat((SqlParameterSource[] sqlParameterSources) -> sqlParameterSources.length == 2));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).update(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(KeyHolder.class),
+                AdditionalMatchers.aryEq(new String[]{"id"}));
+    }
+
+    @Test
+    void transferFunds_Failed_GuardedDebit() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{0, 1});
+        try {
+            embeddedRepositoryServiceImpl.transferFunds(TestSupportUtils.getTransactionInfoList().get(0));
+            Assertions.fail("Exception not thrown");
+        } catch (CustomBusinessException e) {
+            Assertions.assertEquals(400, e.getHttpStatus().value());
+            Assertions.assertEquals("Insufficient funds, not able to perform the transaction.", e.getMessage());
+        }
+        /* The credit is rolled back along with the transaction, no transaction details are persisted. */
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.never()).update(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(KeyHolder.class),
+                AdditionalMatchers.aryEq(new String[]{"id"}));
+    }
+
+    @Test
+    void transferFunds_Failed_GuardedCredit() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 0});
+        try {
+            embeddedRepositoryServiceImpl.transferFunds(TestSupportUtils.getTransactionInfoList().get(0));
+            Assertions.fail("Exception not thrown");
+        } catch (CustomBusinessException e) {
+            Assertions.assertEquals(400, e.getHttpStatus().value());
+            Assertions.assertEquals("Receiver's account is not able to receive the transaction.", e.getMessage());
+        }
+    }
+
+    @Test
+    void transferFundsBatch_Success_GuardFailuresRejectedAlone() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        /* The sender of the second transfer and the receiver of the third transfer do not exist. */
+        List<TransactionInfo> transactionInfoList = TestSupportUtils.getTransactionInfoList();
+        transactionInfoList.get(2).setSenderAccountId(1111L);
+        transactionInfoList.get(2).setReceiverAccountId(4444L);
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ACCOUNT_DETAILS_BY_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList(TestSupportUtils.getOptionalAccountInfo().orElseThrow(),
+                        TestSupportUtils.getOptionalAccountInfo2().orElseThrow()));
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 1});
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_NEXT_TRANSACTION_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Collections.singletonList(7L));
+
+        List<TransferOutcome> transferOutcomes = embeddedRepositoryServiceImpl.transferFundsBatch(transactionInfoList);
+        Assertions.assertTrue(transferOutcomes.get(0).isCompleted());
+        Assertions.assertEquals(7L, transferOutcomes.get(0).getTransactionInfo().getId());
+        Assertions.assertEquals("Insufficient funds, not able to perform the transaction.", transferOutcomes.get(1).getMessage());
+        Assertions.assertEquals("Receiver's account is not able to receive the transaction.", transferOutcomes.get(2).getMessage());
+
+        /* Only the accounts of the transfer applied are updated, once each. */
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 2
+                        && batch[0].getValue("account_id").equals(1111L)
+                        && batch[0].getValue("amount_to_add").equals(Money.parse("123.00", "GBP").toBigDecimal())
+                        && batch[1].getValue("account_id").equals(1234L)
+                        && batch[1].getValue("amount_to_add").equals(Money.parse("123.00", "GBP").negate().toBigDecimal())));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS_WITH_ID),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 1 && batch[0].getValue("id").equals(7L)));
+    }
+
+    @Test
+    void transferFundsBatch_Failed_GuardedUpdateRollsBackBatch() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ACCOUNT_DETAILS_BY_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList(TestSupportUtils.getOptionalAccountInfo().orElseThrow(),
+                        TestSupportUtils.getOptionalAccountInfo2().orElseThrow()));
+        /* An account changed without its lock since it was read. */
+        Mockito.when(namedParameterJdbcTemplate.batchUpdate(
+                Mockito.eq(TRANSFER_ACCOUNT_BALANCE),
+                Mockito.any(SqlParameterSource[].class)))
+                .thenReturn(new int[]{1, 0});
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                embeddedRepositoryServiceImpl.transferFundsBatch(TestSupportUtils.getTransactionInfoList().subList(0, 1)));
+        Assertions.assertEquals(500, e.getHttpStatus().value());
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.never()).batchUpdate(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS_WITH_ID),
+                Mockito.any(SqlParameterSource[].class));
+    }
+
+    @Test
+    void transferFundsBatch_Success_AppliedInSubmissionOrder() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("schema.sql", "data.sql")
+                .build();
+        try {
+            EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                    new EmbeddedSQLRepositoryServiceImpl(new NamedParameterJdbcTemplate(database));
+            long lastTransactionId = embeddedRepositoryServiceImpl.fetchLastTransactionId();
+            /* 444 only covers its transfers to 333 with the credit from 111 earlier in the batch. */
+            List<TransferOutcome> transferOutcomes = embeddedRepositoryServiceImpl.transferFundsBatch(Arrays.asList(
+                    transactionInfo(111L, 444L, "150.00"),
+                    transactionInfo(444L, 333L, "100.00"),
+                    transactionInfo(444L, 333L, "100.00")));
+
+            Assertions.assertTrue(transferOutcomes.get(0).isCompleted());
+            Assertions.assertTrue(transferOutcomes.get(1).isCompleted());
+            Assertions.assertEquals("Insufficient funds, not able to perform the transaction.", transferOutcomes.get(2).getMessage());
+            Assertions.assertEquals(Money.parse("50.98", "GBP"),
+                    embeddedRepositoryServiceImpl.fetchAccountInfo(111L).orElseThrow().getBalance());
+            Assertions.assertEquals(Money.parse("60.00", "GBP"),
+                    embeddedRepositoryServiceImpl.fetchAccountInfo(444L).orElseThrow().getBalance());
+            Assertions.assertEquals(Money.parse("400.00", "GBP"),
+                    embeddedRepositoryServiceImpl.fetchAccountInfo(333L).orElseThrow().getBalance());
+            Assertions.assertEquals(lastTransactionId + 2, embeddedRepositoryServiceImpl.fetchLastTransactionId());
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    void fetchAccountInfoPage_Success_OnlyGivenFiltersApplied() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("schema.sql", "data.sql")
+                .build();
+        try {
+            EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                    new EmbeddedSQLRepositoryServiceImpl(new NamedParameterJdbcTemplate(database));
+
+            Assertions.assertEquals(List.of(333L, 444L), accountIds(
+                    embeddedRepositoryServiceImpl.fetchAccountInfoPage(222L, null, null, 2)));
+            Assertions.assertEquals(List.of(666L), accountIds(
+                    embeddedRepositoryServiceImpl.fetchAccountInfoPage(null, "DELETED", null, 10)));
+            Assertions.assertEquals(List.of(555L, 777L), accountIds(
+                    embeddedRepositoryServiceImpl.fetchAccountInfoPage(null, null, "NOK", 10)));
+            Assertions.assertEquals(List.of(777L), accountIds(
+                    embeddedRepositoryServiceImpl.fetchAccountInfoPage(555L, "ACTIVE", "NOK", 10)));
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    private static List<Long> accountIds(List<AccountInfo> accountInfoList) {
+        List<Long> accountIds = new ArrayList<>();
+        accountInfoList.forEach(accountInfo -> accountIds.add(accountInfo.getAccountId()));
+        return accountIds;
+    }
+
+    private static TransactionInfo transactionInfo(Long senderAccountId, Long receiverAccountId, String amount) {
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setSenderAccountId(senderAccountId);
+        transactionInfo.setReceiverAccountId(receiverAccountId);
+        transactionInfo.setAmount(Money.parse(amount, "GBP"));
+        transactionInfo.setCurrency("GBP");
+        transactionInfo.setTransactionDate(LocalDateTime.now());
+        transactionInfo.setReferenceId("reference");
+        return transactionInfo;
+    }
+
+    @Test
+    void applyJournaledTransfers_Success_CheckpointAdvanced() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        EmbeddedSQLRepositoryServiceImpl embeddedRepositoryServiceImpl =
+                new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate);
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_NEXT_TRANSACTION_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList(1L, 2L, 3L));
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ACCOUNT_DETAILS_BY_IDS),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(TestSupportUtils.getAccountInfoList());
+
+        List<AccountInfo> accountInfoList = embeddedRepositoryServiceImpl.applyJournaledTransfers(
+                TestSupportUtils.getTransactionInfoList(), 42L);
+        Assertions.assertEquals(3, accountInfoList.size());
+
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(INSERT_TRANSACTION_DETAILS_WITH_ID),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 3));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(UPDATE_ACCOUNT_BALANCE),
+                Mockito.argThat((SqlParameterSource[] batch) -> batch.length == 4));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).update(
+                Mockito.eq(UPDATE_JOURNAL_CHECKPOINT),
+                Mockito.argThat((SqlParameterSource parameters) -> parameters.getValue("applied_sequence").equals(42L)));
+    }
+
+    @Test
+    void purgeIdempotencyKeys_Success() {
+        Mockito.when(namedParameterJdbcTemplate.update(
+                Mockito.eq(DELETE_EXPIRED_IDEMPOTENCY_KEYS),
+                Mockito.any(SqlParameterSource.class)))
+                .thenReturn(5);
+        Assertions.assertEquals(5, embeddedRepositoryServiceImpl.purgeIdempotencyKeys(LocalDateTime.now()));
+    }
+
+    @Test
+    void fetchAllIdempotencyKeys_Success() {
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_ALL_IDEMPOTENCY_KEYS),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Arrays.asList("idem-key", "idem-key2"));
+        Assertions.assertEquals(2, embeddedRepositoryServiceImpl.fetchAllIdempotencyKeys().size());
+    }
+
+    @Test
+    void fetchIdempotentResponses_Success() {
+        Mockito.when(namedParameterJdbcTemplate.query(
+                Mockito.eq(FETCH_IDEMPOTENT_RESPONSES),
+                Mockito.any(SqlParameterSource.class),
+                Mockito.any(RowMapper.class)))
+                .thenReturn(Collections.singletonList(Map.entry("idem-key", "{\"status\":\"done\"}")));
+        Map<String, String> responses = embeddedRepositoryServiceImpl.fetchIdempotentResponses(
+                Arrays.asList("idem-key", "idem-key2"));
+        Assertions.assertEquals(Collections.singletonMap("idem-key", "{\"status\":\"done\"}"), responses);
+        Assertions.assertTrue(embeddedRepositoryServiceImpl.fetchIdempotentResponses(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    void saveIdempotentResponses_Success() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate).saveIdempotentResponses(
+                Map.of("idem-key", "{}", "idem-key2", "{}"));
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).batchUpdate(
+                Mockito.eq(UPDATE_IDEMPOTENT_RESPONSE),
+                Mockito.argThat((SqlParameterSource[] sqlParameterSources) -> sqlParameterSources.length == 2));
+    }
+
+    @Test
+    void deleteIdempotencyKey_Success() {
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        new EmbeddedSQLRepositoryServiceImpl(namedParameterJdbcTemplate).deleteIdempotencyKey("idem-key");
+        Mockito.verify(namedParameterJdbcTemplate, Mockito.times(1)).update(
+                Mockito.eq(DELETE_IDEMPOTENCY_KEY),
+                Mockito.argThat((SqlParameterSource sqlParameterSource) ->
+                        "idem-key".equals(sqlParameterSource.getValue("idempotency_key"))));
+    }
+}
@@ -0,0 +1,185 @@
+package com.mc.ibpts.paymentapp.repository;
+
+import com.mc.ibpts.paymentapp.TestSupportUtils;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.exception.TransferOutcomeUnknownException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TransferJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private TransferJournal openJournal(long sizeMb) {
+        TransferJournal transferJournal = new TransferJournal(true, directory.toString(), sizeMb);
+        transferJournal.open();
+        return transferJournal;
+    }
+
+    @Test
+    void append_Success_ReadOnceDurable() throws Exception {
+        TransferJournal transferJournal = openJournal(1);
+        List<TransactionInfo> transactionInfoList = TestSupportUtils.getTransactionInfoList();
+        Assertions.assertEquals(3, transferJournal.append(transactionInfoList));
+        Assertions.assertTrue(transferJournal.read(0, 10).isEmpty());
+
+        transferJournal.awaitDurable();
+        List<TransactionInfo> journaled = transferJournal.read(1, 10);
+        Assertions.assertEquals(2, journaled.size());
+        TransactionInfo expected = transactionInfoList.get(1);
+        Assertions.assertNull(journaled.get(0).getId());
+        Assertions.assertEquals(expected.getSenderAccountId(), journaled.get(0).getSenderAccountId());
+        Assertions.assertEquals(expected.getReceiverAccountId(), journaled.get(0).getReceiverAccountId());
+        Assertions.assertEquals(expected.getAmount(), journaled.get(0).getAmount());
+        Assertions.assertEquals(expected.getCurrency(), journaled.get(0).getCurrency());
+        Assertions.assertEquals(expected.getTransactionDate(), journaled.get(0).getTransactionDate());
+        Assertions.assertEquals(expected.getReferenceId(), journaled.get(0).getReferenceId());
+        transferJournal.close();
+    }
+
+    @Test
+    void open_Success_TornRecordDropped() throws Exception {
+        TransferJournal transferJournal = openJournal(1);
+        transferJournal.append(TestSupportUtils.getTransactionInfoList());
+        transferJournal.awaitDurable();
+        transferJournal.close();
+
+        /* Corrupting the amount of the last record, as a write torn by a crash would. */
+        try (FileChannel channel = FileChannel.open(directory.resolve("transfers.journal"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1}),
+                    TransferJournal.HEADER_SIZE + 2 * TransferJournal.RECORD_SIZE + 30);
+        }
+
+        TransferJournal reopenedJournal = openJournal(1);
+        Assertions.assertEquals(2, reopenedJournal.getDurableSequence());
+        Assertions.assertEquals(2, reopenedJournal.read(0, 10).size());
+        Assertions.assertEquals(3, reopenedJournal.append(
+                Collections.singletonList(TestSupportUtils.getTransactionInfoList().get(0))));
+        reopenedJournal.awaitDurable();
+        Assertions.assertEquals(1234L, reopenedJournal.read(2, 10).get(0).getSenderAccountId());
+        reopenedJournal.close();
+    }
+
+    @Test
+    void append_Failed_JournalFull() throws Exception {
+        TransferJournal transferJournal = openJournal(1);
+        int capacity = ((1 << 20) - TransferJournal.HEADER_SIZE) / TransferJournal.RECORD_SIZE;
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+        Assertions.assertEquals(capacity - 1,
+                transferJournal.append(Collections.nCopies(capacity - 1, transactionInfo)));
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                transferJournal.append(Collections.nCopies(2, transactionInfo)));
+        Assertions.assertEquals(503, e.getHttpStatus().value());
+        Assertions.assertEquals(capacity, transferJournal.append(Collections.singletonList(transactionInfo)));
+        transferJournal.close();
+    }
+
+    @Test
+    void reclaim_Success_AppendedRoundTheFileAndRecovered() throws Exception {
+        TransferJournal transferJournal = openJournal(1);
+        int capacity = ((1 << 20) - TransferJournal.HEADER_SIZE) / TransferJournal.RECORD_SIZE;
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+        transferJournal.append(Collections.nCopies(capacity, transactionInfo));
+        transferJournal.awaitDurable();
+        Assertions.assertThrows(CustomBusinessException.class, () ->
+                transferJournal.append(Collections.singletonList(transactionInfo)));
+
+        /* Reclaiming the first thousand slots, which the next lap then overwrites. */
+        transferJournal.reclaim(1000);
+        Assertions.assertEquals(1000, transferJournal.getReclaimedSequence());
+        List<TransactionInfo> nextLap = TestSupportUtils.getTransactionInfoList();
+        for (int i = 0; i < 333; i++) {
+            transferJournal.append(nextLap);
+        }
+        transferJournal.awaitDurable();
+        Assertions.assertThrows(CustomBusinessException.class, () ->
+                transferJournal.append(Collections.nCopies(2, transactionInfo)));
+        transferJournal.close();
+
+        TransferJournal reopenedJournal = openJournal(1);
+        Assertions.assertEquals(1000, reopenedJournal.getReclaimedSequence());
+        Assertions.assertEquals(capacity + 999, reopenedJournal.getDurableSequence());
+        List<TransactionInfo> journaled = reopenedJournal.read(capacity, 3);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(nextLap.get(i).getSenderAccountId(), journaled.get(i).getSenderAccountId());
+            Assertions.assertEquals(nextLap.get(i).getAmount(), journaled.get(i).getAmount());
+        }
+        Assertions.assertEquals(capacity - 1, reopenedJournal.read(1000, capacity).size());
+        reopenedJournal.close();
+    }
+
+    @Test
+    void restartAfter_Success_EmptyJournalCarriesOnFromSequence() throws Exception {
+        TransferJournal transferJournal = openJournal(1);
+        transferJournal.restartAfter(5000);
+        Assertions.assertEquals(5003, transferJournal.append(TestSupportUtils.getTransactionInfoList()));
+        transferJournal.awaitDurable();
+        transferJournal.close();
+
+        TransferJournal reopenedJournal = openJournal(1);
+        Assertions.assertEquals(5003, reopenedJournal.getDurableSequence());
+        Assertions.assertEquals(3, reopenedJournal.read(5000, 10).size());
+        Assertions.assertThrows(IllegalStateException.class, () -> reopenedJournal.restartAfter(6000));
+        reopenedJournal.close();
+    }
+
+    /* Journal failing its first forces, as a disk error would. */
+    private TransferJournal openFailingJournal(int failedForces) {
+        AtomicInteger forces = new AtomicInteger();
+        TransferJournal transferJournal = new TransferJournal(true, directory.toString(), 1) {
+            @Override
+            void force() {
+                if (forces.incrementAndGet() <= failedForces) {
+                    throw new UncheckedIOException(new IOException("Disk error"));
+                }
+                super.force();
+            }
+        };
+        transferJournal.open();
+        return transferJournal;
+    }
+
+    @Test
+    void awaitDurable_Failed_TransfersStruckOut() throws Exception {
+        TransferJournal transferJournal = openFailingJournal(1);
+        transferJournal.append(TestSupportUtils.getTransactionInfoList());
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, transferJournal::awaitDurable);
+        Assertions.assertFalse(e instanceof TransferOutcomeUnknownException);
+        Assertions.assertEquals(500, e.getHttpStatus().value());
+        Assertions.assertEquals(3, transferJournal.getAbortedTransfers().size());
+        Assertions.assertEquals(1234L, transferJournal.getAbortedTransfers().get(0).getSenderAccountId());
+        /* Appending stops until the journal is recovered. */
+        Assertions.assertThrows(CustomBusinessException.class, () ->
+                transferJournal.append(TestSupportUtils.getTransactionInfoList()));
+        transferJournal.close();
+
+        TransferJournal reopenedJournal = openJournal(1);
+        Assertions.assertEquals(0, reopenedJournal.getDurableSequence());
+        reopenedJournal.close();
+    }
+
+    @Test
+    void awaitDurable_Failed_OutcomeUnknownWhenNotStruckOut() throws Exception {
+        TransferJournal transferJournal = openFailingJournal(2);
+        transferJournal.append(TestSupportUtils.getTransactionInfoList());
+
+        Assertions.assertThrows(TransferOutcomeUnknownException.class, transferJournal::awaitDurable);
+        Assertions.assertEquals(3, transferJournal.getAbortedTransfers().size());
+        transferJournal.close();
+    }
+}
@@ -0,0 +1,49 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.TestSupportUtils;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+class CacheValueSerializerTest {
+
+    @Test
+    void accountInfo_Success_RoundTrip() {
+        AccountInfoSerializer serializer = new AccountInfoSerializer();
+        AccountInfo accountInfo = TestSupportUtils.getOptionalAccountInfo().get();
+        accountInfo.setBalance(Money.ofMinorUnits(-123456789005L, "GBP"));
+
+        ByteBuffer binary = serializer.serialize(accountInfo);
+        AccountInfo copy = serializer.read(binary.duplicate());
+        Assertions.assertEquals(1234L, copy.getAccountId());
+        Assertions.assertEquals("GBP", copy.getCurrency());
+        Assertions.assertEquals(Money.ofMinorUnits(-123456789005L, "GBP"), copy.getBalance());
+        Assertions.assertEquals("ACTIVE", copy.getAccountStatus());
+        Assertions.assertTrue(serializer.equals(accountInfo, binary.duplicate()));
+
+        copy.setAccountStatus("DELETED");
+        Assertions.assertFalse(serializer.equals(copy, binary.duplicate()));
+    }
+
+    @Test
+    void transactionInfo_Success_RoundTripWithNulls() {
+        TransactionInfoSerializer serializer = new TransactionInfoSerializer();
+        TransactionInfo transactionInfo = TestSupportUtils.getTransactionInfoList().get(0);
+        transactionInfo.setCurrency(null);
+
+        ByteBuffer binary = serializer.serialize(transactionInfo);
+        TransactionInfo copy = serializer.read(binary.duplicate());
+        Assertions.assertEquals(1L, copy.getId());
+        Assertions.assertEquals(1234L, copy.getSenderAccountId());
+        Assertions.assertEquals(1111L, copy.getReceiverAccountId());
+        Assertions.assertEquals(Money.parse("123.00", "GBP"), copy.getAmount());
+        Assertions.assertEquals(transactionInfo.getTransactionDate(), copy.getTransactionDate());
+        Assertions.assertEquals("123123jk-13123n-123123-123123", copy.getReferenceId());
+        Assertions.assertNull(copy.getCurrency());
+        Assertions.assertTrue(serializer.equals(transactionInfo, binary.duplicate()));
+    }
+}
@@ -0,0 +1,103 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.dvo.IdempotencyKeyFilterBits;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+class IdempotencyKeyFilterTest {
+
+    private static final int NO_OF_KEYS = 10000;
+
+    @Test
+    void mightContain_Success_NoFalseNegatives() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(NO_OF_KEYS, 0.01);
+        List<String> idempotencyKeys = new ArrayList<>();
+        for (int i = 0; i < NO_OF_KEYS; i++) {
+            String idempotencyKey = UUID.randomUUID().toString();
+            idempotencyKeys.add(idempotencyKey);
+            idempotencyKeyFilter.put(idempotencyKey);
+        }
+        idempotencyKeys.forEach(idempotencyKey -> Assertions.assertTrue(idempotencyKeyFilter.mightContain(idempotencyKey)));
+    }
+
+    @Test
+    void falsePositiveRate_Success_WithinConfiguredFpp() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(NO_OF_KEYS, 0.01);
+        for (int i = 0; i < NO_OF_KEYS; i++) {
+            idempotencyKeyFilter.put("used-" + i);
+        }
+        /* Lookups of keys never added, a positive answer is a false positive. */
+        for (int i = 0; i < NO_OF_KEYS; i++) {
+            if (idempotencyKeyFilter.mightContain("new-" + i)) {
+                idempotencyKeyFilter.recordFalsePositive();
+            }
+        }
+        Assertions.assertTrue(idempotencyKeyFilter.falsePositiveRate() < 0.02);
+        Assertions.assertTrue(idempotencyKeyFilter.expectedFpp() < 0.02);
+    }
+
+    @Test
+    void rebuild_Success_RemovedKeysForgotten() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        idempotencyKeyFilter.put("expired-key");
+        idempotencyKeyFilter.rebuild(() -> List.of("used-key"));
+        Assertions.assertFalse(idempotencyKeyFilter.mightContain("expired-key"));
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("used-key"));
+    }
+
+    @Test
+    void rebuild_Success_KeyPutWhileLoadingKept() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        /* Inserted once the keys are read, so missing from the keys loaded. */
+        idempotencyKeyFilter.rebuild(() -> {
+            List<String> idempotencyKeys = List.of("used-key");
+            idempotencyKeyFilter.put("key-put-while-loading");
+            return idempotencyKeys;
+        });
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("used-key"));
+        Assertions.assertTrue(idempotencyKeyFilter.mightContain("key-put-while-loading"));
+    }
+
+    @Test
+    void rebuildIfSaturated_Success_OnlyPastRebuildFpp() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01, 0.02);
+        for (int i = 0; i < 1000; i++) {
+            idempotencyKeyFilter.put("used-" + i);
+        }
+        Assertions.assertFalse(idempotencyKeyFilter.rebuildIfSaturated(() -> {
+            throw new IllegalStateException("Keys loaded");
+        }));
+
+        for (int i = 1000; i < 3000; i++) {
+            idempotencyKeyFilter.put("used-" + i);
+        }
+        List<String> idempotencyKeys = new ArrayList<>();
+        for (int i = 2000; i < 3000; i++) {
+            idempotencyKeys.add("used-" + i);
+        }
+        Assertions.assertTrue(idempotencyKeyFilter.rebuildIfSaturated(() -> idempotencyKeys));
+        Assertions.assertTrue(idempotencyKeyFilter.expectedFpp() < 0.01);
+        idempotencyKeys.forEach(idempotencyKey -> Assertions.assertTrue(idempotencyKeyFilter.mightContain(idempotencyKey)));
+    }
+
+    @Test
+    void restore_Success_CopyAndKeysCreatedSince() {
+        IdempotencyKeyFilter idempotencyKeyFilter = new IdempotencyKeyFilter(1000, 0.01);
+        idempotencyKeyFilter.put("copied-key");
+        LocalDateTime keysCreatedFrom = LocalDateTime.now();
+        IdempotencyKeyFilterBits filterBits = idempotencyKeyFilter.copy(keysCreatedFrom);
+        Assertions.assertEquals(keysCreatedFrom, filterBits.getKeysCreatedFrom());
+        idempotencyKeyFilter.put("key-after-copy");
+
+        IdempotencyKeyFilter restoredFilter = new IdempotencyKeyFilter(1000, 0.01);
+        restoredFilter.restore(filterBits, List.of("key-created-since"));
+        Assertions.assertTrue(restoredFilter.mightContain("copied-key"));
+        Assertions.assertTrue(restoredFilter.mightContain("key-created-since"));
+        Assertions.assertFalse(restoredFilter.mightContain("key-after-copy"));
+    }
+}
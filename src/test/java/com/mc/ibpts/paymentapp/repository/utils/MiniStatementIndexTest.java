@@ -0,0 +1,151 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.TestSupportUtils;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class MiniStatementIndexTest {
+
+    @Test
+    void fetch_Success_WarmedNewestFirst() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        List<TransactionInfo> transactionInfoList = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            transactionInfoList.add(transactionInfo(1234L, 1111L, i));
+        }
+        Collections.shuffle(transactionInfoList);
+        miniStatementIndex.warm(Arrays.asList(1234L, 1111L, 4444L), transactionInfoList);
+
+        List<TransactionInfo> miniStatement = miniStatementIndex.fetch(1234L, accountId -> {
+            throw new IllegalStateException("Warmed account loaded from database");
+        });
+        Assertions.assertEquals(MiniStatementIndex.MINI_STATEMENT_SIZE, miniStatement.size());
+        Assertions.assertEquals(Money.ofMinorUnits(29, "GBP"), miniStatement.get(0).getAmount());
+        Assertions.assertEquals(Money.ofMinorUnits(10, "GBP"), miniStatement.get(19).getAmount());
+        Assertions.assertTrue(miniStatementIndex.fetch(4444L, accountId -> TestSupportUtils.getTransactionInfoList()).isEmpty());
+    }
+
+    @Test
+    void add_Success_OldestDroppedFromRing() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        miniStatementIndex.warm(Arrays.asList(1234L, 1111L), Collections.emptyList());
+        for (int i = 0; i < 25; i++) {
+            miniStatementIndex.add(transactionInfo(1234L, 1111L, i));
+        }
+
+        List<TransactionInfo> miniStatement = miniStatementIndex.fetch(1111L, accountId -> Collections.emptyList());
+        Assertions.assertEquals(MiniStatementIndex.MINI_STATEMENT_SIZE, miniStatement.size());
+        Assertions.assertEquals(Money.ofMinorUnits(24, "GBP"), miniStatement.get(0).getAmount());
+        Assertions.assertEquals(Money.ofMinorUnits(5, "GBP"), miniStatement.get(19).getAmount());
+    }
+
+    @Test
+    void fetch_Success_LoadedOnceWhenNotIndexed() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        /* Transactions of accounts not indexed yet are not tracked, they are part of the load from database. */
+        miniStatementIndex.add(transactionInfo(1234L, 1111L, 100));
+
+        List<Long> loadedAccounts = new ArrayList<>();
+        List<TransactionInfo> miniStatement = miniStatementIndex.fetch(1234L, accountId -> {
+            loadedAccounts.add(accountId);
+            return TestSupportUtils.getTransactionInfoList();
+        });
+        Assertions.assertEquals(3, miniStatement.size());
+
+        miniStatementIndex.add(transactionInfo(1234L, 1111L, 200));
+        miniStatement = miniStatementIndex.fetch(1234L, accountId -> {
+            loadedAccounts.add(accountId);
+            return Collections.emptyList();
+        });
+        Assertions.assertEquals(4, miniStatement.size());
+        Assertions.assertEquals(Money.ofMinorUnits(200, "GBP"), miniStatement.get(0).getAmount());
+        Assertions.assertEquals(Collections.singletonList(1234L), loadedAccounts);
+    }
+
+    @Test
+    void fetch_Success_CommittedWhileLoadingMerged() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        TransactionInfo loadedTransaction = transactionInfo(1234L, 1111L, 1);
+        loadedTransaction.setId(1L);
+        TransactionInfo committedInLoad = transactionInfo(1234L, 1111L, 2);
+        committedInLoad.setId(2L);
+        TransactionInfo committedAfterLoad = transactionInfo(1111L, 1234L, 3);
+        committedAfterLoad.setId(3L);
+
+        List<TransactionInfo> miniStatement = miniStatementIndex.fetch(1234L, accountId -> {
+            /* Committed while the load reads the database, one of them too late to be read. */
+            miniStatementIndex.add(committedInLoad);
+            miniStatementIndex.add(committedAfterLoad);
+            return Arrays.asList(committedInLoad, loadedTransaction);
+        });
+        Assertions.assertEquals(Arrays.asList(committedAfterLoad, committedInLoad, loadedTransaction), miniStatement);
+    }
+
+    @Test
+    void fetch_Failed_LoadedAgainByNextReader() {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        Assertions.assertThrows(IllegalStateException.class, () -> miniStatementIndex.fetch(1234L, accountId -> {
+            throw new IllegalStateException("Database read failed");
+        }));
+        Assertions.assertEquals(3, miniStatementIndex.fetch(1234L, accountId -> TestSupportUtils.getTransactionInfoList()).size());
+    }
+
+    @Test
+    void fetch_Success_OtherAccountsServedWhileLoading() throws Exception {
+        MiniStatementIndex miniStatementIndex = new MiniStatementIndex();
+        miniStatementIndex.warm(Collections.singletonList(1111L), Collections.emptyList());
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<TransactionInfo>> slowLoad = executorService.submit(() -> miniStatementIndex.fetch(1234L, accountId -> {
+                loading.countDown();
+                await(release);
+                return TestSupportUtils.getTransactionInfoList();
+            }));
+            Assertions.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<List<TransactionInfo>> waitingReader = executorService.submit(
+                    () -> miniStatementIndex.fetch(1234L, accountId -> Collections.emptyList()));
+
+            Assertions.assertTrue(miniStatementIndex.fetch(1111L, accountId -> Collections.emptyList()).isEmpty());
+            Assertions.assertFalse(waitingReader.isDone());
+            release.countDown();
+            Assertions.assertEquals(3, slowLoad.get(5, TimeUnit.SECONDS).size());
+            /* The waiting reader gets the loaded transactions instead of loading them again. */
+            Assertions.assertEquals(3, waitingReader.get(5, TimeUnit.SECONDS).size());
+        } finally {
+            release.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static TransactionInfo transactionInfo(Long senderAccountId, Long receiverAccountId, int sequence) {
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setSenderAccountId(senderAccountId);
+        transactionInfo.setReceiverAccountId(receiverAccountId);
+        transactionInfo.setAmount(Money.ofMinorUnits(sequence, "GBP"));
+        transactionInfo.setCurrency("GBP");
+        transactionInfo.setTransactionDate(LocalDateTime.of(2021, 8, 1, 10, 0).plusMinutes(sequence));
+        transactionInfo.setReferenceId("123123jk-13123n-123123-123123");
+        return transactionInfo;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mc.ibpts.paymentapp.repository.utils;
+
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SingleFlightLoaderTest {
+
+    private static final int NO_OF_THREADS = 16;
+
+    @Test
+    void load_Success_ConcurrentMissesShareSingleLoad() throws Exception {
+        SingleFlightLoader<Long, String> singleFlightLoader = new SingleFlightLoader<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(NO_OF_THREADS);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < NO_OF_THREADS; i++) {
+            results.add(executorService.submit(() -> singleFlightLoader.load(1234L, accountId -> {
+                loads.incrementAndGet();
+                loaderStarted.countDown();
+                try {
+                    /* Holding the load until all the other callers are waiting on it. */
+                    releaseLoader.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "account-" + accountId;
+            })));
+        }
+        Assertions.assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        releaseLoader.countDown();
+
+        for (Future<String> result : results) {
+            Assertions.assertEquals("account-1234", result.get(5, TimeUnit.SECONDS));
+        }
+        executorService.shutdown();
+        Assertions.assertTrue(loads.get() < NO_OF_THREADS);
+
+        /* Nothing is retained once the load completed. */
+        Assertions.assertEquals("reloaded", singleFlightLoader.load(1234L, accountId -> "reloaded"));
+    }
+
+    @Test
+    void load_Failed_ExceptionSharedWithWaiters() throws Exception {
+        SingleFlightLoader<Long, String> singleFlightLoader = new SingleFlightLoader<>();
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> singleFlightLoader.load(1234L, accountId -> {
+            loaderStarted.countDown();
+            try {
+                releaseLoader.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new CustomBusinessException(HttpStatus.INTERNAL_SERVER_ERROR, "Exception");
+        }));
+        Assertions.assertTrue(loaderStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() ->
+                singleFlightLoader.load(1234L, accountId -> "not shared"));
+        Thread.sleep(100);
+        releaseLoader.countDown();
+
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof CustomBusinessException);
+        try {
+            /* The second caller either waited on the failed load, or started after it completed. */
+            Assertions.assertEquals("not shared", second.get(5, TimeUnit.SECONDS));
+        } catch (ExecutionException waiterException) {
+            Assertions.assertTrue(waiterException.getCause() instanceof CustomBusinessException);
+        }
+    }
+}
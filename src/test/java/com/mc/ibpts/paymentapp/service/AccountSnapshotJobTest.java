@@ -0,0 +1,96 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.AccountSnapshot;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.repository.AccountSnapshotStore;
+import com.mc.ibpts.paymentapp.repository.EmbeddedSQLRepositoryServiceImpl;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.repository.utils.IdempotencyKeyFilter;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+class AccountSnapshotJobTest {
+
+    @TempDir
+    Path directory;
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private RepositoryService repositoryService;
+    private AccountSnapshotStore accountSnapshotStore;
+    private AccountSnapshotJob accountSnapshotJob;
+
+    @BeforeEach
+    public void init() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("schema.sql", "data.sql")
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        repositoryService = Mockito.spy(new EmbeddedSQLRepositoryServiceImpl(new NamedParameterJdbcTemplate(database)));
+        accountSnapshotStore = new AccountSnapshotStore(true, directory.toString());
+        accountSnapshotJob = new AccountSnapshotJob(accountSnapshotStore, repositoryService, new StripedAccountLocks(16),
+                new IdempotencyKeyFilter(1000, 0.01), new DataSourceTransactionManager(database), 2, 60000);
+    }
+
+    @AfterEach
+    public void close() {
+        database.shutdown();
+    }
+
+    @Test
+    void snapshotAccounts_Success_TransferCommittedDuringExportLeftOut() {
+        long highWaterMark = repositoryService.fetchLastTransactionId();
+        Money balance = repositoryService.fetchAccountInfo(111L).orElseThrow().getBalance();
+        /* A transfer committed by another connection once the locks are released, before the accounts are exported. */
+        Mockito.doAnswer(invocation -> {
+            CompletableFuture.runAsync(() -> {
+                jdbcTemplate.update("insert into transactions (sender_account_id, receiver_account_id, amount, "
+                        + "currency, transaction_date, reference_id) values (111, 222, 10.00, 'GBP', now(), 'ref')");
+                jdbcTemplate.update("update accounts set balance = balance - 10.00 where account_id = 111");
+            }).join();
+            return invocation.callRealMethod();
+        }).when(repositoryService).exportAccounts(Mockito.anyInt(), Mockito.any());
+
+        accountSnapshotJob.snapshotAccounts();
+
+        AccountSnapshot accountSnapshot = accountSnapshotStore.load().orElseThrow();
+        Assertions.assertEquals(highWaterMark, accountSnapshot.getHighWaterMark());
+        AccountInfo accountInfo = accountSnapshot.getAccountInfoList().stream()
+                .filter(snapshotAccount -> snapshotAccount.getAccountId() == 111L)
+                .findFirst().orElseThrow();
+        Assertions.assertEquals(balance, accountInfo.getBalance());
+        Assertions.assertEquals(repositoryService.countAccounts(), accountSnapshot.getAccountInfoList().size());
+        Assertions.assertEquals(highWaterMark + 1, repositoryService.fetchLastTransactionId());
+    }
+
+    @Test
+    void snapshotAccounts_Failed_ExportedCountMismatchKeepsPreviousSnapshot() {
+        accountSnapshotJob.snapshotAccounts();
+        long highWaterMark = accountSnapshotStore.load().orElseThrow().getHighWaterMark();
+        /* The accounts exported are checked against the count read holding the locks. */
+        Mockito.doAnswer(invocation -> 0L).when(repositoryService).exportAccounts(Mockito.anyInt(), Mockito.any());
+        jdbcTemplate.update("insert into transactions (sender_account_id, receiver_account_id, amount, "
+                + "currency, transaction_date, reference_id) values (111, 222, 10.00, 'GBP', now(), 'ref')");
+
+        accountSnapshotJob.snapshotAccounts();
+
+        Assertions.assertEquals(highWaterMark, accountSnapshotStore.load().orElseThrow().getHighWaterMark());
+    }
+}
@@ -1,22 +1,28 @@
 package com.mc.ibpts.paymentapp.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mc.ibpts.paymentapp.TestSupportUtils;
 import com.mc.ibpts.paymentapp.common.gen.model.*;
 import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
 import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.exception.TransferOutcomeUnknownException;
 import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.utils.AccountResponseCache;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
 import org.junit.jupiter.api.Assertions;
-import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class AccountsV1ServiceTest {
@@ -24,10 +30,15 @@ class AccountsV1ServiceTest {
     private RepositoryService repositoryService;
     private AccountsV1Service accountsV1Service;
 
-    @BeforeAll
+    @BeforeEach
     public void init() {
         repositoryService = Mockito.mock(RepositoryService.class);
-        accountsV1Service = new AccountsV1Service(repositoryService);
+        accountsV1Service = new AccountsV1Service(repositoryService, new TransferEngine(
+                repositoryService,
+                new StripedAccountLocks(16),
+                new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+                Mockito.mock(TransferJournalApplier.class)),
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
     }
 
     @Test
@@ -70,6 +81,43 @@ class AccountsV1ServiceTest {
         Assertions.assertEquals(3, responseEntity.getBody().size());
     }
 
+    @Test
+    void v1AccountsAccountIdStatementsMiniGet_Success_TypePerAccount() {
+        List<TransactionInfo> transactionInfoList = TestSupportUtils.getTransactionInfoList().subList(0, 1);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong()))
+                .thenReturn(TestSupportUtils.getOptionalAccountInfo());
+        Mockito.when(repositoryService.fetchMiniStatementByAccountId(Mockito.anyLong()))
+                .thenAnswer(invocation -> new ArrayList<>(transactionInfoList));
+
+        AccountStatementResponseData senderStatement =
+                accountsV1Service.v1AccountsAccountIdStatementsMiniGet("1234").getBody().get(0);
+        AccountStatementResponseData receiverStatement =
+                accountsV1Service.v1AccountsAccountIdStatementsMiniGet("1111").getBody().get(0);
+
+        Assertions.assertEquals(AccountStatementResponseData.TypeEnum.DEBIT, senderStatement.getType());
+        Assertions.assertEquals(1111L, senderStatement.getAccountId());
+        Assertions.assertEquals(AccountStatementResponseData.TypeEnum.CREDIT, receiverStatement.getType());
+        Assertions.assertEquals(1234L, receiverStatement.getAccountId());
+    }
+
+    @Test
+    void v1AccountsAccountIdBalanceGet_Success_ServedFromResponseCache() {
+        AccountResponseCache accountResponseCache = new AccountResponseCache(new ObjectMapper());
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, Mockito.mock(TransferEngine.class),
+                new ObjectMapper(), accountResponseCache, Mockito.mock(AsyncTransferQueue.class));
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1234L)))
+                .thenReturn(TestSupportUtils.getOptionalAccountInfo());
+
+        accountsV1Service.v1AccountsAccountIdBalanceGet("1234");
+        accountsV1Service.v1AccountsAccountIdBalanceGet("1234");
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAccountInfo(Mockito.eq(1234L));
+
+        accountResponseCache.invalidate(1234L);
+        ResponseEntity<AccountBalanceResponse> responseEntity = accountsV1Service.v1AccountsAccountIdBalanceGet("1234");
+        Mockito.verify(repositoryService, Mockito.times(2)).fetchAccountInfo(Mockito.eq(1234L));
+        Assertions.assertEquals("1,000.00", responseEntity.getBody().getBalance());
+    }
+
     @Test
     void v1AccountsAccountIdStatementsMiniGet_Failed_NoAccountDetails() {
         Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1234L)))
@@ -99,12 +147,70 @@ class AccountsV1ServiceTest {
 
     @Test
     void v1AccountsGet_Success() {
-        Mockito.when(repositoryService.fetchAllAccountInfo())
+        Mockito.when(repositoryService.fetchAccountInfoPage(null, null, null, 101))
                 .thenReturn(TestSupportUtils.getAccountInfoList());
-        ResponseEntity<List<AccountDetailsResponseData>> responseEntity = accountsV1Service.v1AccountsGet();
+        ResponseEntity<AccountDetailsPageResponse> responseEntity =
+                accountsV1Service.v1AccountsGet(100, null, null, null, null);
 
         Assertions.assertEquals(200, responseEntity.getStatusCode().value());
-        Assertions.assertEquals(3, responseEntity.getBody().size());
+        Assertions.assertEquals(3, responseEntity.getBody().getAccounts().size());
+        Assertions.assertNull(responseEntity.getBody().getNextCursor());
+        Assertions.assertNotNull(responseEntity.getHeaders().getETag());
+    }
+
+    @Test
+    void v1AccountsGet_NotModified() {
+        String etag = accountsV1Service.v1AccountsGet(100, null, null, null, null).getHeaders().getETag();
+        ResponseEntity<AccountDetailsPageResponse> responseEntity =
+                accountsV1Service.v1AccountsGet(100, null, null, null, etag);
+
+        Assertions.assertEquals(304, responseEntity.getStatusCode().value());
+        Assertions.assertEquals(etag, responseEntity.getHeaders().getETag());
+        Assertions.assertNull(responseEntity.getBody());
+        Mockito.verify(repositoryService, Mockito.times(1))
+                .fetchAccountInfoPage(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    void v1AccountsGet_Failed_InvalidAccountStatus() {
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class,
+                () -> accountsV1Service.v1AccountsGet(100, null, "CLOSED", null, null));
+        Assertions.assertEquals(400, e.getHttpStatus().value());
+        Assertions.assertEquals("Invalid account status.", e.getMessage());
+    }
+
+    @Test
+    void v1TransactionsExportGet_Success_GzipWhenAccepted() {
+        ResponseEntity<?> responseEntity =
+                accountsV1Service.v1TransactionsExportGet(null, "csv", "deflate, gzip;q=0.5");
+
+        Assertions.assertEquals(200, responseEntity.getStatusCode().value());
+        Assertions.assertEquals("gzip", responseEntity.getHeaders().getFirst("Content-Encoding"));
+    }
+
+    @Test
+    void v1TransactionsExportGet_Success_IdentityWhenGzipRefused() {
+        ResponseEntity<?> responseEntity =
+                accountsV1Service.v1TransactionsExportGet(null, "csv", "gzip;q=0, deflate");
+
+        Assertions.assertEquals(200, responseEntity.getStatusCode().value());
+        Assertions.assertNull(responseEntity.getHeaders().getFirst("Content-Encoding"));
+    }
+
+    @Test
+    void acceptsGzip() {
+        Assertions.assertTrue(AccountsV1Service.acceptsGzip("gzip"));
+        Assertions.assertTrue(AccountsV1Service.acceptsGzip("br, GZIP ; q=0.8"));
+        Assertions.assertTrue(AccountsV1Service.acceptsGzip("*"));
+        Assertions.assertTrue(AccountsV1Service.acceptsGzip("deflate, *;q=0.1"));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip(null));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("gzip;q=0"));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("gzip; q=0.000"));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("x-gzip"));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("deflate, identity"));
+        /* gzip weighted on its own is not accepted through *. */
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("gzip;q=0, *"));
+        Assertions.assertFalse(AccountsV1Service.acceptsGzip("gzip;q=high"));
     }
 
     @Test
@@ -114,8 +220,8 @@ class AccountsV1ServiceTest {
                 .thenReturn(TestSupportUtils.getOptionalAccountInfo())
                 .thenReturn(TestSupportUtils.getOptionalAccountInfo2());
 
-        Mockito.doNothing().when(repositoryService).saveTransactionDetails(Mockito.any());
-        Mockito.doNothing().when(repositoryService).updateBalanceInfo(Mockito.anyLong(), Mockito.any());
+        Mockito.when(repositoryService.transferFunds(Mockito.any()))
+                .thenReturn(Map.of(1234L, Money.parse("877.00", "GBP"), 1111L, Money.parse("2123.00", "GBP")));
 
         ResponseEntity<PaymentTransferResponse> responseEntity = accountsV1Service.v1PaymentsTransferPost(
                 "idem-key", TestSupportUtils.getPaymentTransferRequest());
@@ -242,4 +348,169 @@ class AccountsV1ServiceTest {
             Assertions.assertEquals("Sending between same account numbers not permitted.", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void v1PaymentsTransferBatchPost_Success_PerItemResults() {
+        Mockito.when(repositoryService.fetchExistingIdempotencyKeys(Mockito.anyCollection()))
+                .thenReturn(Collections.singleton("idem-key-used"));
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1234L)))
+                .thenReturn(TestSupportUtils.getOptionalAccountInfo());
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.eq(1111L)))
+                .thenReturn(TestSupportUtils.getOptionalAccountInfo2());
+        Mockito.when(repositoryService.saveTransferBatch(Mockito.anyList(), Mockito.anyList()))
+                .thenReturn(TestSupportUtils.getAccountInfoList());
+
+        PaymentTransferBatchRequest paymentTransferBatchRequest = new PaymentTransferBatchRequest()
+                .addTransfersItem(new PaymentTransferBatchItem().idempotencyKey("idem-key-1")
+                        .paymentTransferRequest(TestSupportUtils.getPaymentTransferRequest().amount("600.00")))
+                .addTransfersItem(new PaymentTransferBatchItem().idempotencyKey("idem-key-used")
+                        .paymentTransferRequest(TestSupportUtils.getPaymentTransferRequest()))
+                .addTransfersItem(new PaymentTransferBatchItem().idempotencyKey("idem-key-2")
+                        .paymentTransferRequest(TestSupportUtils.getPaymentTransferRequest().amount("600.00")))
+                .addTransfersItem(new PaymentTransferBatchItem().idempotencyKey("idem-key-3")
+                        .paymentTransferRequest(TestSupportUtils.getPaymentTransferRequest().amount("300.00")));
+        ResponseEntity<PaymentTransferBatchResponse> responseEntity =
+                accountsV1Service.v1PaymentsTransferBatchPost(paymentTransferBatchRequest);
+
+        Assertions.assertEquals(200, responseEntity.getStatusCode().value());
+        List<PaymentTransferBatchResult> results = responseEntity.getBody().getResults();
+        Assertions.assertEquals(4, results.size());
+        Assertions.assertEquals(202, results.get(0).getCode());
+        Assertions.assertEquals(409, results.get(1).getCode());
+        Assertions.assertEquals("Request with the same Idempotency-Key is in progress, please retry later.", results.get(1).getError().getMessage());
+        /* Sender has 1000.00, so the second transfer of 600.00 within the batch is rejected. */
+        Assertions.assertEquals(400, results.get(2).getCode());
+        Assertions.assertEquals("Insufficient funds, not able to perform the transaction.", results.get(2).getError().getMessage());
+        Assertions.assertEquals(202, results.get(3).getCode());
+        Mockito.verify(repositoryService, Mockito.times(1)).saveTransferBatch(
+                Mockito.eq(Arrays.asList("idem-key-1", "idem-key-3")), Mockito.anyList());
+    }
+
+    @Test
+    void v1PaymentsTransferPost_Success_ResponseReplayed() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
+        Mockito.when(transferEngine.transfer(Mockito.any())).thenReturn(TestSupportUtils.getTransactionInfoList().get(0));
+
+        ResponseEntity<PaymentTransferResponse> responseEntity = accountsV1Service.v1PaymentsTransferPost(
+                "idem-key", TestSupportUtils.getPaymentTransferRequest());
+        ArgumentCaptor<Map<String, String>> storedResponses = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(repositoryService).saveIdempotentResponses(storedResponses.capture());
+
+        Mockito.doThrow(new CustomBusinessException(HttpStatus.CONFLICT, "In progress"))
+                .when(repositoryService).insertIdempotencyKey(Mockito.eq("idem-key"));
+        Mockito.when(repositoryService.fetchIdempotentResponses(Mockito.eq(Collections.singleton("idem-key"))))
+                .thenReturn(storedResponses.getValue());
+        ResponseEntity<PaymentTransferResponse> replayedResponseEntity = accountsV1Service.v1PaymentsTransferPost(
+                "idem-key", TestSupportUtils.getPaymentTransferRequest());
+
+        Assertions.assertEquals(202, replayedResponseEntity.getStatusCode().value());
+        Assertions.assertEquals(responseEntity.getBody(), replayedResponseEntity.getBody());
+        Mockito.verify(transferEngine, Mockito.times(1)).transfer(Mockito.any());
+    }
+
+    @Test
+    void v1PaymentsTransferPost_Failed_InProgress() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
+        Mockito.doThrow(new CustomBusinessException(HttpStatus.CONFLICT, "In progress"))
+                .when(repositoryService).insertIdempotencyKey(Mockito.eq("idem-key"));
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                accountsV1Service.v1PaymentsTransferPost("idem-key", TestSupportUtils.getPaymentTransferRequest()));
+        Assertions.assertEquals(409, e.getHttpStatus().value());
+        Mockito.verifyNoInteractions(transferEngine);
+    }
+
+    @Test
+    void v1PaymentsTransferPost_Failed_KeyReleased() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
+        Mockito.when(transferEngine.transfer(Mockito.any())).thenThrow(new CustomBusinessException(
+                HttpStatus.BAD_REQUEST, "Insufficient funds, not able to perform the transaction."));
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                accountsV1Service.v1PaymentsTransferPost("idem-key", TestSupportUtils.getPaymentTransferRequest()));
+        Assertions.assertEquals(400, e.getHttpStatus().value());
+        Mockito.verify(repositoryService, Mockito.times(1)).deleteIdempotencyKey(Mockito.eq("idem-key"));
+        Mockito.verify(repositoryService, Mockito.never()).saveIdempotentResponses(Mockito.anyMap());
+    }
+
+    @Test
+    void v1PaymentsTransferPost_Failed_OutcomeUnknownKeyKept() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
+        Mockito.when(transferEngine.transfer(Mockito.any())).thenThrow(new TransferOutcomeUnknownException(
+                "Transfer outcome unknown, the idempotency key is kept until it is settled.", null));
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                accountsV1Service.v1PaymentsTransferPost("idem-key", TestSupportUtils.getPaymentTransferRequest()));
+        Assertions.assertEquals(500, e.getHttpStatus().value());
+        Mockito.verify(repositoryService, Mockito.never()).deleteIdempotencyKey(Mockito.anyString());
+    }
+
+    @Test
+    void v1PaymentsTransferPost_Success_AsyncQueued() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AsyncTransferQueue asyncTransferQueue = Mockito.mock(AsyncTransferQueue.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), asyncTransferQueue);
+        Mockito.when(asyncTransferQueue.isEnabled()).thenReturn(true);
+        Mockito.when(asyncTransferQueue.submit(Mockito.eq("idem-key"), Mockito.any()))
+                .thenReturn(new PaymentTransferResponse().status("Transfer accepted for processing").transferId("transfer-id"));
+
+        ResponseEntity<PaymentTransferResponse> responseEntity = accountsV1Service.v1PaymentsTransferPost(
+                "idem-key", TestSupportUtils.getPaymentTransferRequest());
+
+        Assertions.assertEquals(202, responseEntity.getStatusCode().value());
+        Assertions.assertEquals("transfer-id", responseEntity.getBody().getTransferId());
+        Mockito.verify(transferEngine).validate(Mockito.any());
+        Mockito.verify(transferEngine, Mockito.never()).transfer(Mockito.any());
+        Mockito.verify(repositoryService, Mockito.never()).saveIdempotentResponses(Mockito.anyMap());
+    }
+
+    @Test
+    void v1PaymentsTransferIdGet_Failed_NotFound() {
+        AsyncTransferQueue asyncTransferQueue = Mockito.mock(AsyncTransferQueue.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, Mockito.mock(TransferEngine.class),
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), asyncTransferQueue);
+        Mockito.when(asyncTransferQueue.fetchStatus(Mockito.anyString())).thenReturn(Optional.empty());
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                accountsV1Service.v1PaymentsTransferIdGet("transfer-id"));
+        Assertions.assertEquals(404, e.getHttpStatus().value());
+    }
+
+    @Test
+    void v1PaymentsTransferBatchPost_Success_ResponseReplayed() {
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        TransferEngine transferEngine = Mockito.mock(TransferEngine.class);
+        AccountsV1Service accountsV1Service = new AccountsV1Service(repositoryService, transferEngine,
+                new ObjectMapper(), new AccountResponseCache(new ObjectMapper()), Mockito.mock(AsyncTransferQueue.class));
+        Mockito.when(repositoryService.fetchExistingIdempotencyKeys(Mockito.anyCollection()))
+                .thenReturn(Collections.singleton("idem-key-done"));
+        Mockito.when(repositoryService.fetchIdempotentResponses(Mockito.anyCollection()))
+                .thenReturn(Collections.singletonMap("idem-key-done",
+                        "{\"status\":\"Transfer completed successfully\",\"sender_account_id\":1234,\"receiver_account_id\":1111,\"amount\":\"10.00\"}"));
+
+        ResponseEntity<PaymentTransferBatchResponse> responseEntity = accountsV1Service.v1PaymentsTransferBatchPost(
+                new PaymentTransferBatchRequest().addTransfersItem(new PaymentTransferBatchItem()
+                        .idempotencyKey("idem-key-done")
+                        .paymentTransferRequest(TestSupportUtils.getPaymentTransferRequest())));
+
+        PaymentTransferBatchResult result = responseEntity.getBody().getResults().get(0);
+        Assertions.assertEquals(202, result.getCode());
+        Assertions.assertEquals("10.00", result.getPaymentTransferResponse().getAmount());
+        Assertions.assertEquals(1234L, result.getPaymentTransferResponse().getSenderAccountId());
+        Mockito.verifyNoInteractions(transferEngine);
+    }
+}
@@ -0,0 +1,223 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mc.ibpts.paymentapp.TestSupportUtils;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferStatusResponse;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+class AsyncTransferQueueTest {
+
+    private CacheManager cacheManager;
+    private RepositoryService repositoryService;
+    private TransferEngine transferEngine;
+    private Map<Long, AccountInfo> ledger;
+
+    @BeforeEach
+    void init() {
+        cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+                .withCache("transferStatuses", CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                        String.class, PaymentTransferStatusResponse.class, ResourcePoolsBuilder.heap(100)))
+                .build(true);
+        ledger = new ConcurrentHashMap<>();
+        ledger.put(1234L, TestSupportUtils.getOptionalAccountInfo().orElseThrow());
+        ledger.put(1111L, TestSupportUtils.getOptionalAccountInfo2().orElseThrow());
+
+        /* Debits guarded on the balance, as the database does. */
+        repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(ledger.get(invocation.<Long>getArgument(0))));
+        Mockito.when(repositoryService.transferFundsBatch(Mockito.anyList())).thenAnswer(invocation -> {
+            List<TransferOutcome> transferOutcomes = new ArrayList<>();
+            for (TransactionInfo transactionInfo : invocation.<List<TransactionInfo>>getArgument(0)) {
+                AccountInfo senderAccountInfo = ledger.get(transactionInfo.getSenderAccountId());
+                AccountInfo receiverAccountInfo = ledger.get(transactionInfo.getReceiverAccountId());
+                if (senderAccountInfo.getBalance().isLessThan(transactionInfo.getAmount())) {
+                    transferOutcomes.add(TransferOutcome.rejected(
+                            HttpStatus.BAD_REQUEST, "Insufficient funds, not able to perform the transaction."));
+                    continue;
+                }
+                senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(transactionInfo.getAmount()));
+                receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(transactionInfo.getAmount()));
+                transferOutcomes.add(TransferOutcome.completed(transactionInfo));
+            }
+            return transferOutcomes;
+        });
+        transferEngine = new TransferEngine(
+                repositoryService,
+                new StripedAccountLocks(16),
+                new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+                Mockito.mock(TransferJournalApplier.class));
+    }
+
+    @AfterEach
+    void close() {
+        cacheManager.close();
+    }
+
+    private AsyncTransferQueue asyncTransferQueue(boolean enabled, int shards, int capacity) {
+        return new AsyncTransferQueue(transferEngine, repositoryService, new ObjectMapper(), cacheManager,
+                enabled, shards, capacity, 10, 100);
+    }
+
+    private static PaymentTransferRequest paymentTransferRequest(String amount) {
+        PaymentTransferRequest paymentTransferRequest = TestSupportUtils.getPaymentTransferRequest();
+        paymentTransferRequest.setAmount(amount);
+        return paymentTransferRequest;
+    }
+
+    @Test
+    void submit_Success_AppliedAndPolledAsCompleted() throws Exception {
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(true, 2, 10);
+        asyncTransferQueue.start();
+        try {
+            PaymentTransferResponse paymentTransferResponse = asyncTransferQueue.submit(
+                    "idem-key", TestSupportUtils.getPaymentTransferRequest());
+            Assertions.assertNotNull(paymentTransferResponse.getTransferId());
+            Assertions.assertEquals("100.00", paymentTransferResponse.getAmount());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            PaymentTransferStatusResponse status;
+            do {
+                status = asyncTransferQueue.fetchStatus(paymentTransferResponse.getTransferId()).orElseThrow();
+            } while (status.getStatus() == PaymentTransferStatusResponse.StatusEnum.PENDING && System.nanoTime() < deadline);
+
+            Assertions.assertEquals(PaymentTransferStatusResponse.StatusEnum.COMPLETED, status.getStatus());
+            Assertions.assertEquals(paymentTransferResponse.getTransferId(),
+                    status.getPaymentTransferResponse().getTransferId());
+            Mockito.verify(repositoryService, Mockito.timeout(5000)).saveIdempotentResponses(Mockito.anyMap());
+            Assertions.assertEquals(Money.parse("900.00", "GBP"), ledger.get(1234L).getBalance());
+        } finally {
+            asyncTransferQueue.stop();
+        }
+    }
+
+    @Test
+    void submit_Failed_QueueFull() {
+        /* Not started, so that nothing is taken out of the queue. */
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(true, 1, 1);
+        asyncTransferQueue.submit("idem-key-1", TestSupportUtils.getPaymentTransferRequest());
+
+        CustomBusinessException e = Assertions.assertThrows(CustomBusinessException.class, () ->
+                asyncTransferQueue.submit("idem-key-2", TestSupportUtils.getPaymentTransferRequest()));
+        Assertions.assertEquals(503, e.getHttpStatus().value());
+    }
+
+    @Test
+    void process_Success_BatchCommittedOnceAndOverdraftRejected() {
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(false, 1, 10);
+        List<TransferOutcome> transferOutcomes = new ArrayList<>();
+        LedgerShard ledgerShard = new LedgerShard(0, 10, 10, 100, transferEngine,
+                asyncTransferQueue::shardOf, (batch, outcomes) -> transferOutcomes.addAll(outcomes));
+
+        ledgerShard.handle(Arrays.asList(
+                new AsyncTransferQueue.QueuedTransfer("transfer-1", "idem-key-1", "request-1", paymentTransferRequest("600.00")),
+                new AsyncTransferQueue.QueuedTransfer("transfer-2", "idem-key-2", "request-2", paymentTransferRequest("600.00")),
+                new AsyncTransferQueue.QueuedTransfer("transfer-3", "idem-key-3", "request-3", paymentTransferRequest("300.00"))));
+
+        Assertions.assertTrue(transferOutcomes.get(0).isCompleted());
+        Assertions.assertEquals("request-1", transferOutcomes.get(0).getTransactionInfo().getReferenceId());
+        Assertions.assertFalse(transferOutcomes.get(1).isCompleted());
+        Assertions.assertEquals(400, transferOutcomes.get(1).getHttpStatus().value());
+        Assertions.assertTrue(transferOutcomes.get(2).isCompleted());
+        Assertions.assertEquals(Money.parse("100.00", "GBP"), ledger.get(1234L).getBalance());
+        Assertions.assertEquals(Money.parse("2900.00", "GBP"), ledger.get(1111L).getBalance());
+        Mockito.verify(repositoryService, Mockito.times(1)).transferFundsBatch(Mockito.anyList());
+    }
+
+    @Test
+    void process_Success_CreditFromOtherShardReloadsBalance() {
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(false, 2, 10);
+        LedgerShard senderShard = asyncTransferQueue.shardOf(1234L);
+        LedgerShard receiverShard = asyncTransferQueue.shardOf(1111L);
+        Assertions.assertNotSame(senderShard, receiverShard);
+        PaymentTransferRequest creditRequest = paymentTransferRequest("500.00");
+        creditRequest.setSenderAccountId(1111L);
+        creditRequest.setReceiverAccountId(1234L);
+
+        senderShard.handle(Collections.singletonList(
+                new AsyncTransferQueue.QueuedTransfer("transfer-1", "idem-key-1", "request-1", paymentTransferRequest("900.00"))));
+        receiverShard.handle(Collections.singletonList(
+                new AsyncTransferQueue.QueuedTransfer("transfer-2", "idem-key-2", "request-2", creditRequest)));
+        Mockito.clearInvocations(repositoryService);
+        senderShard.handle(Collections.singletonList(
+                new AsyncTransferQueue.QueuedTransfer("transfer-3", "idem-key-3", "request-3", paymentTransferRequest("300.00"))));
+
+        /* Validated once, on the balance reloaded with the credit of the other shard. */
+        Assertions.assertEquals(PaymentTransferStatusResponse.StatusEnum.COMPLETED,
+                asyncTransferQueue.fetchStatus("transfer-3").orElseThrow().getStatus());
+        Assertions.assertEquals(Money.parse("300.00", "GBP"), ledger.get(1234L).getBalance());
+        Mockito.verify(repositoryService, Mockito.times(1)).fetchAccountInfo(Mockito.eq(1234L));
+    }
+
+    @Test
+    void handle_Failed_UnexpectedFailureFailsWholeBatch() {
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(false, 1, 10);
+        List<TransferOutcome> transferOutcomes = new ArrayList<>();
+        LedgerShard ledgerShard = new LedgerShard(0, 10, 10, 100, transferEngine,
+                asyncTransferQueue::shardOf, (batch, outcomes) -> transferOutcomes.addAll(outcomes));
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong())).thenThrow(new IllegalStateException("Exception"));
+
+        ledgerShard.handle(Arrays.asList(
+                new AsyncTransferQueue.QueuedTransfer("transfer-1", "idem-key-1", "request-1", paymentTransferRequest("10.00")),
+                new AsyncTransferQueue.QueuedTransfer("transfer-2", "idem-key-2", "request-2", paymentTransferRequest("20.00"))));
+
+        Assertions.assertEquals(2, transferOutcomes.size());
+        transferOutcomes.forEach(transferOutcome -> {
+            Assertions.assertFalse(transferOutcome.isCompleted());
+            Assertions.assertEquals(500, transferOutcome.getHttpStatus().value());
+        });
+        Mockito.verify(repositoryService, Mockito.never()).transferFundsBatch(Mockito.anyList());
+    }
+
+    @Test
+    void complete_RejectedTransferReleasesKey() {
+        AsyncTransferQueue asyncTransferQueue = asyncTransferQueue(false, 1, 10);
+        String completedTransferId = asyncTransferQueue.submit(
+                "idem-key-1", TestSupportUtils.getPaymentTransferRequest()).getTransferId();
+        String rejectedTransferId = asyncTransferQueue.submit(
+                "idem-key-2", TestSupportUtils.getPaymentTransferRequest()).getTransferId();
+
+        asyncTransferQueue.complete(
+                Arrays.asList(
+                        new AsyncTransferQueue.QueuedTransfer(completedTransferId, "idem-key-1", "request-1",
+                                TestSupportUtils.getPaymentTransferRequest()),
+                        new AsyncTransferQueue.QueuedTransfer(rejectedTransferId, "idem-key-2", "request-2",
+                                TestSupportUtils.getPaymentTransferRequest())),
+                Arrays.asList(
+                        TransferOutcome.completed(TestSupportUtils.getTransactionInfoList().get(0)),
+                        TransferOutcome.rejected(HttpStatus.BAD_REQUEST, "Insufficient funds, not able to perform the transaction.")));
+
+        Assertions.assertEquals(PaymentTransferStatusResponse.StatusEnum.COMPLETED,
+                asyncTransferQueue.fetchStatus(completedTransferId).orElseThrow().getStatus());
+        PaymentTransferStatusResponse rejected = asyncTransferQueue.fetchStatus(rejectedTransferId).orElseThrow();
+        Assertions.assertEquals(PaymentTransferStatusResponse.StatusEnum.REJECTED, rejected.getStatus());
+        Assertions.assertEquals(400, rejected.getError().getCode());
+        Mockito.verify(repositoryService).saveIdempotentResponses(Mockito.argThat(responses -> responses.containsKey("idem-key-1")));
+        Mockito.verify(repositoryService).deleteIdempotencyKey(Mockito.eq("idem-key-2"));
+        Mockito.verify(repositoryService, Mockito.never()).deleteIdempotencyKey(Mockito.eq("idem-key-1"));
+    }
+}
@@ -0,0 +1,225 @@
+package com.mc.ibpts.paymentapp.service;
+
+import com.mc.ibpts.paymentapp.common.gen.model.PaymentTransferRequest;
+import com.mc.ibpts.paymentapp.dvo.AccountInfo;
+import com.mc.ibpts.paymentapp.dvo.Money;
+import com.mc.ibpts.paymentapp.dvo.TransactionInfo;
+import com.mc.ibpts.paymentapp.dvo.TransferOutcome;
+import com.mc.ibpts.paymentapp.exception.CustomBusinessException;
+import com.mc.ibpts.paymentapp.repository.RepositoryService;
+import com.mc.ibpts.paymentapp.repository.TransferJournal;
+import com.mc.ibpts.paymentapp.utils.StripedAccountLocks;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TransferEngineTest {
+
+    private static final int NO_OF_ACCOUNTS = 50;
+    private static final int NO_OF_THREADS = 8;
+    private static final int NO_OF_TRANSFERS = 5000;
+
+    @Test
+    void transfer_Success_TotalBalanceConservedAcrossConcurrentTransfers() throws Exception {
+        Map<Long, AccountInfo> ledger = new ConcurrentHashMap<>();
+        for (long accountId = 1; accountId <= NO_OF_ACCOUNTS; accountId++) {
+            AccountInfo accountInfo = new AccountInfo();
+            accountInfo.setAccountId(accountId);
+            accountInfo.setCurrency("GBP");
+            accountInfo.setBalance(Money.parse("100.00", "GBP"));
+            accountInfo.setAccountStatus("ACTIVE");
+            ledger.put(accountId, accountInfo);
+        }
+        Money totalBalance = totalBalance(ledger);
+
+        /* Unsynchronised read-modify-write of the balance, the engine locks are the only protection. */
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(ledger.get(invocation.<Long>getArgument(0))));
+        Mockito.when(repositoryService.transferFunds(Mockito.any())).thenAnswer(invocation -> {
+            TransactionInfo transactionInfo = invocation.getArgument(0);
+            AccountInfo senderAccountInfo = ledger.get(transactionInfo.getSenderAccountId());
+            AccountInfo receiverAccountInfo = ledger.get(transactionInfo.getReceiverAccountId());
+            Money senderBalance = senderAccountInfo.getBalance();
+            Money receiverBalance = receiverAccountInfo.getBalance();
+            Thread.yield();
+            senderAccountInfo.setBalance(senderBalance.subtract(transactionInfo.getAmount()));
+            receiverAccountInfo.setBalance(receiverBalance.add(transactionInfo.getAmount()));
+            return Map.of(transactionInfo.getSenderAccountId(), senderAccountInfo.getBalance(),
+                    transactionInfo.getReceiverAccountId(), receiverAccountInfo.getBalance());
+        });
+
+        TransferEngine transferEngine = new TransferEngine(
+                repositoryService,
+                new StripedAccountLocks(16),
+                new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+                Mockito.mock(TransferJournalApplier.class));
+
+        AtomicInteger completedTransfers = new AtomicInteger();
+        AtomicInteger rejectedTransfers = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(NO_OF_THREADS);
+        for (int i = 0; i < NO_OF_TRANSFERS; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long senderAccountId = random.nextLong(1, NO_OF_ACCOUNTS + 1);
+                long receiverAccountId = random.nextLong(1, NO_OF_ACCOUNTS + 1);
+                PaymentTransferRequest paymentTransferRequest = new PaymentTransferRequest()
+                        .senderAccountId(senderAccountId)
+                        .receiverAccountId(receiverAccountId)
+                        .amount(random.nextInt(1, 5000) / 100 + "." + String.format("%02d", random.nextInt(100)))
+                        .currency(PaymentTransferRequest.CurrencyEnum.GBP);
+                try {
+                    transferEngine.transfer(paymentTransferRequest);
+                    completedTransfers.incrementAndGet();
+                } catch (CustomBusinessException e) {
+                    rejectedTransfers.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+        Assertions.assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+        Assertions.assertEquals(NO_OF_TRANSFERS, completedTransfers.get() + rejectedTransfers.get());
+        Assertions.assertTrue(completedTransfers.get() > 0);
+        Assertions.assertEquals(totalBalance, totalBalance(ledger));
+        ledger.values().forEach(accountInfo ->
+                Assertions.assertTrue(accountInfo.getBalance().getMinorUnits() >= 0, "Account overdrawn"));
+    }
+
+    @Test
+    void transfer_Success_JournaledTransfersConservedOnceApplied(@TempDir Path directory) throws Exception {
+        Map<Long, AccountInfo> ledger = new ConcurrentHashMap<>();
+        for (long accountId = 1; accountId <= NO_OF_ACCOUNTS; accountId++) {
+            AccountInfo accountInfo = new AccountInfo();
+            accountInfo.setAccountId(accountId);
+            accountInfo.setCurrency("GBP");
+            accountInfo.setBalance(Money.parse("100.00", "GBP"));
+            accountInfo.setAccountStatus("ACTIVE");
+            ledger.put(accountId, accountInfo);
+        }
+        Money totalBalance = totalBalance(ledger);
+
+        /* The database lags behind the journal, validations only hold thanks to the pending amounts. */
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(ledger.get(invocation.<Long>getArgument(0))));
+        Mockito.when(repositoryService.applyJournaledTransfers(Mockito.anyList(), Mockito.anyLong())).thenAnswer(invocation -> {
+            for (TransactionInfo transactionInfo : invocation.<List<TransactionInfo>>getArgument(0)) {
+                AccountInfo senderAccountInfo = ledger.get(transactionInfo.getSenderAccountId());
+                AccountInfo receiverAccountInfo = ledger.get(transactionInfo.getReceiverAccountId());
+                senderAccountInfo.setBalance(senderAccountInfo.getBalance().subtract(transactionInfo.getAmount()));
+                receiverAccountInfo.setBalance(receiverAccountInfo.getBalance().add(transactionInfo.getAmount()));
+            }
+            return List.of();
+        });
+
+        StripedAccountLocks stripedAccountLocks = new StripedAccountLocks(16);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+        TransferJournal transferJournal = new TransferJournal(true, directory.toString(), 16);
+        transferJournal.open();
+        TransferJournalApplier transferJournalApplier = new TransferJournalApplier(
+                transferJournal, repositoryService, stripedAccountLocks, transactionTemplate, 50);
+        transferJournalApplier.start();
+        TransferEngine transferEngine = new TransferEngine(
+                repositoryService, stripedAccountLocks, transactionTemplate, transferJournalApplier);
+
+        AtomicInteger completedTransfers = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(NO_OF_THREADS);
+        for (int i = 0; i < NO_OF_TRANSFERS; i++) {
+            executorService.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                PaymentTransferRequest paymentTransferRequest = new PaymentTransferRequest()
+                        .senderAccountId(random.nextLong(1, NO_OF_ACCOUNTS + 1))
+                        .receiverAccountId(random.nextLong(1, NO_OF_ACCOUNTS + 1))
+                        .amount(random.nextInt(1, 5000) / 100 + "." + String.format("%02d", random.nextInt(100)))
+                        .currency(PaymentTransferRequest.CurrencyEnum.GBP);
+                try {
+                    transferEngine.transfer(paymentTransferRequest);
+                    completedTransfers.incrementAndGet();
+                } catch (CustomBusinessException e) {
+                    /* Rejected for insufficient funds. */
+                }
+            });
+        }
+        executorService.shutdown();
+        Assertions.assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+        transferJournalApplier.stop();
+        transferJournal.close();
+
+        Assertions.assertEquals(completedTransfers.get(), transferJournal.getDurableSequence());
+        Assertions.assertEquals(totalBalance, totalBalance(ledger));
+        for (long accountId = 1; accountId <= NO_OF_ACCOUNTS; accountId++) {
+            Assertions.assertNull(transferJournalApplier.pendingAmount(accountId));
+            Assertions.assertTrue(ledger.get(accountId).getBalance().getMinorUnits() >= 0, "Account overdrawn");
+        }
+    }
+
+    @Test
+    void commitBatch_Success_JournaledRejectionsReportedAsValidated() {
+        Map<Long, AccountInfo> ledger = new ConcurrentHashMap<>();
+        ledger.put(1L, accountInfo(1L, "GBP", "ACTIVE"));
+        ledger.put(2L, accountInfo(2L, "GBP", "DELETED"));
+        ledger.put(3L, accountInfo(3L, "NOK", "ACTIVE"));
+        ledger.put(4L, accountInfo(4L, "GBP", "ACTIVE"));
+        RepositoryService repositoryService = Mockito.mock(RepositoryService.class);
+        Mockito.when(repositoryService.fetchAccountInfo(Mockito.anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(ledger.get(invocation.<Long>getArgument(0))));
+        TransferJournalApplier transferJournalApplier = Mockito.mock(TransferJournalApplier.class);
+        Mockito.when(transferJournalApplier.isEnabled()).thenReturn(true);
+        TransferEngine transferEngine = new TransferEngine(repositoryService, new StripedAccountLocks(16),
+                new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)), transferJournalApplier);
+
+        List<TransferOutcome> transferOutcomes = transferEngine.commitBatch(List.of(
+                transactionInfo(2L, 1L, "10.00"),
+                transactionInfo(1L, 3L, "10.00"),
+                transactionInfo(1L, 9L, "10.00"),
+                transactionInfo(1L, 4L, "60.00"),
+                transactionInfo(1L, 4L, "60.00")));
+
+        Assertions.assertEquals("Sender's account is in Deleted status, not able to perform the transaction.",
+                transferOutcomes.get(0).getMessage());
+        Assertions.assertEquals("Receiver's currency not supported.", transferOutcomes.get(1).getMessage());
+        Assertions.assertEquals("Receiver's account_id not found.", transferOutcomes.get(2).getMessage());
+        Assertions.assertTrue(transferOutcomes.get(3).isCompleted());
+        Assertions.assertEquals("Insufficient funds, not able to perform the transaction.", transferOutcomes.get(4).getMessage());
+        transferOutcomes.stream().filter(transferOutcome -> !transferOutcome.isCompleted())
+                .forEach(transferOutcome -> Assertions.assertEquals(400, transferOutcome.getHttpStatus().value()));
+        Mockito.verify(transferJournalApplier).journal(Mockito.argThat(transactions -> transactions.size() == 1));
+    }
+
+    private static AccountInfo accountInfo(Long accountId, String currency, String accountStatus) {
+        AccountInfo accountInfo = new AccountInfo();
+        accountInfo.setAccountId(accountId);
+        accountInfo.setCurrency(currency);
+        accountInfo.setBalance(Money.parse("100.00", currency));
+        accountInfo.setAccountStatus(accountStatus);
+        return accountInfo;
+    }
+
+    private static TransactionInfo transactionInfo(Long senderAccountId, Long receiverAccountId, String amount) {
+        TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfo.setSenderAccountId(senderAccountId);
+        transactionInfo.setReceiverAccountId(receiverAccountId);
+        transactionInfo.setAmount(Money.parse(amount, "GBP"));
+        transactionInfo.setCurrency("GBP");
+        return transactionInfo;
+    }
+
+    private static Money totalBalance(Map<Long, AccountInfo> ledger) {
+        return ledger.values().stream().map(AccountInfo::getBalance).reduce(Money.zero("GBP"), Money::add);
+    }
+}
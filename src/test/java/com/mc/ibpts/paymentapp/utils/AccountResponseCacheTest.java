@@ -0,0 +1,87 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mc.ibpts.paymentapp.common.gen.model.AccountBalanceResponse;
+import com.mc.ibpts.paymentapp.common.gen.model.AccountStatementResponseData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AccountResponseCacheTest {
+
+    @Test
+    void fetchBalance_Success_CachedUntilInvalidated() {
+        AccountResponseCache accountResponseCache = new AccountResponseCache(new ObjectMapper());
+        AtomicInteger loads = new AtomicInteger();
+
+        AccountBalanceResponse accountBalanceResponse = accountResponseCache.fetchBalance(111L, accountId -> {
+            loads.incrementAndGet();
+            return new AccountBalanceResponse().accountId(accountId).balance("10.00");
+        });
+        accountResponseCache.fetchBalance(111L, accountId -> new AccountBalanceResponse());
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(111L, accountBalanceResponse.getAccountId());
+        Assertions.assertEquals("{\"account_id\":111,\"currency\":null,\"balance\":\"10.00\"}",
+                new String(((PrecomputedJson) accountBalanceResponse).getJson(), StandardCharsets.UTF_8));
+
+        accountResponseCache.invalidate(111L);
+        Assertions.assertEquals("20.00", accountResponseCache.fetchBalance(111L, accountId ->
+                new AccountBalanceResponse().accountId(accountId).balance("20.00")).getBalance());
+    }
+
+    @Test
+    void fetchStatement_Success_NotCachedWhenInvalidatedWhileLoading() {
+        AccountResponseCache accountResponseCache = new AccountResponseCache(new ObjectMapper());
+
+        /* A write touching the account while the statement is loaded, the loaded statement may be stale. */
+        List<AccountStatementResponseData> statement = accountResponseCache.fetchStatement(111L, accountId -> {
+            accountResponseCache.invalidate(accountId);
+            return Collections.singletonList(new AccountStatementResponseData().accountId(222L));
+        });
+        Assertions.assertEquals(1, statement.size());
+
+        List<AccountStatementResponseData> reloadedStatement = accountResponseCache.fetchStatement(111L, accountId ->
+                Collections.emptyList());
+        Assertions.assertTrue(reloadedStatement.isEmpty());
+    }
+
+    @Test
+    void fetchBalance_Success_BoundedToHeapEntries() {
+        AccountResponseCache accountResponseCache = new AccountResponseCache(new ObjectMapper(), 10);
+        AtomicInteger loads = new AtomicInteger();
+        for (int round = 0; round < 2; round++) {
+            for (long accountId = 1; accountId <= 100; accountId++) {
+                accountResponseCache.fetchBalance(accountId, id -> {
+                    loads.incrementAndGet();
+                    return new AccountBalanceResponse().accountId(id).balance("10.00");
+                });
+            }
+        }
+        /* At most the 10 accounts still held are served without loading them again. */
+        Assertions.assertTrue(loads.get() >= 190, "loads=" + loads.get());
+        accountResponseCache.close();
+    }
+
+    @Test
+    void precomputedJsonHttpMessageConverter_Success_WritesBytes() throws Exception {
+        AccountResponseCache accountResponseCache = new AccountResponseCache(new ObjectMapper());
+        List<AccountStatementResponseData> statement = accountResponseCache.fetchStatement(111L, accountId ->
+                Collections.singletonList(new AccountStatementResponseData().accountId(222L)));
+        PrecomputedJsonHttpMessageConverter converter = new PrecomputedJsonHttpMessageConverter();
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+
+        Assertions.assertTrue(converter.canWrite(statement.getClass(), null));
+        Assertions.assertFalse(converter.canWrite(AccountBalanceResponse.class, null));
+        Assertions.assertFalse(converter.canRead(statement.getClass(), null));
+        converter.write((PrecomputedJson) statement, null, outputMessage);
+        Assertions.assertEquals(new String(((PrecomputedJson) statement).getJson(), StandardCharsets.UTF_8),
+                outputMessage.getBodyAsString());
+        Assertions.assertEquals(((PrecomputedJson) statement).getJson().length,
+                outputMessage.getHeaders().getContentLength());
+    }
+}
@@ -0,0 +1,93 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class RingBufferTest {
+
+    @Test
+    void offer_Success_DrainedInOrderAcrossLaps() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(3);
+        Assertions.assertEquals(4, ringBuffer.capacity());
+
+        List<Integer> drained = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(ringBuffer.offer(i));
+            Assertions.assertTrue(ringBuffer.offer(i + 100));
+            Assertions.assertEquals(2, ringBuffer.drainTo(drained::add, 10));
+        }
+        Assertions.assertTrue(ringBuffer.isEmpty());
+        Assertions.assertEquals(List.of(0, 100, 1, 101, 2, 102), drained.subList(0, 6));
+    }
+
+    @Test
+    void offer_Failed_BufferFull() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(2);
+        Assertions.assertTrue(ringBuffer.offer(1));
+        Assertions.assertTrue(ringBuffer.offer(2));
+        Assertions.assertFalse(ringBuffer.offer(3));
+        Assertions.assertEquals(2, ringBuffer.size());
+
+        List<Integer> drained = new ArrayList<>();
+        Assertions.assertEquals(1, ringBuffer.drainTo(drained::add, 1));
+        Assertions.assertTrue(ringBuffer.offer(3));
+        ringBuffer.drainTo(drained::add, 10);
+        Assertions.assertEquals(List.of(1, 2, 3), drained);
+    }
+
+    @Test
+    void offer_Failed_SingleSlotNotOverwritten() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(1);
+        Assertions.assertEquals(1, ringBuffer.capacity());
+        Assertions.assertTrue(ringBuffer.offer(1));
+        Assertions.assertFalse(ringBuffer.offer(2));
+
+        List<Integer> drained = new ArrayList<>();
+        for (int i = 2; i < 5; i++) {
+            Assertions.assertEquals(1, ringBuffer.drainTo(drained::add, 10));
+            Assertions.assertTrue(ringBuffer.offer(i));
+            Assertions.assertFalse(ringBuffer.offer(-1));
+        }
+        ringBuffer.drainTo(drained::add, 10);
+        Assertions.assertEquals(List.of(1, 2, 3, 4), drained);
+    }
+
+    @Test
+    void offer_Success_ConcurrentProducersNothingLost() throws Exception {
+        int noOfProducers = 4;
+        int noOfElements = 10000;
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(64);
+        ExecutorService executorService = Executors.newFixedThreadPool(noOfProducers);
+        for (int producer = 0; producer < noOfProducers; producer++) {
+            int first = producer * noOfElements;
+            executorService.submit(() -> {
+                for (int i = first; i < first + noOfElements; i++) {
+                    /* Yielding rather than spinning, so that the consumer gets to run on a single CPU. */
+                    while (!ringBuffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+
+        Set<Integer> drained = new HashSet<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (drained.size() < noOfProducers * noOfElements && System.nanoTime() < deadline) {
+            if (ringBuffer.drainTo(element -> Assertions.assertTrue(drained.add(element)), 32) == 0) {
+                Thread.yield();
+            }
+        }
+        executorService.shutdown();
+        Assertions.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(noOfProducers * noOfElements, drained.size());
+        Assertions.assertTrue(ringBuffer.isEmpty());
+    }
+}
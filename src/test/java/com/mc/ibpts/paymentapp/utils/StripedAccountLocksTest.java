@@ -0,0 +1,83 @@
+package com.mc.ibpts.paymentapp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class StripedAccountLocksTest {
+
+    @Test
+    void executeWithLocks_Success_UnrelatedAccountsRunInParallel() throws Exception {
+        StripedAccountLocks stripedAccountLocks = new StripedAccountLocks(1024);
+        Assertions.assertNotEquals(stripedAccountLocks.stripeOf(111L), stripedAccountLocks.stripeOf(333L));
+        Assertions.assertNotEquals(stripedAccountLocks.stripeOf(222L), stripedAccountLocks.stripeOf(444L));
+
+        CountDownLatch firstTransferStarted = new CountDownLatch(1);
+        CountDownLatch secondTransferCompleted = new CountDownLatch(1);
+        CompletableFuture<Boolean> firstTransfer = CompletableFuture.supplyAsync(() ->
+                stripedAccountLocks.executeWithLocks(111L, 222L, () -> {
+                    firstTransferStarted.countDown();
+                    try {
+                        /* Holding the locks until the unrelated transfer completes. */
+                        return secondTransferCompleted.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }));
+
+        Assertions.assertTrue(firstTransferStarted.await(5, TimeUnit.SECONDS));
+        stripedAccountLocks.executeWithLocks(333L, 444L, () -> {
+            secondTransferCompleted.countDown();
+            return null;
+        });
+        Assertions.assertTrue(firstTransfer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void executeWithLocks_Success_SameStripeLockedOnce() {
+        StripedAccountLocks stripedAccountLocks = new StripedAccountLocks(1);
+        Assertions.assertEquals("done",
+                stripedAccountLocks.executeWithLocks(Arrays.asList(111L, 222L, 111L), () -> "done"));
+    }
+
+    @Test
+    void executeWithLocks_Success_LocksReleasedOnException() {
+        StripedAccountLocks stripedAccountLocks = new StripedAccountLocks(4);
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                stripedAccountLocks.executeWithLocks(111L, 222L, () -> {
+                    throw new IllegalStateException("Exception");
+                }));
+        CompletableFuture<String> otherThread = CompletableFuture.supplyAsync(() ->
+                stripedAccountLocks.executeWithLocks(111L, 222L, () -> "done"));
+        Assertions.assertEquals("done", otherThread.join());
+    }
+
+    @Test
+    void executeWithAllLocks_Success_WaitsForTransferInProgress() throws Exception {
+        StripedAccountLocks stripedAccountLocks = new StripedAccountLocks(16);
+        CountDownLatch transferStarted = new CountDownLatch(1);
+        CountDownLatch transferReleased = new CountDownLatch(1);
+        CompletableFuture<Object> transfer = CompletableFuture.supplyAsync(() ->
+                stripedAccountLocks.executeWithLocks(111L, 222L, () -> {
+                    transferStarted.countDown();
+                    try {
+                        return transferReleased.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }));
+        Assertions.assertTrue(transferStarted.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> snapshot = CompletableFuture.supplyAsync(() ->
+                stripedAccountLocks.executeWithAllLocks(() -> "snapshot"));
+        Assertions.assertThrows(TimeoutException.class, () -> snapshot.get(100, TimeUnit.MILLISECONDS));
+        transferReleased.countDown();
+        Assertions.assertEquals("snapshot", snapshot.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(true, transfer.get(5, TimeUnit.SECONDS));
+    }
+}